@@ -1,35 +1,163 @@
 package app.lovable.toplavanderia;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Cielo/Buzios recusa o mesmo cartão com o mesmo valor em sequência (erro -4281).
- * Rotaciona +0/+1/+2 centavos no valor enviado ao terminal para cada nova cobrança.
+ *
+ * Guarda as cobranças aprovadas recentes (valor cobrado, hora) e, para cada nova cobrança,
+ * escolhe o menor acréscimo de 0–2 centavos cujo valor não foi aprovado dentro da janela de
+ * duplicidade. Valores diferentes seguem sem acréscimo. Recusa e cancelamento não entram: não
+ * geram duplicidade e só empurrariam os próximos valores para cima. O cartão só é conhecido
+ * depois da leitura na LIO, então a colisão é por valor — conservador para o mesmo cliente
+ * pagando de novo. Persistido para sobreviver a restart no meio do expediente.
  */
 final class CieloAmountDedup {
     private static final String TAG = "CieloAmountDedup";
     private static final String PREFS = "cielo_amount_dedup";
-    private static final String KEY_SEQ = "seq";
-    /** Offsets 0, 1 e 2 centavos — nunca repete o valor da cobrança anterior. */
+    private static final String KEY_RECENT = "recent";
+    /** Acréscimos possíveis: 0, 1 e 2 centavos. */
     private static final int OFFSET_SLOTS = 3;
+    /** Janela em que a Cielo trata mesmo cartão + mesmo valor como duplicidade. */
+    static final long DEDUP_WINDOW_MS = 10 * 60_000L;
+    private static final int MAX_ENTRIES = 32;
+
+    private static final class Charge {
+        final long cents;
+        final long at;
+
+        Charge(long cents, long at) {
+            this.cents = cents;
+            this.at = at;
+        }
+    }
+
+    /** Cobranças recentes em memória; o disco só é lido na primeira cobrança do processo. */
+    private static List<Charge> recent;
 
     private CieloAmountDedup() {
     }
 
+    /** Valor a cobrar; só entra no histórico com {@link #recordApproved}. */
     static long chargeCents(Context context, long baseCents) {
         if (baseCents <= 0) {
             return baseCents;
         }
         Context app = context.getApplicationContext();
-        int seq = app.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getInt(KEY_SEQ, 0);
-        int offset = seq % OFFSET_SLOTS;
-        int nextSeq = (seq + 1) % OFFSET_SLOTS;
-        app.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit().putInt(KEY_SEQ, nextSeq).apply();
-        long charged = baseCents + offset;
-        if (offset > 0) {
-            Log.i(TAG, "Anti-duplicidade Cielo: base=" + baseCents + " cobrado=" + charged + " (+" + offset + " centavo(s))");
+        long charged;
+        synchronized (CieloAmountDedup.class) {
+            ensureLoaded(app);
+            evict(System.currentTimeMillis());
+            charged = pickAmount(baseCents);
+        }
+        if (charged != baseCents) {
+            Log.i(TAG, "Anti-duplicidade Cielo: base=" + baseCents + " cobrado=" + charged
+                + " (+" + (charged - baseCents) + " centavo(s))");
         }
         return charged;
     }
+
+    /** Cobrança aprovada: {@code chargedCents} fica ocupado pela janela de duplicidade. */
+    static void recordApproved(Context context, long chargedCents) {
+        if (context == null || chargedCents <= 0) {
+            return;
+        }
+        Context app = context.getApplicationContext();
+        long now = System.currentTimeMillis();
+        synchronized (CieloAmountDedup.class) {
+            ensureLoaded(app);
+            evict(now);
+            recent.add(new Charge(chargedCents, now));
+            while (recent.size() > MAX_ENTRIES) {
+                recent.remove(0);
+            }
+            persist(app);
+        }
+    }
+
+    /** Menor acréscimo sem colisão; todos usados → o que foi cobrado há mais tempo. */
+    private static long pickAmount(long baseCents) {
+        long oldestAt = Long.MAX_VALUE;
+        long oldestCents = baseCents;
+        for (int offset = 0; offset < OFFSET_SLOTS; offset++) {
+            long candidate = baseCents + offset;
+            long lastAt = lastChargedAt(candidate);
+            if (lastAt < 0L) {
+                return candidate;
+            }
+            if (lastAt < oldestAt) {
+                oldestAt = lastAt;
+                oldestCents = candidate;
+            }
+        }
+        return oldestCents;
+    }
+
+    private static long lastChargedAt(long cents) {
+        long last = -1L;
+        for (Charge c : recent) {
+            if (c.cents == cents && c.at > last) {
+                last = c.at;
+            }
+        }
+        return last;
+    }
+
+    private static void evict(long now) {
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            Charge c = recent.get(i);
+            // Relógio voltou (ajuste NTP) também invalida a entrada.
+            if (now - c.at > DEDUP_WINDOW_MS || c.at > now + DEDUP_WINDOW_MS) {
+                recent.remove(i);
+            }
+        }
+    }
+
+    private static void ensureLoaded(Context app) {
+        if (recent != null) {
+            return;
+        }
+        recent = new ArrayList<>();
+        String raw = prefs(app).getString(KEY_RECENT, "");
+        if (raw.isEmpty()) {
+            return;
+        }
+        try {
+            JSONArray arr = new JSONArray(raw);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                recent.add(new Charge(o.getLong("cents"), o.getLong("at")));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Histórico de cobranças inválido — recomeçando", e);
+            recent.clear();
+        }
+    }
+
+    private static void persist(Context app) {
+        try {
+            JSONArray arr = new JSONArray();
+            for (Charge c : recent) {
+                JSONObject o = new JSONObject();
+                o.put("cents", c.cents);
+                o.put("at", c.at);
+                arr.put(o);
+            }
+            prefs(app).edit().putString(KEY_RECENT, arr.toString()).apply();
+        } catch (Exception e) {
+            Log.w(TAG, "Falha ao gravar cobranças recentes", e);
+        }
+    }
+
+    private static SharedPreferences prefs(Context app) {
+        return app.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
 }
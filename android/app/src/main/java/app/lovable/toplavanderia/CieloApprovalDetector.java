@@ -0,0 +1,45 @@
+package app.lovable.toplavanderia;
+
+/**
+ * Regras de decisão "tela aprovada" do {@link CieloReceiptAccessibilityService}, isoladas
+ * do Android para que o replay (CieloScreenReplay, em src/test) rode exatamente a mesma lógica.
+ * Os tempos de varredura também moram aqui e são ajustados com evidência do replay.
+ */
+final class CieloApprovalDetector {
+    /** Intervalo do poll de tela aprovada durante a sessão Cielo. */
+    static final long APPROVED_POLL_MS = 300L;
+    /** Texto por janela é reaproveitado até um evento da janela ou este tempo expirar. */
+    static final long WINDOW_TEXT_MAX_AGE_MS = 1200L;
+
+    private CieloApprovalDetector() {
+    }
+
+    /** Só o texto do evento (getText + contentDescription). */
+    static boolean eventShowsApproval(String eventText) {
+        return eventText != null && !eventText.isEmpty()
+            && CieloScreenClassifier.isApprovedPaymentScreen(CieloScreenClassifier.classify(eventText));
+    }
+
+    /**
+     * CONTENT_CHANGED: sem "aprovad"/"imprimir" na subárvore alterada, a mudança não pode
+     * revelar a tela aprovada — o poll cobre o resto.
+     */
+    static boolean subtreeMayShowApproval(String changedSubtreeText) {
+        if (changedSubtreeText == null) {
+            return true;
+        }
+        int mask = CieloScreenClassifier.classify(changedSubtreeText);
+        return CieloScreenClassifier.has(mask,
+            CieloScreenClassifier.APPROVED_WORD | CieloScreenClassifier.PRINT_WORD);
+    }
+
+    /** Texto de todas as janelas e, como desempate, só a janela ativa. */
+    static boolean windowsShowApproval(String allWindowsText, String activeWindowText) {
+        if (allWindowsText != null && !allWindowsText.isEmpty()
+                && CieloScreenClassifier.isApprovedPaymentScreen(CieloScreenClassifier.classify(allWindowsText))) {
+            return true;
+        }
+        return activeWindowText != null && !activeWindowText.isEmpty()
+            && CieloScreenClassifier.isApprovedPaymentScreen(CieloScreenClassifier.classify(activeWindowText));
+    }
+}
@@ -0,0 +1,196 @@
+package app.lovable.toplavanderia;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Autômato Aho–Corasick sobre os textos de dica das telas Cielo.
+ * Cada padrão carrega uma máscara de família; {@link #match} percorre o texto uma vez
+ * e devolve o OR das famílias encontradas. Minúsculas e acentos são dobrados durante
+ * a varredura, então o texto não precisa ser normalizado antes.
+ * Java puro (sem Android) — testável na JVM.
+ */
+final class CieloHintMatcher {
+    /** char dobrado (&lt; 128) → índice no alfabeto; -1 = não aparece em nenhum padrão. */
+    private final int[] alphabetIndex;
+    private final int alphabetSize;
+    /** DFA completo: transitions[state * alphabetSize + symbol]. */
+    private final int[] transitions;
+    /** Famílias reconhecidas ao chegar no estado (já inclui as do link de falha). */
+    private final int[] output;
+
+    private CieloHintMatcher(int[] alphabetIndex, int alphabetSize, int[] transitions, int[] output) {
+        this.alphabetIndex = alphabetIndex;
+        this.alphabetSize = alphabetSize;
+        this.transitions = transitions;
+        this.output = output;
+    }
+
+    int match(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int found = 0;
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            int c = fold(text.charAt(i));
+            int symbol = c < 128 ? alphabetIndex[c] : -1;
+            state = symbol < 0 ? 0 : transitions[state * alphabetSize + symbol];
+            found |= output[state];
+        }
+        return found;
+    }
+
+    /** Minúscula sem acento — mesmo critério do normalize() do serviço de acessibilidade. */
+    static char fold(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        if (c < 128) {
+            return c;
+        }
+        switch (Character.toLowerCase(c)) {
+            case 'á': case 'à': case 'ã': case 'â': case 'ä':
+                return 'a';
+            case 'é': case 'ê': case 'è': case 'ë':
+                return 'e';
+            case 'í': case 'ì': case 'î': case 'ï':
+                return 'i';
+            case 'ó': case 'ô': case 'õ': case 'ò': case 'ö':
+                return 'o';
+            case 'ú': case 'ù': case 'û': case 'ü':
+                return 'u';
+            case 'ç':
+                return 'c';
+            default:
+                return Character.toLowerCase(c);
+        }
+    }
+
+    static final class Builder {
+        private final List<String> patterns = new ArrayList<>();
+        private final List<Integer> families = new ArrayList<>();
+
+        Builder add(int family, String... hints) {
+            for (String hint : hints) {
+                if (hint == null || hint.isEmpty()) {
+                    continue;
+                }
+                StringBuilder folded = new StringBuilder(hint.length());
+                for (int i = 0; i < hint.length(); i++) {
+                    char c = fold(hint.charAt(i));
+                    if (c >= 128) {
+                        throw new IllegalArgumentException("Dica com caractere fora de ASCII: " + hint);
+                    }
+                    folded.append(c);
+                }
+                patterns.add(folded.toString());
+                families.add(family);
+            }
+            return this;
+        }
+
+        /**
+         * Referência lenta: dobra o texto e faz um contains() por padrão, como o serviço fazia
+         * antes do autômato. Só para testes de equivalência e benchmark.
+         */
+        int matchByContains(CharSequence text) {
+            if (text == null) {
+                return 0;
+            }
+            StringBuilder folded = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                folded.append(fold(text.charAt(i)));
+            }
+            String haystack = folded.toString();
+            int found = 0;
+            for (int p = 0; p < patterns.size(); p++) {
+                if (haystack.contains(patterns.get(p))) {
+                    found |= families.get(p);
+                }
+            }
+            return found;
+        }
+
+        CieloHintMatcher build() {
+            int[] alphabetIndex = new int[128];
+            java.util.Arrays.fill(alphabetIndex, -1);
+            int alphabetSize = 0;
+            for (String p : patterns) {
+                for (int i = 0; i < p.length(); i++) {
+                    char c = p.charAt(i);
+                    if (alphabetIndex[c] < 0) {
+                        alphabetIndex[c] = alphabetSize++;
+                    }
+                }
+            }
+            if (alphabetSize == 0) {
+                return new CieloHintMatcher(alphabetIndex, 1, new int[] { 0 }, new int[] { 0 });
+            }
+
+            // Trie: -1 = sem aresta ainda.
+            List<int[]> gotoRows = new ArrayList<>();
+            List<Integer> out = new ArrayList<>();
+            gotoRows.add(newRow(alphabetSize));
+            out.add(0);
+            for (int p = 0; p < patterns.size(); p++) {
+                String pattern = patterns.get(p);
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    int symbol = alphabetIndex[pattern.charAt(i)];
+                    int next = gotoRows.get(state)[symbol];
+                    if (next < 0) {
+                        next = gotoRows.size();
+                        gotoRows.add(newRow(alphabetSize));
+                        out.add(0);
+                        gotoRows.get(state)[symbol] = next;
+                    }
+                    state = next;
+                }
+                out.set(state, out.get(state) | families.get(p));
+            }
+
+            // BFS: links de falha e DFA completo.
+            int stateCount = gotoRows.size();
+            int[] transitions = new int[stateCount * alphabetSize];
+            int[] output = new int[stateCount];
+            int[] fail = new int[stateCount];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            int[] root = gotoRows.get(0);
+            for (int s = 0; s < alphabetSize; s++) {
+                int next = root[s];
+                if (next < 0) {
+                    transitions[s] = 0;
+                } else {
+                    transitions[s] = next;
+                    fail[next] = 0;
+                    queue.add(next);
+                }
+            }
+            output[0] = out.get(0);
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                output[state] = out.get(state) | output[fail[state]];
+                int[] row = gotoRows.get(state);
+                for (int s = 0; s < alphabetSize; s++) {
+                    int next = row[s];
+                    if (next < 0) {
+                        transitions[state * alphabetSize + s] = transitions[fail[state] * alphabetSize + s];
+                    } else {
+                        transitions[state * alphabetSize + s] = next;
+                        fail[next] = transitions[fail[state] * alphabetSize + s];
+                        queue.add(next);
+                    }
+                }
+            }
+            return new CieloHintMatcher(alphabetIndex, alphabetSize, transitions, output);
+        }
+
+        private static int[] newRow(int size) {
+            int[] row = new int[size];
+            java.util.Arrays.fill(row, -1);
+            return row;
+        }
+    }
+}
@@ -15,6 +15,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -28,8 +29,6 @@ import java.util.concurrent.ThreadLocalRandom;
 public class CieloLioManager implements PaymentManager {
     private static final String TAG = "CieloLioManager";
     private static CieloLioManager activeInstance;
-    private static String lastConsumedCallbackSignature;
-    private static long lastConsumedCallbackAtMs;
     private static long lastDeepLinkLaunchAtMs;
     private static long cieloCooldownUntilMs;
     /** Intervalo curto entre deep links para permitir pagamentos seguidos. */
@@ -92,7 +91,7 @@ public class CieloLioManager implements PaymentManager {
     private String boundPendingTxId;
     /** Binding recém-criado pelo Totem para o checkout que ainda será lançado. */
     private volatile boolean checkoutPreparedForLaunch;
-    private volatile boolean successDelivered;
+    private final AtomicBoolean successDelivered = new AtomicBoolean(false);
     /** Garante que o fechamento do pedido pago roda uma única vez por checkout (deep link ou broadcast). */
     private volatile boolean paidOrderCleanupDone;
     private ApprovedPaymentSnapshot lastApprovedPayment;
@@ -249,7 +248,7 @@ public class CieloLioManager implements PaymentManager {
             return false;
         }
         // Sucesso já entregue ao totem: não bloqueia o próximo pagamento.
-        if (successDelivered) {
+        if (successDelivered.get()) {
             return false;
         }
         long ageMs = boundCheckoutAgeMs();
@@ -316,6 +315,7 @@ public class CieloLioManager implements PaymentManager {
     public String abandonExpiredBoundCheckout(String reason) {
         String abandonedTx = getBoundPendingTxId();
         Log.w(TAG, "Abandonando checkout Cielo (" + reason + ") tx=" + abandonedTx);
+        MachineLeases.release(getBoundMachineId());
         if (abandonedTx != null && !abandonedTx.isEmpty()) {
             lastAbandonedTxId = abandonedTx;
         }
@@ -368,12 +368,16 @@ public class CieloLioManager implements PaymentManager {
             notifyPaymentError("Ja ha uma transacao em processamento");
             return;
         }
+        if (pendingReversal != null) {
+            notifyPaymentError("Aguarde alguns segundos: estorno Cielo em andamento.");
+            return;
+        }
         // bindTotemCheckout é chamado antes de processPayment para persistir a correlação.
         // Esse binding pertence ao checkout atual e não pode ser confundido com um anterior.
         boolean isPreparedCurrentCheckout = checkoutPreparedForLaunch;
         checkoutPreparedForLaunch = false;
         // Ainda dentro da janela — evita segundo checkout enquanto o anterior pode concluir.
-        if (!isPreparedCurrentCheckout && hasFreshBoundCheckout() && !successDelivered) {
+        if (!isPreparedCurrentCheckout && hasFreshBoundCheckout() && !successDelivered.get()) {
             long age = Math.max(0L, boundCheckoutAgeMs());
             long remainSec = Math.max(1L, (boundCheckoutLimitMs() - age + 999L) / 1000L);
             boolean isPixOpen = "PIX".equalsIgnoreCase(pendingPaymentCode)
@@ -532,8 +536,9 @@ public class CieloLioManager implements PaymentManager {
         boundMachineId = machineId == null ? "" : machineId.trim();
         boundPendingTxId = pendingTxId == null ? "" : pendingTxId.trim();
         checkoutPreparedForLaunch = true;
-        successDelivered = false;
+        successDelivered.set(false);
         persistBoundCheckout();
+        MachineLeases.attachTransaction(boundMachineId, boundPendingTxId);
     }
 
     public long getBoundTotemOperationId() {
@@ -570,7 +575,7 @@ public class CieloLioManager implements PaymentManager {
         boundMachineId = "";
         boundPendingTxId = "";
         checkoutPreparedForLaunch = false;
-        successDelivered = false;
+        successDelivered.set(false);
         context.getApplicationContext()
             .getSharedPreferences(PREFS_CHECKOUT, Context.MODE_PRIVATE)
             .edit()
@@ -587,7 +592,7 @@ public class CieloLioManager implements PaymentManager {
         if (mgr == null) {
             return;
         }
-        if (mgr.successDelivered) {
+        if (mgr.successDelivered.get()) {
             return;
         }
         if (!mgr.isProcessing && mgr.getBoundTotemOperationId() <= 0) {
@@ -738,7 +743,7 @@ public class CieloLioManager implements PaymentManager {
 
     private void consumeDeepLinkResponse(Uri uri) {
         if (isDuplicateCallback(uri)) {
-            if (successDelivered) {
+            if (successDelivered.get()) {
                 // Deep link tardio após broadcast PIX: atualiza paymentId real para estorno.
                 tryUpgradeApprovedPaymentSnapshotFromUri(uri);
                 Log.w(TAG, "Callback Cielo duplicado ignorado (sucesso já entregue; snapshot atualizado se possível)");
@@ -914,7 +919,7 @@ public class CieloLioManager implements PaymentManager {
         final boolean isPix = "PIX".equalsIgnoreCase(pendingPaymentCode);
         final long timeoutMs = isPix ? PROCESSING_WATCHDOG_PIX_MS : PROCESSING_WATCHDOG_MS;
         processingWatchdogRunnable = () -> {
-            if (successDelivered) {
+            if (successDelivered.get()) {
                 return;
             }
             if (!isProcessing && !hasFreshBoundCheckout() && !hasExpiredBoundCheckout()) {
@@ -1095,25 +1100,14 @@ public class CieloLioManager implements PaymentManager {
         return String.format(Locale.US, "TL%013d%05d", now, rnd);
     }
 
-    private static boolean isDuplicateCallback(Uri uri) {
+    private boolean isDuplicateCallback(Uri uri) {
         if (uri == null) {
             return false;
         }
-        String response = uri.getQueryParameter("response");
-        String responseCode = uri.getQueryParameter("responsecode");
-        String signature = (responseCode == null ? "" : responseCode) + "|"
-            + (response == null ? "" : response);
-        long now = System.currentTimeMillis();
-        synchronized (CieloLioManager.class) {
-            if (!signature.isEmpty()
-                    && signature.equals(lastConsumedCallbackSignature)
-                    && (now - lastConsumedCallbackAtMs) < 8000L) {
-                return true;
-            }
-            lastConsumedCallbackSignature = signature;
-            lastConsumedCallbackAtMs = now;
-        }
-        return false;
+        String key = CieloPaymentDedupIndex.callbackKey(
+            uri.getQueryParameter("responsecode"),
+            uri.getQueryParameter("response"));
+        return !CieloPaymentDedupIndex.tryClaim(context, key, CieloPaymentDedupIndex.CALLBACK_TTL_MS);
     }
 
     /**
@@ -1165,13 +1159,40 @@ public class CieloLioManager implements PaymentManager {
         }
     }
 
-    private synchronized void deliverPaymentSuccess(String authCode, String txnId, String source) {
-        if (successDelivered) {
+    /**
+     * Entrega o sucesso uma única vez por checkout. As duas chaves do índice persistente
+     * (reference e paymentId) são reservadas antes do compareAndSet: se a do paymentId já foi
+     * consumida, a da reference é devolvida e o checkout continua aberto para a entrega certa.
+     */
+    private void deliverPaymentSuccess(String authCode, String txnId, String source) {
+        if (successDelivered.get()) {
+            Log.d(TAG, "Sucesso já entregue — ignorando " + source);
+            return;
+        }
+        String reference = pendingReference;
+        String refKey = reference == null || reference.isEmpty()
+            ? null : CieloPaymentDedupIndex.referenceKey(reference);
+        if (!CieloPaymentDedupIndex.tryClaim(context, refKey, CieloPaymentDedupIndex.PAYMENT_TTL_MS)) {
+            Log.w(TAG, "Sucesso da ref " + reference + " já consumido antes — ignorando " + source);
+            return;
+        }
+        ApprovedPaymentSnapshot approved = lastApprovedPayment;
+        String payKey = approved != null && isReversibleSnapshot(approved)
+            ? CieloPaymentDedupIndex.paymentKey(approved.paymentId) : null;
+        if (!CieloPaymentDedupIndex.tryClaim(context, payKey, CieloPaymentDedupIndex.PAYMENT_TTL_MS)) {
+            CieloPaymentDedupIndex.release(context, refKey);
+            Log.w(TAG, "paymentId " + approved.paymentId + " já consumido antes — ignorando " + source);
+            return;
+        }
+        if (!successDelivered.compareAndSet(false, true)) {
+            // Outra entrega sem chaves venceu no meio: as reservas desta não valem.
+            CieloPaymentDedupIndex.release(context, payKey);
+            CieloPaymentDedupIndex.release(context, refKey);
             Log.d(TAG, "Sucesso já entregue — ignorando " + source);
             return;
         }
-        successDelivered = true;
         Log.i(TAG, "Pagamento aprovado (" + source + ") auth=" + authCode + " txn=" + txnId);
+        CieloAmountDedup.recordApproved(context, pendingAmountCents);
         if (callback != null) {
             final String auth = authCode == null ? "" : authCode;
             final String txn = txnId == null ? "" : txnId;
@@ -1431,6 +1452,33 @@ public class CieloLioManager implements PaymentManager {
         CieloOrderJanitor.clearProtectedRefundReference();
     }
 
+    /**
+     * Estorno da fila confirmado: descarta o snapshot de estorno, como em
+     * {@link #requestAutomaticReversal}, se ele for deste pagamento (paymentId ou reference).
+     * Snapshot de um pagamento mais novo fica.
+     */
+    void onQueuedReversalConfirmed(ApprovedPaymentSnapshot snap, String reference) {
+        if (context == null) {
+            return;
+        }
+        android.content.SharedPreferences prefs = context.getApplicationContext()
+            .getSharedPreferences(PREFS_REFUND, Context.MODE_PRIVATE);
+        String savedId = prefs.getString(KEY_REFUND_PAYMENT_ID, "");
+        String savedRef = prefs.getString(KEY_REFUND_REFERENCE, "");
+        String paymentId = snap == null ? "" : snap.paymentId;
+        boolean samePayment = paymentId != null && !paymentId.isEmpty() && paymentId.equals(savedId);
+        boolean sameReference = reference != null && !reference.isEmpty() && reference.equals(savedRef);
+        if (!samePayment && !sameReference) {
+            return;
+        }
+        ApprovedPaymentSnapshot current = lastApprovedPayment;
+        if (current == null || current.paymentId == null || current.paymentId.isEmpty()
+                || current.paymentId.equals(savedId)) {
+            lastApprovedPayment = null;
+        }
+        clearRefundSnapshotPrefs();
+    }
+
     /** Descarta o snapshot de estorno após liberação ESP confirmada. */
     public void consumeApprovedPaymentSnapshot() {
         lastApprovedPayment = null;
@@ -1474,6 +1522,81 @@ public class CieloLioManager implements PaymentManager {
             Log.e(TAG, "Estorno automático: snapshot de pagamento ausente ou inválido");
             return false;
         }
+        boolean reversed = launchReversalAndWait(snap);
+        if (reversed) {
+            lastApprovedPayment = null;
+            clearRefundSnapshotPrefs();
+        }
+        return reversed;
+    }
+
+    /**
+     * Coloca o estorno na fila persistente ({@link CieloReversalQueue}) e retorna na hora.
+     * False se não há paymentId nem reference para estornar.
+     */
+    public boolean enqueueAutomaticReversal(ApprovedPaymentSnapshot snap, String pendingTxId) {
+        if (snap == null) {
+            snap = peekApprovedPaymentSnapshot();
+        }
+        String reference = loadRefundReference();
+        boolean hasReference = reference != null && !reference.isEmpty();
+        if (!isReversibleSnapshot(snap) && !hasReference) {
+            Log.e(TAG, "Estorno automático: sem paymentId/reference para enfileirar");
+            return false;
+        }
+        if (snap == null) {
+            snap = new ApprovedPaymentSnapshot("", "", "", pendingAmountCents);
+        }
+        CieloReversalQueue.enqueue(context, snap, hasReference ? reference : "", pendingTxId);
+        return true;
+    }
+
+    /** Instância do totem usada pelo worker de estorno (credenciais Cielo já configuradas). */
+    static CieloLioManager registeredManager() {
+        return registeredAppManager;
+    }
+
+    /** Worker de estorno não deve abrir a LIO enquanto há checkout em curso. */
+    boolean isCheckoutBusy() {
+        return isProcessing || hasFreshBoundCheckout();
+    }
+
+    public static boolean isReversalInProgress() {
+        return pendingReversal != null;
+    }
+
+    /**
+     * Reconciliação da fila: busca o payment real no Order Manager pela reference,
+     * sem tocar no snapshot do checkout atual. Null se não encontrado.
+     */
+    ApprovedPaymentSnapshot lookupPaymentByReference(String reference, ApprovedPaymentSnapshot fallback) {
+        if (reference == null || reference.isEmpty()) {
+            return null;
+        }
+        CieloOrderJanitor.PaymentRef found = CieloOrderJanitor.findPaymentByReference(
+            clientId,
+            accessToken,
+            merchantCodeForJanitor(),
+            environment,
+            reference
+        );
+        if (found == null) {
+            return null;
+        }
+        long amount = found.amountCents > 0 ? found.amountCents : (fallback != null ? fallback.amountCents : 0L);
+        return new ApprovedPaymentSnapshot(
+            found.paymentId,
+            found.authCode.isEmpty() && fallback != null ? fallback.authCode : found.authCode,
+            found.cieloCode.isEmpty() && fallback != null ? fallback.cieloCode : found.cieloCode,
+            amount
+        );
+    }
+
+    /** Abre lio://payment-reversal e bloqueia até o callback ou timeout. */
+    boolean launchReversalAndWait(ApprovedPaymentSnapshot snap) {
+        if (!isReversibleSnapshot(snap)) {
+            return false;
+        }
         if (!isInitialized) {
             Log.e(TAG, "Estorno automático: credenciais Cielo ausentes");
             return false;
@@ -1523,8 +1646,6 @@ public class CieloLioManager implements PaymentManager {
             }
             if (wait.success) {
                 Log.i(TAG, "Estorno Cielo confirmado");
-                lastApprovedPayment = null;
-                clearRefundSnapshotPrefs();
                 return true;
             }
             Log.e(TAG, "Estorno Cielo falhou: " + wait.errorMessage);
@@ -2,6 +2,8 @@ package app.lovable.toplavanderia;
 
 
 
+import android.os.SystemClock;
+
 import android.util.Log;
 
 
@@ -48,6 +50,8 @@ public final class CieloOrderJanitor {
 
     private static final int READ_MS = 12000;
 
+    private static final String LIST_ENDPOINT = "cielo-orders-list";
+
     /** Reference de checkout com estorno pendente — não fechar no janitor. */
     private static volatile String protectedRefundReference = "";
 
@@ -59,6 +63,22 @@ public final class CieloOrderJanitor {
         protectedRefundReference = "";
     }
 
+    /** References com estorno na fila persistente — não fechar até o worker concluir. */
+    private static final java.util.Set<String> QUEUED_REVERSAL_REFERENCES =
+        java.util.concurrent.ConcurrentHashMap.newKeySet();
+
+    static void protectQueuedReversalReference(String reference) {
+        if (reference != null && !reference.trim().isEmpty()) {
+            QUEUED_REVERSAL_REFERENCES.add(reference.trim());
+        }
+    }
+
+    static void releaseQueuedReversalReference(String reference) {
+        if (reference != null) {
+            QUEUED_REVERSAL_REFERENCES.remove(reference.trim());
+        }
+    }
+
     private static final String[] OPEN_STATUSES = { "ENTERED", "PAID", "RE-ENTERED", "DRAFT" };
 
     private static final String[] CLOSE_OPERATIONS = { "close" };
@@ -408,7 +428,8 @@ public final class CieloOrderJanitor {
 
                 try {
 
-                    Thread.sleep(i == 1 ? 600L : 2000L);
+                    // Backoff com jitter: totens da loja não batem na Cielo no mesmo instante.
+                    Thread.sleep(600L + RpcGuard.backoffMs(i));
 
                 } catch (InterruptedException e) {
 
@@ -574,8 +595,8 @@ public final class CieloOrderJanitor {
 
             String orderRef = order.optString("reference", order.optString("number", ""));
             String protectedRef = protectedRefundReference;
-            if (protectedRef != null && !protectedRef.isEmpty()
-                    && protectedRef.equals(orderRef)) {
+            if ((protectedRef != null && !protectedRef.isEmpty() && protectedRef.equals(orderRef))
+                    || QUEUED_REVERSAL_REFERENCES.contains(orderRef)) {
                 Log.i(TAG, "Janitor: preservando pedido ref=" + orderRef
                     + " (estorno/confirmação ESP pendente)");
                 seen.add(orderId);
@@ -674,6 +695,12 @@ public final class CieloOrderJanitor {
 
         HttpURLConnection connection = null;
 
+        int readMs = READ_MS;
+
+        int connectMs = CONNECT_MS;
+
+        long connectedAt = 0L;
+
         try {
 
             URL url = new URL(urlString);
@@ -684,9 +711,20 @@ public final class CieloOrderJanitor {
 
             applyHeaders(connection, clientId, accessToken, merchantId);
 
-            connection.setConnectTimeout(CONNECT_MS);
+            // Listagem é leitura e o janitor já tenta de novo: timeout segue a rede medida.
+            readMs = NetworkQuality.readTimeoutMs(LIST_ENDPOINT, READ_MS);
 
-            connection.setReadTimeout(READ_MS);
+            connectMs = NetworkQuality.connectTimeoutMs(NetworkQuality.HOST_CIELO, CONNECT_MS);
+
+            connection.setConnectTimeout(connectMs);
+
+            connection.setReadTimeout(readMs);
+
+            long started = SystemClock.elapsedRealtime();
+
+            connection.connect();
+
+            connectedAt = SystemClock.elapsedRealtime();
 
 
 
@@ -694,6 +732,14 @@ public final class CieloOrderJanitor {
 
             String body = readBody(connection, code);
 
+            if (code == 200) {
+
+                NetworkQuality.recordSuccess(NetworkQuality.HOST_CIELO, LIST_ENDPOINT, connectedAt - started,
+
+                    SystemClock.elapsedRealtime() - started);
+
+            }
+
             if (code == 401) {
                 lastApiAuthFailed = true;
                 Log.e(TAG, "Order Manager Cielo: credenciais inválidas (401 Invalid Client). "
@@ -746,6 +792,14 @@ public final class CieloOrderJanitor {
 
         } catch (Exception e) {
 
+            if (e instanceof java.net.SocketTimeoutException) {
+
+                NetworkQuality.recordTimeout(NetworkQuality.HOST_CIELO, LIST_ENDPOINT, connectedAt == 0L,
+
+                    connectedAt == 0L ? connectMs : readMs);
+
+            }
+
             Log.w(TAG, "Erro ao listar pedidos Cielo label=" + label, e);
 
             return null;
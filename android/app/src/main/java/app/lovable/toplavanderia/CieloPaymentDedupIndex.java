@@ -0,0 +1,157 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice persistente de callbacks/pagamentos Cielo já consumidos.
+ * Deep link, broadcast Buzios e detecção por acessibilidade podem entregar a mesma
+ * aprovação: só o primeiro {@link #tryClaim} de cada chave vence, inclusive após restart.
+ */
+final class CieloPaymentDedupIndex {
+    private static final String TAG = "CieloPaymentDedupIndex";
+    private static final String PREFS = "cielo_payment_dedup";
+    private static final String KEY_ENTRIES = "entries";
+    /** Limite de chaves guardadas — o totem processa poucos pagamentos por hora. */
+    private static final int MAX_ENTRIES = 64;
+    /** Assinatura de callback (responsecode|response) — cobre reentrega da LIO após restart. */
+    static final long CALLBACK_TTL_MS = 10 * 60_000L;
+    /** Referência/paymentId aprovados — nunca entregar sucesso duas vezes no mesmo dia. */
+    static final long PAYMENT_TTL_MS = 24 * 60 * 60_000L;
+
+    /** chave → expiração (epoch ms). */
+    private static final ConcurrentHashMap<String, Long> ENTRIES = new ConcurrentHashMap<>();
+    private static volatile boolean loaded;
+
+    private CieloPaymentDedupIndex() {
+    }
+
+    /** O payload base64 pode ter KBs — guarda só código, tamanho e hash. */
+    static String callbackKey(String responseCode, String response) {
+        String body = response == null ? "" : response;
+        return "cb:" + (responseCode == null ? "" : responseCode) + "|" + body.length()
+            + ":" + Integer.toHexString(body.hashCode());
+    }
+
+    static String referenceKey(String reference) {
+        return "ref:" + reference;
+    }
+
+    static String paymentKey(String paymentId) {
+        return "pay:" + paymentId;
+    }
+
+    /**
+     * Reserva a chave de forma atômica. Retorna false se outra entrega já a consumiu
+     * dentro do TTL (duplicata).
+     */
+    static boolean tryClaim(Context context, String key, long ttlMs) {
+        if (key == null || key.isEmpty()) {
+            return true;
+        }
+        ensureLoaded(context);
+        long now = System.currentTimeMillis();
+        Long expiresAt = now + ttlMs;
+        while (true) {
+            Long current = ENTRIES.putIfAbsent(key, expiresAt);
+            if (current == null) {
+                break;
+            }
+            if (current > now) {
+                return false;
+            }
+            if (ENTRIES.replace(key, current, expiresAt)) {
+                break;
+            }
+        }
+        evict(now);
+        persist(context);
+        return true;
+    }
+
+    /** Desfaz um {@link #tryClaim} cuja entrega não seguiu adiante. */
+    static void release(Context context, String key) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        ensureLoaded(context);
+        if (ENTRIES.remove(key) != null) {
+            persist(context);
+        }
+    }
+
+    private static void ensureLoaded(Context context) {
+        if (loaded) {
+            return;
+        }
+        synchronized (ENTRIES) {
+            if (loaded) {
+                return;
+            }
+            try {
+                String raw = prefs(context).getString(KEY_ENTRIES, "");
+                if (raw != null && !raw.isEmpty()) {
+                    JSONObject json = new JSONObject(raw);
+                    long now = System.currentTimeMillis();
+                    Iterator<String> keys = json.keys();
+                    while (keys.hasNext()) {
+                        String k = keys.next();
+                        long expiresAt = json.optLong(k, 0L);
+                        if (expiresAt > now) {
+                            ENTRIES.putIfAbsent(k, expiresAt);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Índice de duplicidade corrompido — recomeçando vazio", e);
+            }
+            loaded = true;
+        }
+    }
+
+    /** Remove expirados e, se ainda acima do limite, as chaves que expiram primeiro. */
+    private static void evict(long now) {
+        for (Map.Entry<String, Long> e : ENTRIES.entrySet()) {
+            if (e.getValue() <= now) {
+                ENTRIES.remove(e.getKey(), e.getValue());
+            }
+        }
+        while (ENTRIES.size() > MAX_ENTRIES) {
+            String oldestKey = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> e : ENTRIES.entrySet()) {
+                if (e.getValue() < oldest) {
+                    oldest = e.getValue();
+                    oldestKey = e.getKey();
+                }
+            }
+            if (oldestKey == null) {
+                break;
+            }
+            ENTRIES.remove(oldestKey);
+        }
+    }
+
+    private static void persist(Context context) {
+        try {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Long> e : ENTRIES.entrySet()) {
+                json.put(e.getKey(), e.getValue().longValue());
+            }
+            prefs(context).edit().putString(KEY_ENTRIES, json.toString()).apply();
+        } catch (Exception e) {
+            Log.w(TAG, "Falha ao persistir índice de duplicidade", e);
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+}
@@ -3,10 +3,24 @@ package app.lovable.toplavanderia;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.util.Log;
 
-/** Estado da sessão de pagamento Cielo (tarja 10s + toque Não imprimir). */
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Estado da sessão de pagamento Cielo (tarja 10s + toque Não imprimir).
+ *
+ * As consultas vêm da acessibilidade e de pollers de 300 ms: o estado vive em memória
+ * ({@link State}, imutável) e vai para o SharedPreferences por um único escritor em segundo
+ * plano, que grava só a versão mais recente. O disco é lido uma vez, no primeiro acesso
+ * (processo reiniciado no meio da sessão Cielo). Quem precisa reagir a início/fim de sessão
+ * assina com {@link #addListener} em vez de consultar a cada volta.
+ */
 public final class CieloPaymentSessionHelper {
+    private static final String TAG = "CieloPaymentSession";
     private static final String PREFS = "cielo_pay_session";
     private static final String KEY_SESSION_ID = "session_id";
     private static final String KEY_PAYMENT_CODE = "payment_code";
@@ -17,29 +31,180 @@ public final class CieloPaymentSessionHelper {
 
     private static int nextSessionId = 0;
 
+    /** Foto da sessão; trocada inteira a cada mudança. */
+    public static final class State {
+        static final State EMPTY = new State(0, "", false, 0L, 0L, false);
+
+        public final int sessionId;
+        public final String paymentCode;
+        public final boolean shieldEnabled;
+        public final long sessionStartedAt;
+        public final long overlayShownAt;
+        public final boolean approvedScreenConfirmed;
+
+        State(int sessionId, String paymentCode, boolean shieldEnabled, long sessionStartedAt,
+              long overlayShownAt, boolean approvedScreenConfirmed) {
+            this.sessionId = sessionId;
+            this.paymentCode = paymentCode == null ? "" : paymentCode;
+            this.shieldEnabled = shieldEnabled;
+            this.sessionStartedAt = sessionStartedAt;
+            this.overlayShownAt = overlayShownAt;
+            this.approvedScreenConfirmed = approvedScreenConfirmed;
+        }
+
+        public boolean hasActiveSession() {
+            return !paymentCode.isEmpty();
+        }
+
+        State withShieldEnabled(boolean enabled) {
+            return new State(sessionId, paymentCode, enabled, sessionStartedAt, overlayShownAt, approvedScreenConfirmed);
+        }
+
+        State withOverlayShownAt(long at) {
+            return new State(sessionId, paymentCode, shieldEnabled, sessionStartedAt, at, approvedScreenConfirmed);
+        }
+
+        State withApprovedScreenConfirmed() {
+            return new State(sessionId, paymentCode, shieldEnabled, sessionStartedAt, overlayShownAt, true);
+        }
+    }
+
+    /** Avisado (na thread de quem alterou) a cada mudança de estado. */
+    public interface Listener {
+        void onSessionChanged(State previous, State current);
+    }
+
+    private static final Object LOCK = new Object();
+    private static volatile State state;
+    private static volatile Context appContext;
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean PERSIST_PENDING = new AtomicBoolean(false);
+    private static volatile Handler persistHandler;
+
     private CieloPaymentSessionHelper() {
     }
 
+    public static void addListener(Listener listener) {
+        if (listener != null) {
+            LISTENERS.addIfAbsent(listener);
+        }
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /** Estado atual (carrega do disco só no primeiro acesso do processo). */
+    public static State currentState(Context context) {
+        State s = state;
+        if (s != null) {
+            return s;
+        }
+        if (context == null) {
+            return State.EMPTY;
+        }
+        synchronized (LOCK) {
+            if (state == null) {
+                appContext = context.getApplicationContext();
+                SharedPreferences p = prefs(appContext);
+                state = new State(
+                    p.getInt(KEY_SESSION_ID, 0),
+                    p.getString(KEY_PAYMENT_CODE, ""),
+                    p.getBoolean(KEY_SHIELD_ENABLED, false),
+                    p.getLong(KEY_SESSION_STARTED_AT, 0L),
+                    p.getLong(KEY_OVERLAY_SHOWN_AT, 0L),
+                    p.getBoolean(KEY_APPROVED_SCREEN_CONFIRMED, false));
+                // Depois de reinício o contador de sessões continua do valor gravado.
+                nextSessionId = Math.max(nextSessionId, state.sessionId);
+            }
+            return state;
+        }
+    }
+
+    private interface Mutation {
+        State apply(State current);
+    }
+
+    private static State update(Context context, Mutation mutation) {
+        State previous;
+        State next;
+        synchronized (LOCK) {
+            previous = currentState(context);
+            next = mutation.apply(previous);
+            if (next == previous) {
+                return previous;
+            }
+            state = next;
+        }
+        schedulePersist();
+        for (Listener l : LISTENERS) {
+            try {
+                l.onSessionChanged(previous, next);
+            } catch (Throwable t) {
+                Log.w(TAG, "Listener de sessão falhou", t);
+            }
+        }
+        return next;
+    }
+
+    /** Coalesce: várias mudanças seguidas viram uma gravação só, sempre com o estado mais novo. */
+    private static void schedulePersist() {
+        if (appContext == null || !PERSIST_PENDING.compareAndSet(false, true)) {
+            return;
+        }
+        persistHandler().post(() -> {
+            PERSIST_PENDING.set(false);
+            State s = state;
+            Context app = appContext;
+            if (s == null || app == null) {
+                return;
+            }
+            try {
+                SharedPreferences.Editor editor = prefs(app).edit();
+                if (!s.hasActiveSession() && s.sessionStartedAt <= 0L) {
+                    editor.clear();
+                } else {
+                    editor.putInt(KEY_SESSION_ID, s.sessionId)
+                        .putString(KEY_PAYMENT_CODE, s.paymentCode)
+                        .putBoolean(KEY_SHIELD_ENABLED, s.shieldEnabled)
+                        .putLong(KEY_SESSION_STARTED_AT, s.sessionStartedAt)
+                        .putLong(KEY_OVERLAY_SHOWN_AT, s.overlayShownAt)
+                        .putBoolean(KEY_APPROVED_SCREEN_CONFIRMED, s.approvedScreenConfirmed);
+                }
+                editor.commit();
+            } catch (Throwable t) {
+                Log.w(TAG, "Falha ao gravar sessão", t);
+            }
+        });
+    }
+
+    private static Handler persistHandler() {
+        Handler h = persistHandler;
+        if (h == null) {
+            synchronized (LOCK) {
+                if (persistHandler == null) {
+                    HandlerThread thread = new HandlerThread("cielo-session-persist");
+                    thread.start();
+                    persistHandler = new Handler(thread.getLooper());
+                }
+                h = persistHandler;
+            }
+        }
+        return h;
+    }
+
     public static int beginSession(Context context, String paymentCode) {
         if (context == null) {
             return 0;
         }
-        int sessionId = ++nextSessionId;
         String code = paymentCode == null ? "" : paymentCode.trim();
         // Tarja/escudo para cartão (crédito + débito). PIX usa fluxo de "Não imprimir".
         boolean shieldEnabled = !"PIX".equalsIgnoreCase(code);
-        prefs(context).edit()
-            .putInt(KEY_SESSION_ID, sessionId)
-            .putString(KEY_PAYMENT_CODE, code)
-            .putBoolean(KEY_SHIELD_ENABLED, shieldEnabled)
-            .putLong(KEY_SESSION_STARTED_AT, System.currentTimeMillis())
-            .putLong(KEY_OVERLAY_SHOWN_AT, 0L)
-            .putBoolean(KEY_APPROVED_SCREEN_CONFIRMED, false)
-            .commit();
+        int sessionId = update(context, current -> new State(
+            ++nextSessionId, code, shieldEnabled, System.currentTimeMillis(), 0L, false)).sessionId;
         CieloLioManager.cancelScheduledEndSession();
         CieloPrintDismissScheduler.cancel();
         CieloReceiptAccessibilityService.resetApprovedHandling();
-        CieloReceiptAccessibilityService.onPaymentSessionStarted();
         return sessionId;
     }
 
@@ -47,7 +212,7 @@ public final class CieloPaymentSessionHelper {
         if (context == null) {
             return 0;
         }
-        return prefs(context).getInt(KEY_SESSION_ID, 0);
+        return currentState(context).sessionId;
     }
 
     public static boolean isSessionActive(Context context, int sessionId) {
@@ -65,7 +230,7 @@ public final class CieloPaymentSessionHelper {
             return true;
         }
         // Janela residual curta após fim de sessão (callbacks tardios).
-        long started = prefs(context).getLong(KEY_SESSION_STARTED_AT, 0L);
+        long started = currentState(context).sessionStartedAt;
         return started > 0L && System.currentTimeMillis() - started < 15_000L;
     }
 
@@ -81,39 +246,43 @@ public final class CieloPaymentSessionHelper {
         if (context == null) {
             return;
         }
-        prefs(context).edit().putBoolean(KEY_SHIELD_ENABLED, enabled).commit();
+        update(context, current -> current.shieldEnabled == enabled ? current : current.withShieldEnabled(enabled));
     }
 
     public static boolean isCardShieldEnabled(Context context) {
-        return prefs(context).getBoolean(KEY_SHIELD_ENABLED, false);
+        if (context == null) {
+            return false;
+        }
+        return currentState(context).shieldEnabled;
     }
 
     public static void markOverlayShown(Context context) {
         if (context == null) {
             return;
         }
-        prefs(context).edit().putLong(KEY_OVERLAY_SHOWN_AT, System.currentTimeMillis()).commit();
+        long now = System.currentTimeMillis();
+        update(context, current -> current.withOverlayShownAt(now));
     }
 
     public static long getOverlayShownAt(Context context) {
         if (context == null) {
             return 0L;
         }
-        return prefs(context).getLong(KEY_OVERLAY_SHOWN_AT, 0L);
+        return currentState(context).overlayShownAt;
     }
 
     public static void markApprovedScreenConfirmed(Context context) {
         if (context == null) {
             return;
         }
-        prefs(context).edit().putBoolean(KEY_APPROVED_SCREEN_CONFIRMED, true).commit();
+        update(context, current -> current.approvedScreenConfirmed ? current : current.withApprovedScreenConfirmed());
     }
 
     public static boolean isApprovedScreenConfirmed(Context context) {
         if (context == null) {
             return false;
         }
-        return prefs(context).getBoolean(KEY_APPROVED_SCREEN_CONFIRMED, false);
+        return currentState(context).approvedScreenConfirmed;
     }
 
     public static void endSession(Context context) {
@@ -121,16 +290,12 @@ public final class CieloPaymentSessionHelper {
             return;
         }
         Context app = context.getApplicationContext();
-        // Limpa overlay + prefs imediatamente. O delay de 5s deixava payment_code ativo
+        // Limpa overlay + estado imediatamente. O delay de 5s deixava payment_code ativo
         // e a acessibilidade podia recriar a tarja; o timer de 10s depois falhava em
         // removê-la (sessionId != atual) e a home do totem ficava travada.
         CieloPaymentShieldOverlay.clearAll();
         CieloPrintDismissScheduler.cancel();
-        try {
-            prefs(app).edit().clear().commit();
-        } catch (Throwable ignored) {
-            // noop
-        }
+        update(app, current -> State.EMPTY);
         new Handler(Looper.getMainLooper()).post(() -> {
             CieloPaymentShieldOverlay.clearAll();
             CieloReceiptAccessibilityService.resetApprovedHandling();
@@ -143,11 +308,7 @@ public final class CieloPaymentSessionHelper {
             return;
         }
         Context app = context.getApplicationContext();
-        try {
-            prefs(app).edit().clear().commit();
-        } catch (Throwable ignored) {
-            // noop
-        }
+        update(app, current -> State.EMPTY);
         CieloPrintDismissScheduler.cancel();
         CieloPaymentShieldOverlay.clearAll();
         new Handler(Looper.getMainLooper()).post(CieloPaymentShieldOverlay::clearAll);
@@ -157,14 +318,14 @@ public final class CieloPaymentSessionHelper {
         if (context == null) {
             return false;
         }
-        return !prefs(context).getString(KEY_PAYMENT_CODE, "").isEmpty();
+        return currentState(context).hasActiveSession();
     }
 
     public static long getSessionElapsedMs(Context context) {
         if (context == null) {
             return 0L;
         }
-        long startedAt = prefs(context).getLong(KEY_SESSION_STARTED_AT, 0L);
+        long startedAt = currentState(context).sessionStartedAt;
         if (startedAt <= 0L) {
             return 0L;
         }
@@ -212,7 +373,7 @@ public final class CieloPaymentSessionHelper {
         if (context == null) {
             return "";
         }
-        return prefs(context).getString(KEY_PAYMENT_CODE, "");
+        return currentState(context).paymentCode;
     }
 
     private static SharedPreferences prefs(Context context) {
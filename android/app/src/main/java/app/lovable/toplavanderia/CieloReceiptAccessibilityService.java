@@ -56,7 +56,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
     private int noPrintTapIndex = 0;
     private boolean noPrintBurstStarted = false;
     private boolean approvedPollingActive = false;
-    private static final long APPROVED_POLL_MS = 300L;
+    private static final long APPROVED_POLL_MS = CieloApprovalDetector.APPROVED_POLL_MS;
     private static final long TARJA_SAFETY_MS = 90000L;
     private static final long NO_PRINT_AFTER_TARJA_REMOVED_MS = 900L;
     private static final long INITIAL_GUARD_MS = 2500L;
@@ -64,6 +64,10 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
     private static final long MIN_MS_FOR_TRANSITION_APPROVAL = 6000L;
     private static final int MIN_WINDOW_CHANGES_FOR_APPROVAL = 2;
     private static final long RECENT_WINDOW_MS = 3500L;
+    /** Limites da varredura da árvore — telas da LIO têm poucas dezenas de nós. */
+    private static final int MAX_SCAN_DEPTH = 8;
+    private static final int MAX_SCAN_NODES = 300;
+    private static final long WINDOW_TEXT_MAX_AGE_MS = CieloApprovalDetector.WINDOW_TEXT_MAX_AGE_MS;
 
     private static final String[] CIELO_PACKAGES = {
         "br.com.setis.pos_buziosandroid",
@@ -84,20 +88,6 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         "com.m4u.lio.store"
     };
 
-    private static final String[] PRINT_PROMPT_HINTS = {
-        "deseja imprimir",
-        "imprimir comprovante",
-        "imprimir o comprovante",
-        "imprimir o comprovante do cliente",
-        "via do cliente",
-        "via do estabelecimento",
-        "via do lojista",
-        "imprimir via",
-        "comprovante do cliente",
-        "comprovante da transacao",
-        "comprovante da transação"
-    };
-
     private static final String[] DISMISS_BUTTON_TEXTS = {
         "nao imprimir",
         "não imprimir",
@@ -114,59 +104,6 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         "não desejo imprimir"
     };
 
-    private static final String[] FORBIDDEN_CAPTURE_BUTTONS = {
-        "gerar qr code",
-        "gerar qrcode",
-        "gerar qr",
-        "digitar cartao",
-        "digitar cartão",
-        "digitar o cartao",
-        "digitar o cartão"
-    };
-
-    private static final String[] ALTERNATE_CAPTURE_SCREEN_HINTS = {
-        "digite o numero do cartao",
-        "digite o número do cartão",
-        "numero do cartao",
-        "número do cartão",
-        "escaneie o qr",
-        "escaneie o qrcode",
-        "leia o qr code"
-    };
-
-    private static final String[] PAYMENT_APPROVED_HINTS = {
-        "pagamento aprovado",
-        "pix aprovado",
-        "pix recebido",
-        "aprovado",
-        "transacao aprovada",
-        "transação aprovada",
-        "pagamento autorizado",
-        "transacao autorizada",
-        "transação autorizada",
-        "pagamento realizado",
-        "transacao concluida",
-        "transação concluída",
-        "transacao efetuada",
-        "transação efetuada",
-        "aprovado com sucesso",
-        "transacao aprovada com sucesso",
-        "transação aprovada com sucesso",
-        "compra aprovada",
-        "venda aprovada",
-        "aprovada ",
-        " aprovada ",
-        "aprovada 1",
-        "aprovada 2",
-        "aprovada 3",
-        "aprovada 4",
-        "aprovada 5",
-        "aprovada 6",
-        "aprovada 7",
-        "aprovada 8",
-        "aprovada 9"
-    };
-
     private static final long APPROVED_DISMISS_BURST_MS = 18000L;
     private static final int MAX_PRINT_DISMISS_RETRIES = 12;
 
@@ -188,6 +125,18 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
     private boolean pixNoPrintBypassDone = false;
     private long lastPixNoPrintBypassAtMs = 0L;
     private int pixNoPrintTapIndex = 0;
+    /** Texto normalizado por window id; invalidado pelos eventos da própria janela. */
+    private final android.util.SparseArray<CachedWindowText> windowTextCache = new android.util.SparseArray<>();
+
+    private static final class CachedWindowText {
+        final String text;
+        final long builtAtMs;
+
+        CachedWindowText(String text, long builtAtMs) {
+            this.text = text;
+            this.builtAtMs = builtAtMs;
+        }
+    }
 
     private final Runnable windowTransitionRunnable = new Runnable() {
         @Override
@@ -213,6 +162,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         super.onServiceConnected();
         instance = this;
         CieloPaymentShieldOverlay.bind(this);
+        CieloPaymentSessionHelper.addListener(sessionListener);
         if (CieloPaymentSessionHelper.hasActiveSession(this)) {
             startApprovedPolling();
         }
@@ -224,6 +174,8 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (instance == this) {
             instance = null;
         }
+        CieloPaymentSessionHelper.removeListener(sessionListener);
+        stopApprovedPolling();
         CieloPaymentShieldOverlay.unbind();
         super.onDestroy();
     }
@@ -395,7 +347,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
                 root.getBoundsInScreen(bounds);
                 signature.append(bounds.width()).append('x').append(bounds.height()).append(':');
                 signature.append('c').append(root.getChildCount()).append(':');
-                String nodeText = nodeTextDeep(root);
+                String nodeText = windowText(window.getId(), root);
                 if (!nodeText.isEmpty()) {
                     appendTreeText(text, nodeText);
                 }
@@ -445,9 +397,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (all == null || all.isEmpty()) {
             return false;
         }
-        return all.contains("digitar cartao") || all.contains("digitar cartão")
-            || all.contains("gerar qr") || all.contains("gerar qrcode")
-            || all.contains("gerar qr code");
+        return CieloScreenClassifier.isInitialCapture(CieloScreenClassifier.classify(all));
     }
 
     private boolean tapNoPrintCoordinates() {
@@ -516,10 +466,14 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (event == null) {
             return;
         }
+        invalidateWindowText(event);
         CharSequence pkgSeq = event.getPackageName();
         if (pkgSeq == null || !isCieloPackage(pkgSeq.toString())) {
             return;
         }
+        if (CieloScreenRecorder.isRecording()) {
+            recordFrame(event);
+        }
 
         if (CieloPaymentSessionHelper.hasActiveSession(this)) {
             if (CieloPaymentSessionHelper.shouldShowBottomTarja(this)
@@ -528,10 +482,11 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
             }
             if (!noPrintBurstStarted) {
                 String fromEvent = extractEventText(event);
-                if (!detectApprovedScreen(fromEvent, "event")) {
+                if (!detectApprovedScreenFromEvent(fromEvent, "event")) {
                     int eventType = event.getEventType();
                     if (eventType == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
-                            || eventType == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+                            || (eventType == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                                && changedSubtreeMayShowApproval(event))) {
                         scanForApprovedScreen("event-scan");
                     }
                 }
@@ -572,22 +527,22 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (noPrintBurstStarted || !CieloPaymentSessionHelper.hasActiveSession(this)) {
             return;
         }
+        CieloScreenRecorder.mark("detected:" + source);
         noPrintBurstStarted = true;
         stopApprovedPolling();
         CieloPrintDismissScheduler.onApprovedDetected(getApplicationContext(), source);
     }
 
     private boolean detectApprovedScreen(String eventText, String source) {
+        if (detectApprovedScreenFromEvent(eventText, source)) {
+            return true;
+        }
         if (noPrintBurstStarted || !CieloPaymentSessionHelper.hasActiveSession(this)) {
             return false;
         }
-        if (!eventText.isEmpty() && looksLikeApprovedPaymentScreen(eventText)) {
-            onApprovedScreenDetected(source + "-event:" + truncateForLog(eventText));
-            return true;
-        }
 
         String all = collectAllWindowsText();
-        if (!all.isEmpty() && looksLikeApprovedPaymentScreen(all)) {
+        if (CieloApprovalDetector.windowsShowApproval(all, null)) {
             onApprovedScreenDetected(source + "-tree:" + truncateForLog(all));
             return true;
         }
@@ -595,8 +550,8 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         AccessibilityNodeInfo root = getRootInActiveWindow();
         if (root != null) {
             try {
-                String nodeText = nodeTextDeep(root);
-                if (looksLikeApprovedPaymentScreen(nodeText)) {
+                String nodeText = windowText(root.getWindowId(), root);
+                if (CieloApprovalDetector.windowsShowApproval(null, nodeText)) {
                     onApprovedScreenDetected(source + "-node");
                     return true;
                 }
@@ -607,6 +562,110 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         return false;
     }
 
+    /** Só o texto do próprio evento — sem tocar na árvore. */
+    private boolean detectApprovedScreenFromEvent(String eventText, String source) {
+        if (noPrintBurstStarted || !CieloPaymentSessionHelper.hasActiveSession(this)) {
+            return false;
+        }
+        if (CieloApprovalDetector.eventShowsApproval(eventText)) {
+            onApprovedScreenDetected(source + "-event:" + truncateForLog(eventText));
+            return true;
+        }
+        return false;
+    }
+
+    /** CONTENT_CHANGED: decide só pela subárvore alterada (ver CieloApprovalDetector). */
+    private boolean changedSubtreeMayShowApproval(AccessibilityEvent event) {
+        AccessibilityNodeInfo source = event.getSource();
+        if (source == null) {
+            return true;
+        }
+        try {
+            return CieloApprovalDetector.subtreeMayShowApproval(nodeTextDeep(source));
+        } finally {
+            source.recycle();
+        }
+    }
+
+    /** Quadro para o replay na JVM — só com o gravador ligado (terminal de teste). */
+    private void recordFrame(AccessibilityEvent event) {
+        int type = event.getEventType();
+        String kind;
+        if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            kind = CieloScreenRecording.KIND_STATE;
+        } else if (type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+            kind = CieloScreenRecording.KIND_CONTENT;
+        } else if (type == AccessibilityEvent.TYPE_WINDOWS_CHANGED) {
+            kind = CieloScreenRecording.KIND_WINDOWS;
+        } else {
+            return;
+        }
+        int windowId = event.getWindowId();
+        String subtree = "";
+        AccessibilityNodeInfo source = event.getSource();
+        if (source != null) {
+            try {
+                subtree = nodeTextDeep(source);
+            } finally {
+                source.recycle();
+            }
+        }
+        String full = "";
+        List<android.view.accessibility.AccessibilityWindowInfo> windows = getWindows();
+        if (windows != null) {
+            for (android.view.accessibility.AccessibilityWindowInfo window : windows) {
+                if (window == null || window.getId() != windowId) {
+                    continue;
+                }
+                AccessibilityNodeInfo root = window.getRoot();
+                if (root != null) {
+                    try {
+                        full = nodeTextDeep(root);
+                    } finally {
+                        root.recycle();
+                    }
+                }
+                break;
+            }
+        }
+        CieloScreenRecorder.record(kind, windowId, extractEventText(event), subtree, full);
+    }
+
+    private void invalidateWindowText(AccessibilityEvent event) {
+        int type = event.getEventType();
+        synchronized (windowTextCache) {
+            if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+                    || type == AccessibilityEvent.TYPE_WINDOWS_CHANGED) {
+                windowTextCache.clear();
+            } else if (type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+                windowTextCache.remove(event.getWindowId());
+            }
+        }
+    }
+
+    /** Texto em cache da janela, ou null se precisa varrer de novo. */
+    private String freshWindowText(int windowId) {
+        synchronized (windowTextCache) {
+            CachedWindowText cached = windowTextCache.get(windowId);
+            if (cached == null || System.currentTimeMillis() - cached.builtAtMs > WINDOW_TEXT_MAX_AGE_MS) {
+                return null;
+            }
+            return cached.text;
+        }
+    }
+
+    private String windowText(int windowId, AccessibilityNodeInfo root) {
+        String cached = freshWindowText(windowId);
+        if (cached != null) {
+            return cached;
+        }
+        String text = nodeTextDeep(root);
+        synchronized (windowTextCache) {
+            windowTextCache.put(windowId, new CachedWindowText(text, System.currentTimeMillis()));
+        }
+        return text;
+    }
+
     private void scanForApprovedScreen(String source) {
         detectApprovedScreen("", source);
     }
@@ -657,27 +716,37 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             List<android.view.accessibility.AccessibilityWindowInfo> windows = getWindows();
             if (windows != null) {
+                android.util.SparseBooleanArray live = new android.util.SparseBooleanArray();
                 for (android.view.accessibility.AccessibilityWindowInfo window : windows) {
                     if (window == null) {
                         continue;
                     }
+                    int windowId = window.getId();
+                    live.put(windowId, true);
+                    // Janela sem evento desde a última varredura: nem busca a raiz (IPC).
+                    String cached = freshWindowText(windowId);
+                    if (cached != null) {
+                        appendTreeText(sb, cached);
+                        continue;
+                    }
                     AccessibilityNodeInfo root = window.getRoot();
                     if (root == null) {
                         continue;
                     }
                     try {
-                        appendTreeText(sb, nodeTextDeep(root));
+                        appendTreeText(sb, windowText(windowId, root));
                     } finally {
                         root.recycle();
                     }
                 }
+                pruneWindowTextCache(live);
             }
         }
         if (sb.length() == 0) {
             AccessibilityNodeInfo root = getRootInActiveWindow();
             if (root != null) {
                 try {
-                    appendTreeText(sb, nodeTextDeep(root));
+                    appendTreeText(sb, windowText(root.getWindowId(), root));
                 } finally {
                     root.recycle();
                 }
@@ -686,6 +755,16 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         return sb.toString();
     }
 
+    private void pruneWindowTextCache(android.util.SparseBooleanArray live) {
+        synchronized (windowTextCache) {
+            for (int i = windowTextCache.size() - 1; i >= 0; i--) {
+                if (!live.get(windowTextCache.keyAt(i))) {
+                    windowTextCache.removeAt(i);
+                }
+            }
+        }
+    }
+
     private void appendTreeText(StringBuilder sb, String value) {
         if (value == null || value.isEmpty()) {
             return;
@@ -700,13 +779,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (all.isEmpty()) {
             return false;
         }
-        if (all.contains("digitar cartao") || all.contains("digitar cartão")
-                || all.contains("gerar qr") || all.contains("gerar qrcode")) {
-            return false;
-        }
-        return all.contains("aproxime") || all.contains("insira")
-            || all.contains("passe o cartao") || all.contains("passe o cartão")
-            || all.contains("aguardando") || all.contains("leitor");
+        return CieloScreenClassifier.isCardCaptureScreen(CieloScreenClassifier.classify(all));
     }
 
     /** Saiu da tela QR/digitar (ex.: processando cartão), mas ainda não é comprovante. */
@@ -714,18 +787,9 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (all.isEmpty()) {
             return false;
         }
-        if (all.contains("digitar cartao") || all.contains("digitar cartão")
-                || all.contains("gerar qr") || all.contains("gerar qrcode")) {
-            return false;
-        }
-        if (looksLikePrintOrApprovedScreen(all)) {
-            return false;
-        }
         long elapsed = CieloPaymentSessionHelper.getSessionElapsedMs(this);
         return elapsed > 6000L
-            && (all.contains("credito") || all.contains("crédito")
-            || all.contains("debito") || all.contains("débito")
-            || all.contains(" r$") || all.contains("cartao") || all.contains("cartão"));
+            && CieloScreenClassifier.isPastInitialCardScreen(CieloScreenClassifier.classify(all));
     }
 
     private boolean looksLikePrintOrApprovedScreen(String all) {
@@ -737,20 +801,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (all == null || all.isEmpty()) {
             return false;
         }
-        String lower = normalize(all);
-        if (lower.contains("troco") && !lower.contains("nao imprimir")) {
-            return false;
-        }
-        if (lower.contains("aproxime") || lower.contains("insira") || lower.contains("passe o cart")
-                || lower.contains("processando") || lower.contains("gerar qr")
-                || lower.contains("digitar cart")) {
-            return false;
-        }
-        if (lower.contains("nao imprimir") || lower.contains("não imprimir")) {
-            return true;
-        }
-        // "aprovad" cobre aprovada/aprovado (PIX costuma usar "Pagamento aprovado").
-        return lower.contains("aprovad");
+        return CieloScreenClassifier.isApprovedPaymentScreen(CieloScreenClassifier.classify(all));
     }
 
     private void attemptPrintDismissViaTree() {
@@ -777,12 +828,11 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         }
         return false;
     }
+    /** Quem para o monitor no fim da sessão é o {@link #sessionListener}. */
     private final Runnable approvedPollRunnable = new Runnable() {
         @Override
         public void run() {
-            if (!approvedPollingActive
-                    || !CieloPaymentSessionHelper.hasActiveSession(CieloReceiptAccessibilityService.this)) {
-                stopApprovedPolling();
+            if (!approvedPollingActive) {
                 return;
             }
             scanForApprovedScreen("poll");
@@ -812,12 +862,19 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         svc.runOnServiceThread(() -> CieloPaymentShieldOverlay.showBottomTarja(context));
     }
 
-    public static void onPaymentSessionStarted() {
-        CieloReceiptAccessibilityService svc = instance;
-        if (svc != null) {
-            svc.startApprovedPolling();
+    /** Início e fim de sessão ligam e desligam o monitor, na main thread. */
+    private final CieloPaymentSessionHelper.Listener sessionListener = (previous, current) -> {
+        boolean started = current.hasActiveSession() && current.sessionId != previous.sessionId;
+        boolean ended = previous.hasActiveSession() && !current.hasActiveSession();
+        if (started) {
+            mainHandler.post(() -> {
+                CieloScreenRecorder.begin(this, current.paymentCode);
+                startApprovedPolling();
+            });
+        } else if (ended) {
+            mainHandler.post(this::stopApprovedPolling);
         }
-    }
+    };
 
     private String extractEventText(AccessibilityEvent event) {
         StringBuilder sb = new StringBuilder();
@@ -864,32 +921,14 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (all.isEmpty()) {
             return false;
         }
-        if (all.contains("digitar cartao") || all.contains("digitar cartão")
-                || all.contains("gerar qr") || all.contains("gerar qrcode")
-                || all.contains("aproxime") || all.contains("insira")
-                || all.contains("passe o cartao") || all.contains("passe o cartão")
-                || all.contains("processando")) {
-            return false;
-        }
-        if (all.contains("nao imprimir") || all.contains("não imprimir")) {
-            return true;
-        }
-        for (String hint : PAYMENT_APPROVED_HINTS) {
-            if (all.contains(hint)) {
-                return true;
-            }
-        }
-        for (String hint : PRINT_PROMPT_HINTS) {
-            if (all.contains(hint)) {
-                return true;
-            }
-        }
-        return false;
+        return CieloScreenClassifier.isApprovedReceipt(CieloScreenClassifier.classify(all));
     }
 
     /** Reinicia estado ao iniciar nova sessão de pagamento. */
     public static void resetApprovedHandling() {
         CieloPrintDismissScheduler.reset();
+        CieloScreenRecorder.mark(CieloScreenRecording.MARK_SESSION_END);
+        CieloScreenRecorder.end();
         CieloReceiptAccessibilityService svc = instance;
         if (svc != null) {
             svc.noPrintBurstStarted = false;
@@ -903,6 +942,9 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
             svc.pixNoPrintBypassDone = false;
             svc.lastPixNoPrintBypassAtMs = 0L;
             svc.pixNoPrintTapIndex = 0;
+            synchronized (svc.windowTextCache) {
+                svc.windowTextCache.clear();
+            }
             svc.mainHandler.removeCallbacks(svc.windowTransitionRunnable);
             svc.stopApprovedPolling();
         }
@@ -1049,9 +1091,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (all.isEmpty() && root != null) {
             all = nodeTextDeep(root);
         }
-        String lower = normalize(all);
-        boolean isTrocoScreen = lower.contains("troco")
-            || (lower.contains("debito") && lower.contains("confirmar") && lower.contains("limpar"));
+        boolean isTrocoScreen = CieloScreenClassifier.isTrocoScreen(CieloScreenClassifier.classify(all));
         if (!isTrocoScreen) {
             return;
         }
@@ -1142,20 +1182,7 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (all == null || all.isEmpty()) {
             return false;
         }
-        String lower = normalize(all);
-        if (lower.contains("troco")) {
-            return false;
-        }
-        if (lower.contains("nao imprimir") || lower.contains("não imprimir")) {
-            return true;
-        }
-        boolean pixContext = lower.contains("pix")
-            || lower.contains("transacao concluida")
-            || lower.contains("transação concluída")
-            || lower.contains("concluida com sucesso")
-            || lower.contains("concluída com sucesso");
-        boolean printChoice = lower.contains("imprimir");
-        return pixContext && (printChoice || lower.contains("aprovad"));
+        return CieloScreenClassifier.isPixPrintPrompt(CieloScreenClassifier.classify(all));
     }
 
     private void tapPixNoPrintBurstCoordinates() {
@@ -1307,13 +1334,10 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (node == null) {
             return false;
         }
-        String combined = normalize(joinText(node.getText(), node.getContentDescription()));
-        if (!combined.isEmpty()) {
-            for (String hint : PAYMENT_APPROVED_HINTS) {
-                if (combined.contains(hint)) {
-                    return true;
-                }
-            }
+        String combined = joinText(node.getText(), node.getContentDescription());
+        if (!combined.isEmpty() && CieloScreenClassifier.has(
+                CieloScreenClassifier.classify(combined), CieloScreenClassifier.PAYMENT_APPROVED)) {
+            return true;
         }
         int childCount = node.getChildCount();
         for (int i = 0; i < childCount; i++) {
@@ -1443,26 +1467,18 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (value == null || value.length() == 0) {
             return false;
         }
-        String normalized = normalize(value.toString());
-        for (String label : FORBIDDEN_CAPTURE_BUTTONS) {
-            if (normalized.contains(label) || normalized.equals(label)) {
-                return true;
-            }
-        }
-        return false;
+        return CieloScreenClassifier.has(
+            CieloScreenClassifier.classify(value), CieloScreenClassifier.FORBIDDEN_CAPTURE);
     }
 
     private boolean treeContainsAlternateCaptureScreen(AccessibilityNodeInfo node) {
         if (node == null) {
             return false;
         }
-        String combined = normalize(joinText(node.getText(), node.getContentDescription()));
-        if (!combined.isEmpty()) {
-            for (String hint : ALTERNATE_CAPTURE_SCREEN_HINTS) {
-                if (combined.contains(hint)) {
-                    return true;
-                }
-            }
+        String combined = joinText(node.getText(), node.getContentDescription());
+        if (!combined.isEmpty() && CieloScreenClassifier.has(
+                CieloScreenClassifier.classify(combined), CieloScreenClassifier.ALTERNATE_CAPTURE)) {
+            return true;
         }
         int childCount = node.getChildCount();
         for (int i = 0; i < childCount; i++) {
@@ -1520,13 +1536,8 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
         if (value == null || value.length() == 0) {
             return false;
         }
-        String normalized = normalize(value.toString());
-        for (String hint : PRINT_PROMPT_HINTS) {
-            if (normalized.contains(hint)) {
-                return true;
-            }
-        }
-        return false;
+        return CieloScreenClassifier.has(
+            CieloScreenClassifier.classify(value), CieloScreenClassifier.PRINT_PROMPT);
     }
 
     private AccessibilityNodeInfo findDismissButton(AccessibilityNodeInfo root) {
@@ -1594,24 +1605,26 @@ public class CieloReceiptAccessibilityService extends AccessibilityService {
             return "";
         }
         StringBuilder sb = new StringBuilder();
-        appendNodeTextDeep(node, sb, 0);
+        int[] budget = { MAX_SCAN_NODES };
+        appendNodeTextDeep(node, sb, 0, budget);
         return normalize(sb.toString());
     }
 
-    private void appendNodeTextDeep(AccessibilityNodeInfo node, StringBuilder sb, int depth) {
-        if (node == null || depth > 8) {
+    private void appendNodeTextDeep(AccessibilityNodeInfo node, StringBuilder sb, int depth, int[] budget) {
+        if (node == null || depth > MAX_SCAN_DEPTH || budget[0] <= 0) {
             return;
         }
+        budget[0]--;
         appendIfPresent(sb, node.getText());
         appendIfPresent(sb, node.getContentDescription());
         int childCount = node.getChildCount();
-        for (int i = 0; i < childCount; i++) {
+        for (int i = 0; i < childCount && budget[0] > 0; i++) {
             AccessibilityNodeInfo child = node.getChild(i);
             if (child == null) {
                 continue;
             }
             try {
-                appendNodeTextDeep(child, sb, depth + 1);
+                appendNodeTextDeep(child, sb, depth + 1, budget);
             } finally {
                 child.recycle();
             }
@@ -0,0 +1,296 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fila persistente de estornos Cielo (ESP32 não liberou após pagamento aprovado).
+ * Sobrevive a restart e a falhas seguidas; um único worker processa com backoff,
+ * reconciliando o paymentId pela reference no Order Manager antes de cada tentativa.
+ */
+final class CieloReversalQueue {
+    private static final String TAG = "CieloReversalQueue";
+    private static final String PREFS = "cielo_reversal_queue";
+    private static final String KEY_ENTRIES = "entries";
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long FIRST_RETRY_MS = 30_000L;
+    private static final long MAX_RETRY_MS = 10 * 60_000L;
+    /** Checkout em curso ou credenciais ainda não carregadas — tenta de novo em breve. */
+    private static final long BUSY_RETRY_MS = 15_000L;
+    /** Cielo só estorna no mesmo dia; depois disso vira atendimento manual. */
+    private static final long MAX_ENTRY_AGE_MS = 12 * 60 * 60_000L;
+
+    private static final Object LOCK = new Object();
+    private static volatile Handler workerHandler;
+    private static volatile Context appContext;
+    private static final Runnable DRAIN = CieloReversalQueue::drainOnce;
+
+    private CieloReversalQueue() {
+    }
+
+    static final class Entry {
+        final String reference;
+        final String paymentId;
+        final String authCode;
+        final String cieloCode;
+        final long amountCents;
+        final String pendingTxId;
+        final long enqueuedAt;
+        int attempts;
+        long nextAttemptAt;
+
+        Entry(String reference, String paymentId, String authCode, String cieloCode,
+              long amountCents, String pendingTxId, long enqueuedAt) {
+            this.reference = reference == null ? "" : reference;
+            this.paymentId = paymentId == null ? "" : paymentId;
+            this.authCode = authCode == null ? "" : authCode;
+            this.cieloCode = cieloCode == null ? "" : cieloCode;
+            this.amountCents = amountCents;
+            this.pendingTxId = pendingTxId == null ? "" : pendingTxId;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        String key() {
+            return reference.isEmpty() ? paymentId : reference;
+        }
+
+        CieloLioManager.ApprovedPaymentSnapshot snapshot() {
+            return new CieloLioManager.ApprovedPaymentSnapshot(paymentId, authCode, cieloCode, amountCents);
+        }
+
+        JSONObject toJson() throws Exception {
+            JSONObject o = new JSONObject();
+            o.put("reference", reference);
+            o.put("payment_id", paymentId);
+            o.put("auth_code", authCode);
+            o.put("cielo_code", cieloCode);
+            o.put("amount_cents", amountCents);
+            o.put("pending_tx_id", pendingTxId);
+            o.put("enqueued_at", enqueuedAt);
+            o.put("attempts", attempts);
+            o.put("next_attempt_at", nextAttemptAt);
+            return o;
+        }
+
+        static Entry fromJson(JSONObject o) {
+            Entry e = new Entry(
+                o.optString("reference", ""),
+                o.optString("payment_id", ""),
+                o.optString("auth_code", ""),
+                o.optString("cielo_code", ""),
+                o.optLong("amount_cents", 0L),
+                o.optString("pending_tx_id", ""),
+                o.optLong("enqueued_at", 0L));
+            e.attempts = o.optInt("attempts", 0);
+            e.nextAttemptAt = o.optLong("next_attempt_at", 0L);
+            return e;
+        }
+    }
+
+    /** Retoma estornos pendentes de uma execução anterior. */
+    static void start(Context context) {
+        ensureWorker(context);
+        List<Entry> pending = load();
+        for (Entry e : pending) {
+            CieloOrderJanitor.protectQueuedReversalReference(e.reference);
+        }
+        if (!pending.isEmpty()) {
+            Log.w(TAG, "Retomando " + pending.size() + " estorno(s) pendente(s)");
+        }
+        kick(0L);
+    }
+
+    static void enqueue(Context context, CieloLioManager.ApprovedPaymentSnapshot snap,
+                        String reference, String pendingTxId) {
+        ensureWorker(context);
+        Entry entry = new Entry(reference, snap.paymentId, snap.authCode, snap.cieloCode,
+            snap.amountCents, pendingTxId, System.currentTimeMillis());
+        synchronized (LOCK) {
+            List<Entry> entries = load();
+            for (Entry existing : entries) {
+                if (existing.key().equals(entry.key())) {
+                    Log.w(TAG, "Estorno já enfileirado para " + entry.key());
+                    return;
+                }
+            }
+            entries.add(entry);
+            save(entries);
+        }
+        CieloOrderJanitor.protectQueuedReversalReference(reference);
+        Log.i(TAG, "Estorno enfileirado ref=" + reference + " paymentId=" + snap.paymentId
+            + " value=" + snap.amountCents);
+        kick(0L);
+    }
+
+    private static void ensureWorker(Context context) {
+        synchronized (LOCK) {
+            if (appContext == null) {
+                appContext = context.getApplicationContext();
+            }
+            if (workerHandler == null) {
+                HandlerThread thread = new HandlerThread("cielo-reversal-worker");
+                thread.start();
+                workerHandler = new Handler(thread.getLooper());
+            }
+        }
+    }
+
+    private static void kick(long delayMs) {
+        Handler h = workerHandler;
+        if (h == null) {
+            return;
+        }
+        h.removeCallbacks(DRAIN);
+        h.postDelayed(DRAIN, Math.max(0L, delayMs));
+    }
+
+    /** Roda no worker: processa no máximo uma entrada vencida e reagenda. */
+    private static void drainOnce() {
+        long now = System.currentTimeMillis();
+        Entry due = null;
+        long nextWake = Long.MAX_VALUE;
+        synchronized (LOCK) {
+            for (Entry e : load()) {
+                if (e.nextAttemptAt <= now) {
+                    due = e;
+                    break;
+                }
+                nextWake = Math.min(nextWake, e.nextAttemptAt);
+            }
+        }
+        if (due == null) {
+            if (nextWake != Long.MAX_VALUE) {
+                kick(nextWake - now);
+            }
+            return;
+        }
+        if (now - due.enqueuedAt > MAX_ENTRY_AGE_MS) {
+            Log.e(TAG, "Estorno expirado sem confirmação — atendimento manual ref=" + due.reference
+                + " paymentId=" + due.paymentId + " tx=" + due.pendingTxId);
+            remove(due);
+            kick(0L);
+            return;
+        }
+        CieloLioManager mgr = CieloLioManager.registeredManager();
+        if (mgr == null || !mgr.isInitialized() || mgr.isCheckoutBusy()) {
+            kick(BUSY_RETRY_MS);
+            return;
+        }
+
+        CieloLioManager.ApprovedPaymentSnapshot snap = due.snapshot();
+        CieloLioManager.ApprovedPaymentSnapshot resolved = mgr.lookupPaymentByReference(due.reference, snap);
+        if (resolved != null) {
+            snap = resolved;
+        }
+        boolean reversed = CieloLioManager.isReversibleSnapshot(snap) && mgr.launchReversalAndWait(snap);
+        if (reversed) {
+            onReversed(due, mgr, snap);
+        } else {
+            onAttemptFailed(due, CieloLioManager.isReversibleSnapshot(snap)
+                ? "estorno não confirmado"
+                : "paymentId não encontrado no Order Manager");
+        }
+        kick(0L);
+    }
+
+    private static void onReversed(Entry entry, CieloLioManager mgr, CieloLioManager.ApprovedPaymentSnapshot snap) {
+        remove(entry);
+        mgr.onQueuedReversalConfirmed(snap, entry.reference);
+        Log.i(TAG, "Estorno concluído ref=" + entry.reference + " após " + (entry.attempts + 1) + " tentativa(s)");
+        if (!entry.pendingTxId.isEmpty() && appContext != null) {
+            boolean cancelled = new SupabaseHelper(appContext).cancelTotemTransactionById(entry.pendingTxId);
+            Log.d(TAG, "Transação totem cancelada após estorno confirmado: " + cancelled);
+        }
+    }
+
+    private static void onAttemptFailed(Entry entry, String reason) {
+        int attempts = entry.attempts + 1;
+        if (attempts >= MAX_ATTEMPTS) {
+            Log.e(TAG, "Estorno desistido após " + attempts + " tentativas (" + reason
+                + ") — atendimento manual ref=" + entry.reference + " tx=" + entry.pendingTxId);
+            remove(entry);
+            return;
+        }
+        long backoff = Math.min(MAX_RETRY_MS, FIRST_RETRY_MS << (attempts - 1));
+        long jitter = ThreadLocalRandom.current().nextLong(backoff / 4 + 1);
+        long nextAt = System.currentTimeMillis() + backoff + jitter;
+        synchronized (LOCK) {
+            List<Entry> entries = load();
+            for (Entry e : entries) {
+                if (e.key().equals(entry.key())) {
+                    e.attempts = attempts;
+                    e.nextAttemptAt = nextAt;
+                }
+            }
+            save(entries);
+        }
+        Log.w(TAG, "Estorno falhou (" + reason + ") ref=" + entry.reference
+            + " — nova tentativa em " + ((backoff + jitter) / 1000) + "s");
+    }
+
+    private static void remove(Entry entry) {
+        synchronized (LOCK) {
+            List<Entry> entries = load();
+            List<Entry> kept = new ArrayList<>();
+            for (Entry e : entries) {
+                if (!e.key().equals(entry.key())) {
+                    kept.add(e);
+                }
+            }
+            save(kept);
+        }
+        CieloOrderJanitor.releaseQueuedReversalReference(entry.reference);
+    }
+
+    private static List<Entry> load() {
+        List<Entry> out = new ArrayList<>();
+        SharedPreferences prefs = prefs();
+        if (prefs == null) {
+            return out;
+        }
+        try {
+            JSONArray arr = new JSONArray(prefs.getString(KEY_ENTRIES, "[]"));
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.optJSONObject(i);
+                if (o != null) {
+                    out.add(Entry.fromJson(o));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Fila de estorno corrompida", e);
+        }
+        return out;
+    }
+
+    private static void save(List<Entry> entries) {
+        SharedPreferences prefs = prefs();
+        if (prefs == null) {
+            return;
+        }
+        try {
+            JSONArray arr = new JSONArray();
+            for (Entry e : entries) {
+                arr.put(e.toJson());
+            }
+            // commit: a fila precisa estar em disco antes de a UI voltar para HOME.
+            prefs.edit().putString(KEY_ENTRIES, arr.toString()).commit();
+        } catch (Exception e) {
+            Log.e(TAG, "Falha ao salvar fila de estorno", e);
+        }
+    }
+
+    private static SharedPreferences prefs() {
+        Context ctx = appContext;
+        return ctx == null ? null : ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+}
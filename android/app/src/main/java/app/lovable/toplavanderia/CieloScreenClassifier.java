@@ -0,0 +1,169 @@
+package app.lovable.toplavanderia;
+
+/**
+ * Classifica o texto de uma janela Cielo contra todas as famílias de dicas numa passada só
+ * ({@link CieloHintMatcher}). As regras looksLike* do serviço de acessibilidade viram
+ * consultas sobre a máscara retornada por {@link #classify}.
+ * Java puro (sem Android) — testável na JVM com dumps de tela gravados.
+ */
+final class CieloScreenClassifier {
+    static final int APPROVED_WORD = 1;
+    static final int NO_PRINT = 1 << 1;
+    static final int PRINT_WORD = 1 << 2;
+    static final int TROCO = 1 << 3;
+    /** Captura/processamento em andamento — nunca é tela aprovada. */
+    static final int CAPTURE_IN_PROGRESS = 1 << 4;
+    /** Tela inicial com "Gerar QR" / "Digitar cartão". */
+    static final int INITIAL_CAPTURE = 1 << 5;
+    static final int CARD_READER = 1 << 6;
+    static final int RECEIPT_EXCLUSION = 1 << 7;
+    static final int PAYMENT_APPROVED = 1 << 8;
+    static final int PRINT_PROMPT = 1 << 9;
+    static final int PIX_CONTEXT = 1 << 10;
+    static final int CARD_CONTEXT = 1 << 11;
+    static final int DEBITO = 1 << 12;
+    static final int CONFIRMAR = 1 << 13;
+    static final int LIMPAR = 1 << 14;
+    static final int FORBIDDEN_CAPTURE = 1 << 15;
+    static final int ALTERNATE_CAPTURE = 1 << 16;
+
+    static final String[] PRINT_PROMPT_HINTS = {
+        "deseja imprimir",
+        "imprimir comprovante",
+        "imprimir o comprovante",
+        "imprimir o comprovante do cliente",
+        "via do cliente",
+        "via do estabelecimento",
+        "via do lojista",
+        "imprimir via",
+        "comprovante do cliente",
+        "comprovante da transacao"
+    };
+
+    static final String[] FORBIDDEN_CAPTURE_BUTTONS = {
+        "gerar qr code",
+        "gerar qrcode",
+        "gerar qr",
+        "digitar cartao",
+        "digitar o cartao"
+    };
+
+    static final String[] ALTERNATE_CAPTURE_SCREEN_HINTS = {
+        "digite o numero do cartao",
+        "numero do cartao",
+        "escaneie o qr",
+        "escaneie o qrcode",
+        "leia o qr code"
+    };
+
+    static final String[] PAYMENT_APPROVED_HINTS = {
+        "pagamento aprovado",
+        "pix aprovado",
+        "pix recebido",
+        "aprovado",
+        "transacao aprovada",
+        "pagamento autorizado",
+        "transacao autorizada",
+        "pagamento realizado",
+        "transacao concluida",
+        "transacao efetuada",
+        "aprovado com sucesso",
+        "transacao aprovada com sucesso",
+        "compra aprovada",
+        "venda aprovada",
+        "aprovada ",
+        " aprovada ",
+        "aprovada 1",
+        "aprovada 2",
+        "aprovada 3",
+        "aprovada 4",
+        "aprovada 5",
+        "aprovada 6",
+        "aprovada 7",
+        "aprovada 8",
+        "aprovada 9"
+    };
+
+    private static final CieloHintMatcher MATCHER = hintTable().build();
+
+    /** Tabela família → dicas; exposta para os testes compararem com {@code contains()}. */
+    static CieloHintMatcher.Builder hintTable() {
+        return new CieloHintMatcher.Builder()
+            .add(APPROVED_WORD, "aprovad")
+            .add(NO_PRINT, "nao imprimir")
+            .add(PRINT_WORD, "imprimir")
+            .add(TROCO, "troco")
+            .add(CAPTURE_IN_PROGRESS, "aproxime", "insira", "passe o cart", "processando", "gerar qr", "digitar cart")
+            .add(INITIAL_CAPTURE, "digitar cartao", "gerar qr")
+            .add(CARD_READER, "aproxime", "insira", "passe o cartao", "aguardando", "leitor")
+            .add(RECEIPT_EXCLUSION, "digitar cartao", "gerar qr", "aproxime", "insira", "passe o cartao", "processando")
+            .add(PAYMENT_APPROVED, PAYMENT_APPROVED_HINTS)
+            .add(PRINT_PROMPT, PRINT_PROMPT_HINTS)
+            .add(PIX_CONTEXT, "pix", "transacao concluida", "concluida com sucesso")
+            .add(CARD_CONTEXT, "credito", "debito", " r$", "cartao")
+            .add(DEBITO, "debito")
+            .add(CONFIRMAR, "confirmar")
+            .add(LIMPAR, "limpar")
+            .add(FORBIDDEN_CAPTURE, FORBIDDEN_CAPTURE_BUTTONS)
+            .add(ALTERNATE_CAPTURE, ALTERNATE_CAPTURE_SCREEN_HINTS);
+    }
+
+    private CieloScreenClassifier() {
+    }
+
+    static int classify(CharSequence text) {
+        return MATCHER.match(text);
+    }
+
+    static boolean has(int mask, int family) {
+        return (mask & family) != 0;
+    }
+
+    /** Tela aprovada ou menu de impressão — nunca captura/processando. */
+    static boolean isApprovedPaymentScreen(int mask) {
+        if (has(mask, TROCO) && !has(mask, NO_PRINT)) {
+            return false;
+        }
+        if (has(mask, CAPTURE_IN_PROGRESS)) {
+            return false;
+        }
+        // "aprovad" cobre aprovada/aprovado (PIX costuma usar "Pagamento aprovado").
+        return has(mask, NO_PRINT | APPROVED_WORD);
+    }
+
+    /** Tela pós-pagamento: "Aprovada …" / pergunta de impressão / "Não imprimir". */
+    static boolean isApprovedReceipt(int mask) {
+        if (has(mask, RECEIPT_EXCLUSION)) {
+            return false;
+        }
+        return has(mask, NO_PRINT | PAYMENT_APPROVED | PRINT_PROMPT);
+    }
+
+    static boolean isInitialCapture(int mask) {
+        return has(mask, INITIAL_CAPTURE);
+    }
+
+    static boolean isCardCaptureScreen(int mask) {
+        return !has(mask, INITIAL_CAPTURE) && has(mask, CARD_READER);
+    }
+
+    /** Saiu da tela QR/digitar, ainda não é comprovante, mas já mostra contexto de cartão/valor. */
+    static boolean isPastInitialCardScreen(int mask) {
+        return !has(mask, INITIAL_CAPTURE) && !isApprovedPaymentScreen(mask) && has(mask, CARD_CONTEXT);
+    }
+
+    static boolean isPixPrintPrompt(int mask) {
+        if (has(mask, TROCO)) {
+            return false;
+        }
+        if (has(mask, NO_PRINT)) {
+            return true;
+        }
+        return has(mask, PIX_CONTEXT) && has(mask, PRINT_WORD | APPROVED_WORD);
+    }
+
+    static boolean isTrocoScreen(int mask) {
+        return has(mask, TROCO)
+            || (has(mask, DEBITO) && has(mask, CONFIRMAR) && has(mask, LIMPAR));
+    }
+}
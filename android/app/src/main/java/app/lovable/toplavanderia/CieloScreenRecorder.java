@@ -0,0 +1,150 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Grava as sessões Cielo vistas pela acessibilidade no formato {@link CieloScreenRecording}
+ * (files/a11y_recordings/*.tsv) para o replay na JVM. Desligado por padrão; liga com
+ * SharedPreferences "cielo_a11y_recorder" → enabled=true (ex.: via adb em terminal de teste).
+ */
+final class CieloScreenRecorder {
+    private static final String TAG = "CieloScreenRecorder";
+    private static final String PREFS = "cielo_a11y_recorder";
+    private static final String KEY_ENABLED = "enabled";
+    private static final String DIR = "a11y_recordings";
+    /** Mantém só as gravações mais recentes no terminal. */
+    private static final int MAX_FILES = 40;
+
+    private static volatile Handler ioHandler;
+    private static volatile Writer writer;
+    private static volatile long sessionStartElapsed;
+    /** Ligado na hora em begin(); o arquivo abre depois, na thread de IO (ordem preservada). */
+    private static volatile boolean active;
+
+    private CieloScreenRecorder() {
+    }
+
+    static boolean isEnabled(Context context) {
+        return context.getApplicationContext()
+            .getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+            .getBoolean(KEY_ENABLED, false);
+    }
+
+    static boolean isRecording() {
+        return active;
+    }
+
+    /** Nova sessão de pagamento: abre um arquivo novo (fecha o anterior). */
+    static void begin(Context context, String paymentCode) {
+        end();
+        if (!isEnabled(context)) {
+            return;
+        }
+        File dir = new File(context.getApplicationContext().getFilesDir(), DIR);
+        long startedAt = System.currentTimeMillis();
+        sessionStartElapsed = SystemClock.elapsedRealtime();
+        active = true;
+        String name = "sessao-" + startedAt + "-" + (paymentCode == null ? "" : paymentCode);
+        post(() -> {
+            try {
+                if (!dir.exists() && !dir.mkdirs()) {
+                    Log.w(TAG, "Não foi possível criar " + dir);
+                    return;
+                }
+                pruneOldFiles(dir);
+                Writer w = new OutputStreamWriter(
+                    new FileOutputStream(new File(dir, name + ".tsv")), StandardCharsets.UTF_8);
+                // Rótulo de aprovação fica -1 até a revisão manual da gravação.
+                w.write(CieloScreenRecording.header(name, -1L));
+                writer = w;
+            } catch (Exception e) {
+                Log.w(TAG, "Falha ao iniciar gravação", e);
+            }
+        });
+    }
+
+    static void record(String kind, int windowId, String eventText, String subtreeText, String windowText) {
+        if (!active) {
+            return;
+        }
+        long at = SystemClock.elapsedRealtime() - sessionStartElapsed;
+        String line = new CieloScreenRecording.Frame(at, kind, windowId, eventText, subtreeText, windowText).toLine();
+        post(() -> write(line));
+    }
+
+    /** Marca sem efeito na tela (detecção, deep link...) — ajuda a rotular a gravação. */
+    static void mark(String label) {
+        record(CieloScreenRecording.KIND_MARK, -1, label, "", "");
+    }
+
+    static void end() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        post(() -> {
+            Writer w = writer;
+            writer = null;
+            if (w == null) {
+                return;
+            }
+            try {
+                w.close();
+            } catch (Exception ignored) {
+                // Gravação é só diagnóstico.
+            }
+        });
+    }
+
+    private static void write(String line) {
+        Writer w = writer;
+        if (w == null) {
+            return;
+        }
+        try {
+            w.write(line);
+            w.write('\n');
+            w.flush();
+        } catch (Exception e) {
+            Log.w(TAG, "Falha ao gravar quadro", e);
+        }
+    }
+
+    private static void pruneOldFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length < MAX_FILES) {
+            return;
+        }
+        java.util.Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i <= files.length - MAX_FILES; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "Não foi possível apagar " + files[i]);
+            }
+        }
+    }
+
+    private static void post(Runnable task) {
+        Handler h = ioHandler;
+        if (h == null) {
+            synchronized (CieloScreenRecorder.class) {
+                if (ioHandler == null) {
+                    HandlerThread thread = new HandlerThread("cielo-a11y-recorder");
+                    thread.start();
+                    ioHandler = new Handler(thread.getLooper());
+                }
+                h = ioHandler;
+            }
+        }
+        h.post(task);
+    }
+}
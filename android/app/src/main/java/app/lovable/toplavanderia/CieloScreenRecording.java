@@ -0,0 +1,157 @@
+package app.lovable.toplavanderia;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gravação de uma sessão Cielo vista pela acessibilidade, para replay na JVM.
+ *
+ * Formato texto (UTF-8), uma linha por quadro, campos separados por TAB:
+ * <pre>
+ * #name=&lt;rótulo&gt;
+ * #expect_approved_at_ms=&lt;ms desde o início, -1 se a sessão não aprovou&gt;
+ * &lt;ms&gt;  &lt;kind&gt;  &lt;windowId&gt;  &lt;texto do evento&gt;  &lt;texto da subárvore&gt;  &lt;texto da janela&gt;
+ * </pre>
+ * kind: state | content | windows | mark. Textos com \t, \n e \\ escapados.
+ * O rótulo expect_approved_at_ms é preenchido na revisão da gravação.
+ */
+final class CieloScreenRecording {
+    static final String KIND_STATE = "state";
+    static final String KIND_CONTENT = "content";
+    static final String KIND_WINDOWS = "windows";
+    /** Marcador sem efeito na tela (ex.: deep link de sucesso chegou). */
+    static final String KIND_MARK = "mark";
+    /** Texto do marcador gravado quando a sessão de pagamento acaba (detecção desligada). */
+    static final String MARK_SESSION_END = "session:end";
+
+    static final class Frame {
+        final long atMs;
+        final String kind;
+        final int windowId;
+        final String eventText;
+        final String subtreeText;
+        final String windowText;
+
+        Frame(long atMs, String kind, int windowId, String eventText, String subtreeText, String windowText) {
+            this.atMs = atMs;
+            this.kind = kind == null ? KIND_MARK : kind;
+            this.windowId = windowId;
+            this.eventText = eventText == null ? "" : eventText;
+            this.subtreeText = subtreeText == null ? "" : subtreeText;
+            this.windowText = windowText == null ? "" : windowText;
+        }
+
+        String toLine() {
+            return atMs + "\t" + kind + "\t" + windowId + "\t" + escape(eventText)
+                + "\t" + escape(subtreeText) + "\t" + escape(windowText);
+        }
+    }
+
+    final String name;
+    final long expectApprovedAtMs;
+    final List<Frame> frames;
+
+    CieloScreenRecording(String name, long expectApprovedAtMs, List<Frame> frames) {
+        this.name = name == null ? "" : name;
+        this.expectApprovedAtMs = expectApprovedAtMs;
+        List<Frame> sorted = new ArrayList<>(frames);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.atMs, b.atMs));
+        this.frames = Collections.unmodifiableList(sorted);
+    }
+
+    boolean expectsApproval() {
+        return expectApprovedAtMs >= 0L;
+    }
+
+    long durationMs() {
+        return frames.isEmpty() ? 0L : frames.get(frames.size() - 1).atMs;
+    }
+
+    static String header(String name, long expectApprovedAtMs) {
+        return "#name=" + name + "\n#expect_approved_at_ms=" + expectApprovedAtMs + "\n";
+    }
+
+    void write(Writer out) throws IOException {
+        out.write(header(name, expectApprovedAtMs));
+        for (Frame f : frames) {
+            out.write(f.toLine());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    static CieloScreenRecording parse(Reader in) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        String name = "";
+        long expect = -1L;
+        List<Frame> frames = new ArrayList<>();
+        String line;
+        int lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("#")) {
+                if (line.startsWith("#name=")) {
+                    name = line.substring("#name=".length());
+                } else if (line.startsWith("#expect_approved_at_ms=")) {
+                    expect = Long.parseLong(line.substring("#expect_approved_at_ms=".length()).trim());
+                }
+                continue;
+            }
+            String[] parts = line.split("\t", -1);
+            if (parts.length < 6) {
+                throw new IOException("Linha " + lineNo + ": esperado 6 campos, veio " + parts.length);
+            }
+            frames.add(new Frame(
+                Long.parseLong(parts[0]),
+                parts[1],
+                Integer.parseInt(parts[2]),
+                unescape(parts[3]),
+                unescape(parts[4]),
+                unescape(parts[5])));
+        }
+        return new CieloScreenRecording(name, expect, frames);
+    }
+
+    static String escape(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String value) {
+        if (value == null || value.indexOf('\\') < 0) {
+            return value == null ? "" : value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char n = value.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cardápio de café persistido por lavanderia, com a versão do servidor
+ * (get_coffee_menu_version). O totem desenha na hora a partir do cache e revalida em segundo
+ * plano: versão igual não baixa nem reprocessa nada; só versão nova (ou servidor sem a RPC)
+ * baixa a lista inteira.
+ */
+final class CoffeeMenuCache {
+    private static final String TAG = "CoffeeMenuCache";
+    private static final String PREFS = "coffee_menu";
+    private static final String KEY_LAUNDRY_ID = "laundry_id";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_PRODUCTS = "products";
+
+    /** Cardápio pronto para a tela: ordenado e com o texto de cada botão já formatado. */
+    static final class Menu {
+        final String laundryId;
+        /** Null quando o servidor não tem get_coffee_menu_version. */
+        final String version;
+        final List<SupabaseHelper.CoffeeProduct> products;
+        final List<String> labels;
+
+        private Menu(String laundryId, String version, List<SupabaseHelper.CoffeeProduct> products) {
+            this.laundryId = laundryId;
+            this.version = version;
+            List<SupabaseHelper.CoffeeProduct> sorted = new ArrayList<>(products);
+            Collections.sort(sorted, (a, b) -> a.getSortOrder() != b.getSortOrder()
+                ? Integer.compare(a.getSortOrder(), b.getSortOrder())
+                : String.valueOf(a.getName()).compareToIgnoreCase(String.valueOf(b.getName())));
+            DecimalFormat priceFmt = new DecimalFormat("0.00");
+            List<String> texts = new ArrayList<>(sorted.size());
+            for (SupabaseHelper.CoffeeProduct p : sorted) {
+                texts.add(p.getName() + "\nR$ " + priceFmt.format(p.getPrice()));
+            }
+            this.products = Collections.unmodifiableList(sorted);
+            this.labels = Collections.unmodifiableList(texts);
+        }
+
+        boolean isEmpty() {
+            return products.isEmpty();
+        }
+    }
+
+    private static Menu current;
+
+    private CoffeeMenuCache() {
+    }
+
+    /** Cardápio em cache da lavanderia (memória, senão disco); null se nunca carregado. */
+    static synchronized Menu cached(Context context, String laundryId) {
+        if (laundryId == null) {
+            return null;
+        }
+        if (current != null && laundryId.equals(current.laundryId)) {
+            return current;
+        }
+        SharedPreferences prefs = prefs(context);
+        String raw = prefs.getString(KEY_PRODUCTS, null);
+        if (raw == null || !laundryId.equals(prefs.getString(KEY_LAUNDRY_ID, null))) {
+            return null;
+        }
+        try {
+            current = new Menu(laundryId, prefs.getString(KEY_VERSION, null),
+                SupabaseHelper.parseCoffeeProducts(raw));
+            return current;
+        } catch (Exception e) {
+            Log.w(TAG, "Cardápio em cache inválido — descartado", e);
+            prefs.edit().clear().apply();
+            return null;
+        }
+    }
+
+    /**
+     * Confere a versão no servidor e baixa a lista só se mudou. Bloqueante (rede).
+     * @return cardápio atualizado; o do cache se nada mudou ou a rede falhou; null sem nenhum.
+     */
+    static Menu revalidate(Context context, SupabaseHelper helper) {
+        String laundryId = helper.getLaundryId();
+        Menu cached = cached(context, laundryId);
+        String version = helper.fetchCoffeeMenuVersion();
+        if (cached != null && version != null && version.equals(cached.version)) {
+            return cached;
+        }
+        String raw = helper.fetchCoffeeProductsJson();
+        if (raw == null) {
+            return cached;
+        }
+        Menu fresh;
+        try {
+            fresh = new Menu(laundryId, version, SupabaseHelper.parseCoffeeProducts(raw));
+        } catch (Exception e) {
+            Log.e(TAG, "Resposta de cardápio inválida", e);
+            return cached;
+        }
+        synchronized (CoffeeMenuCache.class) {
+            current = fresh;
+        }
+        prefs(context).edit()
+            .putString(KEY_LAUNDRY_ID, laundryId)
+            .putString(KEY_VERSION, version)
+            .putString(KEY_PRODUCTS, raw)
+            .apply();
+        Log.d(TAG, "Cardápio atualizado: " + fresh.products.size() + " produto(s), versão=" + version);
+        return fresh;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+}
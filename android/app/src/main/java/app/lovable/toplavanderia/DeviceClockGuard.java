@@ -24,25 +24,24 @@ final class DeviceClockGuard {
 
     private DeviceClockGuard() {}
 
-    static void checkAsync(Activity activity) {
+    /** Etapa do StartupGraph: roda fora da main thread e só avisa via dialog. */
+    static void check(Activity activity) {
         if (!CieloSslWorkaround.isCieloTerminal() || activity == null || activity.isFinishing()) {
             return;
         }
-        new Thread(() -> {
-            long serverMs = fetchHttpDateMs();
-            if (serverMs <= 0) {
-                return;
-            }
-            long skewMs = Math.abs(System.currentTimeMillis() - serverMs);
-            if (skewMs < WARN_SKEW_MS) {
-                return;
-            }
-            if (!warnedThisSession.compareAndSet(false, true)) {
-                return;
-            }
-            Log.w(TAG, "Relógio do terminal desajustado: skew=" + (skewMs / 1000) + "s");
-            activity.runOnUiThread(() -> showClockDialog(activity, skewMs));
-        }).start();
+        long serverMs = fetchHttpDateMs();
+        if (serverMs <= 0) {
+            return;
+        }
+        long skewMs = Math.abs(System.currentTimeMillis() - serverMs);
+        if (skewMs < WARN_SKEW_MS) {
+            return;
+        }
+        if (!warnedThisSession.compareAndSet(false, true)) {
+            return;
+        }
+        Log.w(TAG, "Relógio do terminal desajustado: skew=" + (skewMs / 1000) + "s");
+        activity.runOnUiThread(() -> showClockDialog(activity, skewMs));
     }
 
     private static long fetchHttpDateMs() {
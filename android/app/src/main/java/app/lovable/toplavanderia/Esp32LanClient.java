@@ -0,0 +1,312 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Acionamento do relé direto pela rede da loja, sem passar por esp32-control → pending_commands
+ * → poll do ESP32. Contrato do firmware (esp32LavadoraTemplate.ino): GET /status devolve
+ * esp32_id e is_active; POST /release-credit recebe esp32_id, machine_id, relay_pin e
+ * transaction_id, recusa máquina em ciclo (409) e só confirma a mesma transação repetida.
+ * Placas v2.2.x sem essa rota (404) recebem POST /start, e só com is_active=false no /status.
+ *
+ * O endereço vem do ip_address do heartbeat (Supabase) e fica em disco para funcionar com o
+ * link da loja fora. Antes de cada comando confere em /status o esp32_id (DHCP pode ter trocado
+ * o IP) e se a máquina está parada. Placa inalcançável ou com erro 5xx sai do caminho local por
+ * um tempo; quem chama cai no caminho pela nuvem. Resposta perdida depois do envio: relê /status e
+ * só cai na nuvem se a máquina não entrou em ciclo (evita segundo crédito).
+ *
+ * HTTP/1.0 em Socket cru: o network_security_config bloqueia cleartext para IPs da LAN no
+ * HttpURLConnection, e liberar o base-config afrouxaria o app inteiro.
+ */
+final class Esp32LanClient {
+    private static final String TAG = "Esp32LanClient";
+    private static final String PREFS = "esp32_lan";
+    private static final String KEY_ENDPOINTS = "endpoints";
+    static final int DEFAULT_PORT = 80;
+    private static final int CONNECT_TIMEOUT_MS = 700;
+    private static final int READ_TIMEOUT_MS = 2_500;
+    /** Placa inalcançável ou com erro: não tenta de novo antes disso. */
+    private static final long UNAVAILABLE_BACKOFF_MS = 10 * 60_000L;
+
+    static final class Endpoint {
+        final String host;
+        final int port;
+        final long learnedAt;
+        /** Firmware v2.2.x: só /start (sem /release-credit). */
+        volatile boolean legacyStart;
+
+        Endpoint(String host, int port, long learnedAt) {
+            this.host = host;
+            this.port = port;
+            this.learnedAt = learnedAt;
+        }
+
+        boolean sameAddress(String otherHost, int otherPort) {
+            return host.equals(otherHost) && port == otherPort;
+        }
+    }
+
+    private static final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private static final Map<String, Long> unavailableUntil = new ConcurrentHashMap<>();
+    private static Context appContext;
+
+    private Esp32LanClient() {
+    }
+
+    /** Carrega os endereços conhecidos do disco (etapa de boot). */
+    static void init(Context context) {
+        synchronized (Esp32LanClient.class) {
+            if (appContext != null) {
+                return;
+            }
+            appContext = context.getApplicationContext();
+        }
+        String raw = prefs().getString(KEY_ENDPOINTS, "");
+        if (raw.isEmpty()) {
+            return;
+        }
+        try {
+            JSONArray arr = new JSONArray(raw);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                endpoints.putIfAbsent(o.getString("esp32_id"),
+                    new Endpoint(o.getString("host"), o.optInt("port", DEFAULT_PORT), o.optLong("at", 0L)));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Endereços locais inválidos — recomeçando", e);
+        }
+    }
+
+    /** Endereço anunciado pela placa (heartbeat na nuvem ou descoberta local). */
+    static void learn(String esp32Id, String host, int port) {
+        if (esp32Id == null || esp32Id.isEmpty() || !isUsableHost(host)) {
+            return;
+        }
+        Endpoint known = endpoints.get(esp32Id);
+        if (known != null && known.sameAddress(host, port)) {
+            return;
+        }
+        endpoints.put(esp32Id, new Endpoint(host, port, System.currentTimeMillis()));
+        unavailableUntil.remove(esp32Id);
+        Log.d(TAG, "Endereço local de " + esp32Id + ": " + host + ":" + port);
+        persist();
+    }
+
+    static Endpoint endpointFor(String esp32Id) {
+        return esp32Id == null ? null : endpoints.get(esp32Id);
+    }
+
+    /**
+     * Liga o relé pela LAN e lê a confirmação da própria placa. Bloqueante (até ~3 s).
+     * @return true só com success=true da placa certa; false = usar o caminho pela nuvem.
+     */
+    static boolean releaseRelay(String esp32Id, int relayPin, String machineId,
+                                String transactionId, int cycleMinutes) {
+        Endpoint ep = endpointFor(esp32Id);
+        if (ep == null) {
+            return false;
+        }
+        Long until = unavailableUntil.get(esp32Id);
+        if (until != null && SystemClock.elapsedRealtime() < until) {
+            return false;
+        }
+        long t0 = SystemClock.elapsedRealtime();
+        boolean sent = false;
+        try {
+            JSONObject status = readStatus(esp32Id, ep);
+            if (status == null) {
+                return false;
+            }
+            if (status.optBoolean("is_active", false)) {
+                // Máquina em ciclo: crédito agora seria perdido ou dobrado.
+                Log.w(TAG, esp32Id + " já em ciclo — sem acionamento local");
+                return false;
+            }
+            Response res = null;
+            if (!ep.legacyStart) {
+                JSONObject body = new JSONObject();
+                body.put("esp32_id", esp32Id);
+                body.put("machine_id", machineId);
+                body.put("relay_pin", relayPin);
+                body.put("action", "on");
+                if (transactionId != null && !transactionId.isEmpty()) {
+                    body.put("transaction_id", transactionId);
+                }
+                if (cycleMinutes > 0) {
+                    body.put("cycle_time_minutes", cycleMinutes);
+                }
+                sent = true;
+                res = request(ep, "POST", "/release-credit", body.toString());
+                if (res.code == 404) {
+                    Log.i(TAG, esp32Id + " sem /release-credit — firmware v2.2.x, usando /start");
+                    ep.legacyStart = true;
+                }
+            }
+            if (ep.legacyStart) {
+                // v2.2.x: placa de um relé só, identidade já conferida no /status acima.
+                sent = true;
+                res = request(ep, "POST", "/start", null);
+            }
+            if (res.code >= 500 || res.code == 404) {
+                markUnavailable(esp32Id, "HTTP " + res.code);
+                return false;
+            }
+            boolean ok = res.code == 200 && new JSONObject(res.body).optBoolean("success", false);
+            Log.i(TAG, "Relé via LAN " + esp32Id + " pin=" + relayPin + " ok=" + ok
+                + " em " + (SystemClock.elapsedRealtime() - t0) + "ms (HTTP " + res.code + ")");
+            return ok;
+        } catch (Exception e) {
+            // Placa que prova o ciclo no /status segue no caminho local.
+            if (sent && startedAfterLostReply(esp32Id, ep)) {
+                return true;
+            }
+            markUnavailable(esp32Id, e.getClass().getSimpleName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Comando enviado sem resposta: a máquina parada antes e em ciclo agora prova o crédito. */
+    private static boolean startedAfterLostReply(String esp32Id, Endpoint ep) {
+        try {
+            JSONObject status = readStatus(esp32Id, ep);
+            boolean active = status != null && status.optBoolean("is_active", false);
+            Log.w(TAG, "Resposta perdida de " + esp32Id + "; is_active=" + active);
+            return active;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** GET /status conferindo o esp32_id (DHCP pode ter dado o IP a outro aparelho); null = não usar. */
+    private static JSONObject readStatus(String esp32Id, Endpoint ep) throws Exception {
+        Response res = request(ep, "GET", "/status", null);
+        if (res.code != 200) {
+            markUnavailable(esp32Id, "/status HTTP " + res.code);
+            return null;
+        }
+        JSONObject status = new JSONObject(res.body);
+        String reported = status.optString("esp32_id", "");
+        if (!esp32Id.equals(reported)) {
+            // Outro aparelho no IP: esquece o endereço até o próximo anúncio.
+            Log.w(TAG, ep.host + " respondeu como '" + reported + "', esperado " + esp32Id);
+            endpoints.remove(esp32Id, ep);
+            persist();
+            return null;
+        }
+        return status;
+    }
+
+    private static void markUnavailable(String esp32Id, String reason) {
+        unavailableUntil.put(esp32Id, SystemClock.elapsedRealtime() + UNAVAILABLE_BACKOFF_MS);
+        Log.w(TAG, "Caminho local indisponível para " + esp32Id + " (" + reason + ") — usando nuvem");
+    }
+
+    private static final class Response {
+        final int code;
+        final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+
+    private static Response request(Endpoint ep, String method, String path, String jsonBody) throws Exception {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(ep.host, ep.port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            byte[] payload = jsonBody == null ? new byte[0] : jsonBody.getBytes(StandardCharsets.UTF_8);
+            StringBuilder head = new StringBuilder()
+                .append(method).append(' ').append(path).append(" HTTP/1.0\r\n")
+                .append("Host: ").append(ep.host).append("\r\n")
+                .append("Connection: close\r\n");
+            if (jsonBody != null) {
+                head.append("Content-Type: application/json\r\n")
+                    .append("Content-Length: ").append(payload.length).append("\r\n");
+            }
+            head.append("\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(payload);
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                buf.write(chunk, 0, n);
+            }
+            String raw = buf.toString("UTF-8");
+            int lineEnd = raw.indexOf("\r\n");
+            String[] status = (lineEnd < 0 ? raw : raw.substring(0, lineEnd)).split(" ");
+            int code = status.length > 1 ? Integer.parseInt(status[1]) : -1;
+            int bodyStart = raw.indexOf("\r\n\r\n");
+            return new Response(code, bodyStart < 0 ? "" : raw.substring(bodyStart + 4));
+        }
+    }
+
+    /** Só IPv4 de rede privada: o ip_address do heartbeat às vezes vem vazio ou "0.0.0.0". */
+    static boolean isUsableHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        String[] parts = host.trim().split("\\.");
+        if (parts.length != 4) {
+            return false;
+        }
+        int[] o = new int[4];
+        try {
+            for (int i = 0; i < 4; i++) {
+                o[i] = Integer.parseInt(parts[i]);
+                if (o[i] < 0 || o[i] > 255) {
+                    return false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return o[0] == 10
+            || (o[0] == 192 && o[1] == 168)
+            || (o[0] == 172 && o[1] >= 16 && o[1] <= 31);
+    }
+
+    private static void persist() {
+        if (appContext == null) {
+            return;
+        }
+        try {
+            JSONArray arr = new JSONArray();
+            for (Map.Entry<String, Endpoint> e : endpoints.entrySet()) {
+                JSONObject o = new JSONObject();
+                o.put("esp32_id", e.getKey());
+                o.put("host", e.getValue().host);
+                o.put("port", e.getValue().port);
+                o.put("at", e.getValue().learnedAt);
+                arr.put(o);
+            }
+            prefs().edit().putString(KEY_ENDPOINTS, arr.toString()).apply();
+        } catch (Exception e) {
+            Log.w(TAG, "Falha ao gravar endereços locais", e);
+        }
+    }
+
+    private static SharedPreferences prefs() {
+        return appContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+}
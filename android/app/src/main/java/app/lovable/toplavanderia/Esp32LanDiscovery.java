@@ -0,0 +1,254 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Escuta os beacons UDP que as placas mandam a cada 1 s na rede da loja
+ * (esp32LavadoraTemplate.ino, sendLanBeacon) e mantém esp32_id → IP/porta + último visto.
+ *
+ * Alimenta o {@link Esp32LanClient} com o endereço e o {@link Esp32TotemPolicy} com presença
+ * local: placa que já mandou beacon e parou há mais de {@link #LOCAL_STALE_MS} está fora, sem
+ * esperar o heartbeat da nuvem (~42 s). Placa que nunca mandou beacon (firmware antigo, outra
+ * sub-rede) segue só pela nuvem. Sem beacon de nenhuma placa, o problema é a rede do totem —
+ * a presença local deixa de valer.
+ *
+ * "Fora" só vale enquanto o último beacon é a notícia mais nova da placa: heartbeat na nuvem
+ * posterior a ele ({@link #onCloudHeartbeat}) ou {@link #SIGHTING_MAX_AGE_MS} sem beacon
+ * esquecem o avistamento, e a placa volta a seguir só pela nuvem (ex.: mudou de sub-rede).
+ */
+final class Esp32LanDiscovery {
+    private static final String TAG = "Esp32LanDiscovery";
+    static final int BEACON_PORT = 41235;
+    /**
+     * Uns dez beacons seguidos perdidos. Firmware antigo manda o beacon do loop(), atrás de
+     * chamadas HTTPS de até 5 s cada: lacunas de 5–10 s são normais e não derrubam a placa.
+     */
+    static final long LOCAL_STALE_MS = 12_000L;
+    /** Sem beacon por tanto tempo, o avistamento não diz mais nada sobre a placa. */
+    static final long SIGHTING_MAX_AGE_MS = 5 * 60_000L;
+    private static final int RECEIVE_TIMEOUT_MS = 1_000;
+    private static final long RESTART_DELAY_MS = 5_000L;
+
+    /** Mudança de presença local (apareceu ou sumiu). Chamado na thread da descoberta. */
+    interface Listener {
+        void onPresenceChanged(String esp32Id, boolean present);
+    }
+
+    static final class Sighting {
+        final String host;
+        final int port;
+        final long lastSeenElapsed;
+        /** Mesmo instante no relógio de parede, para comparar com o last_heartbeat da nuvem. */
+        final long lastSeenWallMs;
+        final boolean running;
+
+        Sighting(String host, int port, long lastSeenElapsed, long lastSeenWallMs, boolean running) {
+            this.host = host;
+            this.port = port;
+            this.lastSeenElapsed = lastSeenElapsed;
+            this.lastSeenWallMs = lastSeenWallMs;
+            this.running = running;
+        }
+
+        long ageMs(long now) {
+            return now - lastSeenElapsed;
+        }
+    }
+
+    private static final Map<String, Sighting> sightings = new ConcurrentHashMap<>();
+    /** Presença já anunciada aos listeners, para avisar só nas transições. */
+    private static final Map<String, Boolean> announced = new ConcurrentHashMap<>();
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static volatile long lastAnyBeaconElapsed;
+    private static Thread thread;
+
+    private Esp32LanDiscovery() {
+    }
+
+    static synchronized void start(Context context) {
+        if (thread != null) {
+            return;
+        }
+        Context app = context.getApplicationContext();
+        thread = new Thread(() -> runLoop(app), "esp32-discovery");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    static Sighting sightingFor(String esp32Id) {
+        return esp32Id == null ? null : sightings.get(esp32Id);
+    }
+
+    /**
+     * Presença pela LAN: true/false quando os beacons decidem; null quando não há informação
+     * local confiável (placa sem beacon ou totem sem receber beacon de ninguém).
+     */
+    static Boolean localPresence(String esp32Id) {
+        Sighting s = sightingFor(esp32Id);
+        if (s == null) {
+            return null;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastAnyBeaconElapsed > LOCAL_STALE_MS) {
+            return null;
+        }
+        return s.ageMs(now) <= LOCAL_STALE_MS;
+    }
+
+    /**
+     * Heartbeat da placa lido na nuvem. Mais novo que o último beacon de uma placa já calada na
+     * LAN: ela está viva e o beacon é que não chega — o avistamento deixa de decidir.
+     */
+    static void onCloudHeartbeat(String esp32Id, long heartbeatWallMs) {
+        Sighting s = sightingFor(esp32Id);
+        if (s == null || heartbeatWallMs <= s.lastSeenWallMs
+                || s.ageMs(SystemClock.elapsedRealtime()) <= LOCAL_STALE_MS) {
+            return;
+        }
+        forget(esp32Id, s, "heartbeat na nuvem depois do último beacon");
+    }
+
+    private static void forget(String esp32Id, Sighting s, String reason) {
+        if (sightings.remove(esp32Id, s)) {
+            announced.remove(esp32Id);
+            Log.i(TAG, esp32Id + ": avistamento LAN esquecido (" + reason + ") — segue pela nuvem");
+        }
+    }
+
+    private static void runLoop(Context app) {
+        while (true) {
+            WifiManager.MulticastLock lock = acquireMulticastLock(app, TAG);
+            try (DatagramSocket socket = new DatagramSocket(null)) {
+                socket.setReuseAddress(true);
+                socket.setBroadcast(true);
+                socket.bind(new InetSocketAddress(BEACON_PORT));
+                socket.setSoTimeout(RECEIVE_TIMEOUT_MS);
+                Log.i(TAG, "Escutando beacons na porta " + BEACON_PORT);
+                byte[] buf = new byte[512];
+                while (true) {
+                    DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                    try {
+                        socket.receive(packet);
+                        onBeacon(packet);
+                    } catch (SocketTimeoutException ignored) {
+                        // Sem beacon neste segundo; só confere quem sumiu.
+                    }
+                    checkStale();
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Descoberta LAN parou — reiniciando em " + RESTART_DELAY_MS + "ms", e);
+            } finally {
+                if (lock != null && lock.isHeld()) {
+                    lock.release();
+                }
+            }
+            SystemClock.sleep(RESTART_DELAY_MS);
+        }
+    }
+
+    private static void onBeacon(DatagramPacket packet) {
+        JSONObject json;
+        try {
+            json = new JSONObject(new String(packet.getData(), packet.getOffset(), packet.getLength(),
+                StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return;
+        }
+        if (!"toplav".equals(json.optString("t", ""))) {
+            return;
+        }
+        String esp32Id = json.optString("esp32_id", "");
+        if (esp32Id.isEmpty() || packet.getAddress() == null) {
+            return;
+        }
+        String host = packet.getAddress().getHostAddress();
+        int port = json.optInt("port", Esp32LanClient.DEFAULT_PORT);
+        long now = SystemClock.elapsedRealtime();
+        lastAnyBeaconElapsed = now;
+        Sighting previous = sightings.put(esp32Id,
+            new Sighting(host, port, now, System.currentTimeMillis(), json.optBoolean("running", false)));
+        if (previous == null || !previous.host.equals(host) || previous.port != port) {
+            Esp32LanClient.learn(esp32Id, host, port);
+        }
+        announce(esp32Id, true);
+    }
+
+    private static void checkStale() {
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<String, Sighting> e : sightings.entrySet()) {
+            if (e.getValue().ageMs(now) > SIGHTING_MAX_AGE_MS) {
+                forget(e.getKey(), e.getValue(), "sem beacon há " + SIGHTING_MAX_AGE_MS + "ms");
+            }
+        }
+        if (now - lastAnyBeaconElapsed > LOCAL_STALE_MS) {
+            // Ninguém manda beacon: rede do totem, não das placas. Não derruba ninguém.
+            return;
+        }
+        List<String> gone = new ArrayList<>();
+        for (Map.Entry<String, Sighting> e : sightings.entrySet()) {
+            if (e.getValue().ageMs(now) > LOCAL_STALE_MS) {
+                gone.add(e.getKey());
+            }
+        }
+        for (String esp32Id : gone) {
+            announce(esp32Id, false);
+        }
+    }
+
+    private static void announce(String esp32Id, boolean present) {
+        Boolean before = announced.put(esp32Id, present);
+        if (before != null && before == present) {
+            return;
+        }
+        Log.i(TAG, esp32Id + (present ? " presente" : " sem beacon há mais de " + LOCAL_STALE_MS + "ms"));
+        for (Listener l : listeners) {
+            try {
+                l.onPresenceChanged(esp32Id, present);
+            } catch (Exception e) {
+                Log.w(TAG, "Listener de presença falhou", e);
+            }
+        }
+    }
+
+    /** Lock de multicast sem contagem de referência; null se o Wi-Fi não estiver disponível. */
+    static WifiManager.MulticastLock acquireMulticastLock(Context app, String tag) {
+        try {
+            WifiManager wifi = (WifiManager) app.getSystemService(Context.WIFI_SERVICE);
+            if (wifi == null) {
+                return null;
+            }
+            // Alguns drivers descartam broadcast sem este lock.
+            WifiManager.MulticastLock lock = wifi.createMulticastLock(tag);
+            lock.setReferenceCounted(false);
+            lock.acquire();
+            return lock;
+        } catch (Exception e) {
+            Log.w(TAG, "MulticastLock indisponível", e);
+            return null;
+        }
+    }
+}
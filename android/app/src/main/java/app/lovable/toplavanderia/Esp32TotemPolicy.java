@@ -108,6 +108,13 @@ public final class Esp32TotemPolicy {
         if (esp32Id.isEmpty()) {
             return false;
         }
+        // Beacon na LAN sumiu: offline em segundos, sem esperar o heartbeat congelar. Beacon
+        // presente não basta para "online" — a placa ainda precisa da nuvem para buscar comandos.
+        // Heartbeat mais novo que o último beacon tira o beacon velho da decisão.
+        Esp32LanDiscovery.onCloudHeartbeat(esp32Id, t);
+        if (Boolean.FALSE.equals(Esp32LanDiscovery.localPresence(esp32Id))) {
+            return false;
+        }
 
         long rt = SystemClock.elapsedRealtime();
         HbAnchor anchor = HB_ANCHORS.compute(esp32Id, (k, old) -> {
@@ -0,0 +1,225 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Imagens remotas da UI (logo da lavanderia): memória LRU + disco em cacheDir.
+ *
+ * O disco guarda o arquivo original e o ETag. Com cópia em disco a imagem sai dela na hora e é
+ * revalidada em segundo plano (GET condicional, If-None-Match); sem cópia, baixa e espera.
+ *
+ * A decodificação já reduz para o tamanho do alvo (inSampleSize) e reaproveita o buffer de
+ * leitura entre decodificações. Sem inBitmap: um bitmap despejado da LRU ainda pode estar
+ * na tela.
+ */
+final class ImageCache {
+    private static final String TAG = "ImageCache";
+    private static final String PREFS = "image_cache";
+    private static final String KEY_ETAG_PREFIX = "etag_";
+    private static final String DIR = "images";
+    /** Logo do cabeçalho do totem. */
+    static final int LOGO_SIZE_DP = 36;
+    private static final int MEMORY_BYTES = 4 * 1024 * 1024;
+    /** Buffer de leitura do BitmapFactory, compartilhado (decodificações serializadas nele). */
+    private static final byte[] decodeBuffer = new byte[16 * 1024];
+    private static final ConcurrentHashMap<String, Object> keyLocks = new ConcurrentHashMap<>();
+    private static final LruCache<String, Bitmap> memory = new LruCache<String, Bitmap>(MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    private ImageCache() {
+    }
+
+    static int logoSizePx(Context context) {
+        return Math.round(LOGO_SIZE_DP * context.getResources().getDisplayMetrics().density);
+    }
+
+    /** Só memória — seguro na main thread. */
+    static Bitmap getCached(String url, int sizePx) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        return memory.get(memoryKey(url, sizePx));
+    }
+
+    /** Memória → disco (revalida depois) → rede. Bloqueante; null se não houver imagem. */
+    static Bitmap load(Context context, String url, int sizePx) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        String key = memoryKey(url, sizePx);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Context app = context.getApplicationContext();
+        boolean revalidate = false;
+        Bitmap bitmap;
+        synchronized (lockFor(url)) {
+            cached = memory.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            File file = diskFile(app, url);
+            bitmap = file.exists() ? decodeSampled(file, sizePx) : null;
+            if (bitmap != null) {
+                revalidate = true;
+            } else {
+                file = refreshDiskCopy(app, url);
+                bitmap = file == null ? null : decodeSampled(file, sizePx);
+            }
+            if (bitmap != null) {
+                memory.put(key, bitmap);
+            }
+        }
+        if (revalidate) {
+            new Thread(() -> {
+                synchronized (lockFor(url)) {
+                    refreshDiskCopy(app, url);
+                }
+            }, "image-revalidate").start();
+        }
+        return bitmap;
+    }
+
+    /** Aquece memória e disco em segundo plano (ex.: logo logo após configurar a lavanderia). */
+    static void prefetch(Context context, String url, int sizePx) {
+        if (url == null || url.isEmpty() || getCached(url, sizePx) != null) {
+            return;
+        }
+        Context app = context.getApplicationContext();
+        new Thread(() -> load(app, url, sizePx), "image-prefetch").start();
+    }
+
+    /** @return arquivo local atualizado, o antigo se a rede falhar, ou null. Chamar com lockFor(url). */
+    private static File refreshDiskCopy(Context app, String url) {
+        String hash = sha1(url);
+        File file = diskFile(app, url);
+        File dir = file.getParentFile();
+        SharedPreferences prefs = app.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        String etag = file.exists() ? prefs.getString(KEY_ETAG_PREFIX + hash, null) : null;
+        HttpURLConnection conn = null;
+        try {
+            conn = SupabaseConfig.openConnection(url);
+            conn.setConnectTimeout(8000);
+            conn.setReadTimeout(10000);
+            if (etag != null) {
+                conn.setRequestProperty("If-None-Match", etag);
+            }
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && file.exists()) {
+                return file;
+            }
+            if (code < 200 || code >= 300) {
+                Log.w(TAG, "HTTP " + code + " ao baixar imagem");
+                return file.exists() ? file : null;
+            }
+            if (!dir.exists() && !dir.mkdirs()) {
+                Log.w(TAG, "Sem diretório de cache de imagens");
+            }
+            File tmp = new File(dir, hash + ".tmp");
+            try (InputStream in = conn.getInputStream(); OutputStream out = new FileOutputStream(tmp)) {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return file.exists() ? file : null;
+            }
+            String newEtag = conn.getHeaderField("ETag");
+            SharedPreferences.Editor editor = prefs.edit();
+            if (newEtag != null && !newEtag.isEmpty()) {
+                editor.putString(KEY_ETAG_PREFIX + hash, newEtag);
+            } else {
+                editor.remove(KEY_ETAG_PREFIX + hash);
+            }
+            editor.apply();
+            // Imagem nova: versões decodificadas antigas da mesma URL não valem mais (a próxima
+            // montagem da tela busca de novo).
+            evictUrl(url);
+            return file;
+        } catch (Exception e) {
+            Log.w(TAG, "Falha ao baixar imagem — usando cópia local se houver", e);
+            return file.exists() ? file : null;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /** Menor inSampleSize (potência de 2) que ainda cobre o alvo nos dois lados. */
+    private static Bitmap decodeSampled(File file, int sizePx) {
+        synchronized (decodeBuffer) {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            bounds.inTempStorage = decodeBuffer;
+            BitmapFactory.decodeFile(file.getPath(), bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                return null;
+            }
+            int sample = 1;
+            while (bounds.outWidth / (sample * 2) >= sizePx && bounds.outHeight / (sample * 2) >= sizePx) {
+                sample *= 2;
+            }
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inSampleSize = sample;
+            opts.inTempStorage = decodeBuffer;
+            return BitmapFactory.decodeFile(file.getPath(), opts);
+        }
+    }
+
+    private static File diskFile(Context app, String url) {
+        return new File(new File(app.getCacheDir(), DIR), sha1(url));
+    }
+
+    private static Object lockFor(String url) {
+        return keyLocks.computeIfAbsent(url, k -> new Object());
+    }
+
+    private static void evictUrl(String url) {
+        String prefix = url + "@";
+        for (String key : memory.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                memory.remove(key);
+            }
+        }
+    }
+
+    private static String memoryKey(String url, int sizePx) {
+        return url + "@" + sizePx;
+    }
+
+    private static String sha1(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(s.hashCode());
+        }
+    }
+}
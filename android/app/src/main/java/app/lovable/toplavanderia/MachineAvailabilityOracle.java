@@ -0,0 +1,89 @@
+package app.lovable.toplavanderia;
+
+import android.util.Log;
+
+/**
+ * Disponibilidade de uma máquina antes de cobrar, sem travar o botão de confirmar.
+ *
+ * Responde na hora com a última leitura do {@link MachineStatusMonitor} quando ela é recente
+ * (até {@link #SNAPSHOT_MAX_AGE_MS}); senão consulta só aquela máquina
+ * (get_public_machine_status) numa thread própria. Se a RPC falhar, vale o status da grade —
+ * mesmo comportamento de antes, sem bloquear a venda por falta de rede.
+ */
+final class MachineAvailabilityOracle {
+    private static final String TAG = "MachineAvailability";
+
+    /** Duas janelas de polling: uma leitura perdida ainda é confiável. */
+    static final long SNAPSHOT_MAX_AGE_MS = 2L * Esp32TotemPolicy.STATUS_POLL_INTERVAL_MS;
+
+    static final String SOURCE_SNAPSHOT = "snapshot";
+    static final String SOURCE_RPC = "rpc";
+    static final String SOURCE_GRID = "grid";
+
+    interface Callback {
+        /**
+         * Chamado uma única vez: na thread de quem chamou {@link #check} (leitura recente) ou na
+         * thread da consulta. Quem mexe em UI usa runOnUiThread.
+         */
+        void onResult(Verdict verdict);
+    }
+
+    static final class Verdict {
+        final boolean available;
+        final String source;
+        /** computedStatus do monitor (available/running/offline/maintenance), ou null se veio da grade. */
+        final String computedStatus;
+
+        Verdict(boolean available, String source, String computedStatus) {
+            this.available = available;
+            this.source = source;
+            this.computedStatus = computedStatus;
+        }
+    }
+
+    private final MachineStatusMonitor monitor;
+
+    MachineAvailabilityOracle(MachineStatusMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * @param gridAvailable resultado da checagem local da grade (ESP online, esp32_id, ocupação otimista);
+     *                      false encerra na hora sem consultar nada.
+     */
+    void check(SupabaseHelper.Machine machine, boolean gridAvailable, Callback callback) {
+        if (machine == null || !gridAvailable) {
+            callback.onResult(new Verdict(false, SOURCE_GRID, null));
+            return;
+        }
+        boolean massage = "MASSAGEM".equals(machine.getType());
+        if (monitor != null && monitor.latestAgeMs() <= SNAPSHOT_MAX_AGE_MS) {
+            MachineStatusMonitor.MachineStatus st = monitor.findLatest(machine.getId());
+            if (st != null) {
+                callback.onResult(verdictFor(st, massage, SOURCE_SNAPSHOT));
+                return;
+            }
+        }
+        if (monitor == null) {
+            callback.onResult(new Verdict(true, SOURCE_GRID, null));
+            return;
+        }
+        new Thread(() -> {
+            Verdict verdict;
+            MachineStatusMonitor.MachineStatus st = monitor.fetchSingleStatus(machine.getId());
+            if (st != null) {
+                verdict = verdictFor(st, massage, SOURCE_RPC);
+            } else {
+                Log.w(TAG, "Sem status direto de " + machine.getName() + " — usando a grade");
+                verdict = new Verdict(true, SOURCE_GRID, null);
+            }
+            callback.onResult(verdict);
+        }, "machine-availability").start();
+    }
+
+    /** Poltrona aceita novo pagamento em uso (firmware soma o tempo); demais só livres. */
+    static Verdict verdictFor(MachineStatusMonitor.MachineStatus st, boolean massage, String source) {
+        boolean ok = st.esp32Online && (st.isAvailable() || (massage && st.isRunning()));
+        return new Verdict(ok, source, st.computedStatus);
+    }
+}
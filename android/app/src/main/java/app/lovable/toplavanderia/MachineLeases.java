@@ -0,0 +1,221 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reserva da máquina enquanto o cliente paga (acquire_machine_lease / release_machine_lease):
+ * outro totem da loja que tentar vender a mesma lavadora recebe {@link Result#DENIED} sem
+ * precisar recarregar a lista inteira.
+ *
+ * Reserva ao escolher a forma de pagamento, renova sozinha a cada {@link #RENEW_INTERVAL_MS}
+ * enquanto a maquininha está aberta (Cielo pode ficar minutos no PIX) e libera no fim do fluxo.
+ * Se o app morrer, a reserva expira no servidor em {@link #TTL_SECONDS}. Sem rede ou sem a RPC
+ * no servidor o resultado é {@link Result#UNKNOWN} e a venda segue como antes.
+ *
+ * Reservar, renovar e liberar rodam todos na mesma thread, na ordem em que foram pedidos: um
+ * release ainda na fila não apaga a reserva que um acquire posterior acabou de conseguir.
+ */
+final class MachineLeases {
+    private static final String TAG = "MachineLeases";
+    static final int TTL_SECONDS = 90;
+    private static final long RENEW_INTERVAL_MS = 30_000L;
+    /** Trava contra reserva eterna se algum caminho de saída não liberar. */
+    private static final long MAX_HOLD_MS = 15 * 60_000L;
+    private static final int RPC_TIMEOUT_MS = 4_000;
+    /** Acquire atrás de um release lento na fila: espera os dois, com folga. */
+    private static final long ACQUIRE_WAIT_MS = 4L * RPC_TIMEOUT_MS;
+
+    enum Result { GRANTED, DENIED, UNKNOWN }
+
+    private static final class Lease {
+        final String machineId;
+        final long acquiredAtElapsed;
+        volatile String transactionId;
+        final Runnable renew;
+
+        Lease(String machineId, long acquiredAtElapsed, Runnable renew) {
+            this.machineId = machineId;
+            this.acquiredAtElapsed = acquiredAtElapsed;
+            this.renew = renew;
+        }
+    }
+
+    private static final Map<String, Lease> held = new ConcurrentHashMap<>();
+    private static Handler handler;
+    private static String holder;
+
+    private MachineLeases() {
+    }
+
+    /** Reserva a máquina para este totem. Bloqueante (rede) — chamar fora da main thread. */
+    static Result acquire(Context context, String machineId) {
+        if (machineId == null || machineId.isEmpty()) {
+            return Result.UNKNOWN;
+        }
+        init(context);
+        final Result[] result = { Result.UNKNOWN };
+        final boolean[] abandoned = { false };
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(() -> {
+            Boolean granted = callAcquire(machineId, null);
+            synchronized (abandoned) {
+                if (abandoned[0]) {
+                    // Quem pediu já desistiu de esperar: não fica com a máquina presa.
+                    if (Boolean.TRUE.equals(granted) && !held.containsKey(machineId)) {
+                        callRelease(machineId);
+                    }
+                    return;
+                }
+                if (granted != null) {
+                    result[0] = granted ? Result.GRANTED : Result.DENIED;
+                }
+                if (Boolean.TRUE.equals(granted) && !held.containsKey(machineId)) {
+                    final Lease[] box = new Lease[1];
+                    box[0] = new Lease(machineId, SystemClock.elapsedRealtime(), () -> renew(box[0]));
+                    held.put(machineId, box[0]);
+                    handler.postDelayed(box[0].renew, RENEW_INTERVAL_MS);
+                }
+                done.countDown();
+            }
+        });
+        try {
+            if (done.await(ACQUIRE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                return result[0];
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (abandoned) {
+            if (done.getCount() == 0) {
+                return result[0];
+            }
+            abandoned[0] = true;
+        }
+        Log.w(TAG, "Reserva de " + machineId + " sem resposta em " + ACQUIRE_WAIT_MS + "ms");
+        return Result.UNKNOWN;
+    }
+
+    /** Liga a transação pending à reserva (aparece na tabela para o suporte). */
+    static void attachTransaction(String machineId, String transactionId) {
+        if (machineId == null || transactionId == null || transactionId.isEmpty() || handler == null) {
+            return;
+        }
+        handler.post(() -> {
+            Lease lease = held.get(machineId);
+            if (lease == null) {
+                return;
+            }
+            lease.transactionId = transactionId;
+            callAcquire(machineId, transactionId);
+        });
+    }
+
+    /** Libera a reserva desta máquina, se for deste totem. Não bloqueia. */
+    static void release(String machineId) {
+        if (machineId == null || handler == null) {
+            return;
+        }
+        handler.post(() -> releaseOnHandler(machineId));
+    }
+
+    /** O totem paga uma máquina por vez: fim de fluxo libera o que houver. */
+    static void releaseAll() {
+        if (handler == null) {
+            return;
+        }
+        handler.post(() -> {
+            for (String machineId : new ArrayList<>(held.keySet())) {
+                releaseOnHandler(machineId);
+            }
+        });
+    }
+
+    private static void releaseOnHandler(String machineId) {
+        Lease lease = held.remove(machineId);
+        if (lease == null) {
+            return;
+        }
+        handler.removeCallbacks(lease.renew);
+        callRelease(machineId);
+    }
+
+    private static void callRelease(String machineId) {
+        try {
+            JSONObject body = new JSONObject();
+            body.put("_machine_id", machineId);
+            body.put("_holder", holder);
+            SupabaseHelper.postRpc("release_machine_lease", body, RPC_TIMEOUT_MS);
+            Log.d(TAG, "Reserva liberada: " + machineId);
+        } catch (Exception e) {
+            Log.w(TAG, "Falha ao liberar reserva de " + machineId + " — expira sozinha", e);
+        }
+    }
+
+    private static void renew(Lease lease) {
+        if (held.get(lease.machineId) != lease) {
+            return;
+        }
+        if (SystemClock.elapsedRealtime() - lease.acquiredAtElapsed > MAX_HOLD_MS) {
+            Log.w(TAG, "Reserva de " + lease.machineId + " passou de " + MAX_HOLD_MS + "ms — deixando expirar");
+            held.remove(lease.machineId, lease);
+            return;
+        }
+        Boolean granted = callAcquire(lease.machineId, lease.transactionId);
+        if (Boolean.FALSE.equals(granted)) {
+            // Expirou e outro totem pegou: o pagamento em curso segue; o servidor é quem decide no relé.
+            Log.w(TAG, "Reserva de " + lease.machineId + " perdida para outro totem");
+            held.remove(lease.machineId, lease);
+            return;
+        }
+        handler.postDelayed(lease.renew, RENEW_INTERVAL_MS);
+    }
+
+    /** @return true concedida, false com outro dono, null sem resposta. */
+    private static Boolean callAcquire(String machineId, String transactionId) {
+        try {
+            JSONObject body = new JSONObject();
+            body.put("_machine_id", machineId);
+            body.put("_holder", holder);
+            body.put("_ttl_seconds", TTL_SECONDS);
+            if (transactionId != null) {
+                body.put("_transaction_id", transactionId);
+            }
+            String raw = SupabaseHelper.postRpc("acquire_machine_lease", body, RPC_TIMEOUT_MS);
+            if (raw == null) {
+                return null;
+            }
+            JSONObject res = new JSONObject(raw);
+            boolean granted = res.optBoolean("granted", false);
+            if (!granted) {
+                Log.i(TAG, "Máquina " + machineId + " reservada por " + res.optString("holder", "?")
+                    + " até " + res.optString("expires_at", "?"));
+            }
+            return granted;
+        } catch (Exception e) {
+            Log.w(TAG, "acquire_machine_lease falhou para " + machineId, e);
+            return null;
+        }
+    }
+
+    private static synchronized void init(Context context) {
+        if (handler != null) {
+            return;
+        }
+        holder = TotemPeerGroup.nodeId(context);
+        HandlerThread thread = new HandlerThread("machine-lease");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+}
@@ -2,11 +2,11 @@ package app.lovable.toplavanderia;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -20,6 +20,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * Polling alinhado ao web (machineEsp32Sync.computeMachineStatus): relé no ESP32 é a autoridade.
  * Usa RPCs publicas controladas para respeitar RLS no modo totem anonimo.
+ * Com mais de um totem na loja, só o líder de {@link TotemPeerGroup} consulta a nuvem; os demais
+ * aplicam as respostas que ele repassa pela LAN.
+ * Quando o Supabase volta de OFFLINE ({@link SupabaseConnectivity}), lê na hora em vez de esperar
+ * o próximo ciclo: a grade passou o tempo fora do ar com status velho.
  */
 public class MachineStatusMonitor {
     private static final String TAG = "MachineStatusMonitor";
@@ -33,8 +37,13 @@ public class MachineStatusMonitor {
     private Runnable pollRunnable;
     private SupabaseHelper supabaseHelper;
     private StatusUpdateListener listener;
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false;
     private final AtomicBoolean fetchInFlight = new AtomicBoolean(false);
+    /** Última leitura completa — base do {@link MachineAvailabilityOracle}. */
+    private volatile java.util.Map<String, MachineStatus> latestById = java.util.Collections.emptyMap();
+    private volatile long latestAtElapsed;
+    private volatile SupabaseConnectivity.State lastConnectivity = SupabaseConnectivity.state();
+    private final SupabaseConnectivity.Listener connectivityListener = this::onConnectivityChanged;
 
     public interface StatusUpdateListener {
         void onStatusUpdate(List<MachineStatus> statuses);
@@ -54,12 +63,15 @@ public class MachineStatusMonitor {
 
         isRunning = true;
         Log.d(TAG, "🔄 Iniciando monitoramento de status");
+        TotemPeerGroup.setSnapshotListener(this::onPeerSnapshot);
+        lastConnectivity = SupabaseConnectivity.state();
+        SupabaseConnectivity.addListener(connectivityListener);
 
         pollRunnable = new Runnable() {
             @Override
             public void run() {
                 if (!isRunning) return;
-                fetchMachineStatuses();
+                fetchMachineStatuses(false);
                 handler.postDelayed(this, Esp32TotemPolicy.STATUS_POLL_INTERVAL_MS);
             }
         };
@@ -68,21 +80,35 @@ public class MachineStatusMonitor {
     }
 
     /**
-     * Força uma leitura imediata (ex.: ao voltar do app Cielo). Ignora se já houver fetch em andamento.
+     * Força uma leitura imediata na nuvem (ex.: ao voltar do app Cielo), mesmo em totem seguidor.
+     * Ignora se já houver fetch em andamento.
      */
     public void requestImmediatePoll() {
-        fetchMachineStatuses();
+        fetchMachineStatuses(true);
     }
 
     public void stopMonitoring() {
         isRunning = false;
+        TotemPeerGroup.setSnapshotListener(null);
+        SupabaseConnectivity.removeListener(connectivityListener);
         if (pollRunnable != null) {
             handler.removeCallbacks(pollRunnable);
         }
         Log.d(TAG, "⏹️ Monitoramento de status parado");
     }
 
-    private void fetchMachineStatuses() {
+    private void onConnectivityChanged(SupabaseConnectivity.State state, long rttMs) {
+        SupabaseConnectivity.State prev = lastConnectivity;
+        lastConnectivity = state;
+        if (!isRunning || prev != SupabaseConnectivity.State.OFFLINE
+                || state == SupabaseConnectivity.State.OFFLINE) {
+            return;
+        }
+        Log.d(TAG, "Supabase de volta (" + state + ", rtt=" + rttMs + "ms) — leitura imediata");
+        handler.post(() -> fetchMachineStatuses(false));
+    }
+
+    private void fetchMachineStatuses(boolean force) {
         if (!fetchInFlight.compareAndSet(false, true)) {
             return;
         }
@@ -93,12 +119,16 @@ public class MachineStatusMonitor {
                     Log.w(TAG, "Lavanderia não configurada - pulando monitoramento");
                     return;
                 }
+                TotemPeerGroup.join(laundryId);
+                if (!force && !TotemPeerGroup.shouldPollCloud()) {
+                    return;
+                }
 
                 // Paralelizar RPCs — na maquininha Cielo a rede costuma ser lenta; sequencial dobrou o tempo.
                 final JSONArray[] machinesBox = new JSONArray[1];
                 final JSONArray[] esp32Box = new JSONArray[1];
                 Thread tMachines = new Thread(() -> machinesBox[0] = fetchPublicMachines(laundryId), "totem-machines-rpc");
-                Thread tEsp32 = new Thread(() -> esp32Box[0] = fetchEsp32StatusesForLaundry(laundryId), "totem-esp32-rpc");
+                Thread tEsp32 = new Thread(() -> esp32Box[0] = fetchEsp32ViaRpc(laundryId), "totem-esp32-rpc");
                 tMachines.start();
                 tEsp32.start();
                 tMachines.join(12_000);
@@ -111,54 +141,10 @@ public class MachineStatusMonitor {
                     Log.w(TAG, "Erro ao buscar máquinas");
                     return;
                 }
-
-                java.util.Map<String, JSONObject> esp32Map = new java.util.HashMap<>();
-                if (esp32Array != null) {
-                    for (int i = 0; i < esp32Array.length(); i++) {
-                        JSONObject esp32 = esp32Array.getJSONObject(i);
-                        esp32Map.put(esp32.getString("esp32_id"), esp32);
-                    }
-                }
-                Esp32TotemPolicy.retainHeartbeatAnchors(esp32Map.keySet());
-
-                List<MachineStatus> statuses = new ArrayList<>();
-                for (int i = 0; i < machinesArray.length(); i++) {
-                    JSONObject machine = machinesArray.getJSONObject(i);
-
-                    MachineStatus status = new MachineStatus();
-                    status.machineId = machine.getString("id");
-                    status.machineName = machine.getString("name");
-                    status.machineType = machine.getString("type");
-                    status.machineStatus = machine.optString("status", "available");
-                    status.machineUpdatedAt = machine.optString("updated_at", null);
-                    status.cycleTimeMinutes = machine.optInt("cycle_time_minutes", DEFAULT_CYCLE_MINUTES);
-                    if (status.cycleTimeMinutes <= 0) {
-                        status.cycleTimeMinutes = DEFAULT_CYCLE_MINUTES;
-                    }
-                    status.pricePerCycle = machine.optDouble("price_per_cycle", 0);
-                    status.capacityKg = machine.optDouble("capacity_kg", 0);
-                    status.esp32Id = machine.optString("esp32_id", "");
-                    status.relayPin = resolvedRelayPin(machine.optInt("relay_pin", 0));
-
-                    JSONObject esp32Status = esp32Map.get(status.esp32Id);
-                    if (esp32Status != null) {
-                        status.esp32Online = isEsp32Reachable(esp32Status);
-                        Object rs = esp32Status.opt("relay_status");
-                        status.relayStatus = rs instanceof JSONObject ? (JSONObject) rs : null;
-                        status.relayStatusRaw = rs instanceof String ? (String) rs : null;
-                    } else {
-                        status.esp32Online = false;
-                        status.relayStatus = null;
-                        status.relayStatusRaw = null;
-                    }
-
-                    status.computedStatus = computeMachineStatus(status);
-                    statuses.add(status);
-                }
-
-                if (listener != null) {
-                    handler.post(() -> listener.onStatusUpdate(statuses));
+                if (esp32Array != null && (esp32Array.length() > 0 || !hasBoards(machinesArray))) {
+                    TotemPeerGroup.publish(laundryId, machinesArray, esp32Array);
                 }
+                applySnapshot(machinesArray, esp32Array);
 
             } catch (Exception e) {
                 Log.e(TAG, "Erro ao buscar status", e);
@@ -168,39 +154,130 @@ public class MachineStatusMonitor {
         }).start();
     }
 
-    private JSONArray fetchEsp32StatusesForLaundry(String laundryId) {
+    private void onPeerSnapshot(String laundryId, JSONArray machines, JSONArray esp32) {
+        if (!isRunning || !laundryId.equals(supabaseHelper.getLaundryId())) {
+            return;
+        }
         try {
-            return fetchEsp32ViaRpc(laundryId);
+            applySnapshot(machines, esp32);
         } catch (Exception e) {
-            Log.e(TAG, "fetchEsp32StatusesForLaundry", e);
-            return fetchEsp32ViaRpc(laundryId);
+            Log.e(TAG, "Erro ao aplicar snapshot de outro totem", e);
         }
     }
 
-    private JSONArray fetchEsp32ViaRpc(String laundryId) {
+    /** Mesma regra para leitura própria e repassada: heartbeat e relé são avaliados aqui. */
+    private synchronized void applySnapshot(JSONArray machinesArray, JSONArray esp32Array)
+            throws org.json.JSONException {
+        java.util.Map<String, JSONObject> esp32Map = new java.util.HashMap<>();
+        if (esp32Array != null) {
+            for (int i = 0; i < esp32Array.length(); i++) {
+                JSONObject esp32 = esp32Array.getJSONObject(i);
+                esp32Map.put(esp32.getString("esp32_id"), esp32);
+                Esp32LanClient.learn(esp32.getString("esp32_id"), esp32.optString("ip_address", ""),
+                    Esp32LanClient.DEFAULT_PORT);
+            }
+        }
+        Esp32TotemPolicy.retainHeartbeatAnchors(esp32Map.keySet());
+
+        List<MachineStatus> statuses = new ArrayList<>();
+        for (int i = 0; i < machinesArray.length(); i++) {
+            JSONObject machine = machinesArray.getJSONObject(i);
+            statuses.add(buildStatus(machine, esp32Map.get(machine.optString("esp32_id", ""))));
+        }
+
+        java.util.Map<String, MachineStatus> byId = new java.util.HashMap<>();
+        for (MachineStatus st : statuses) {
+            byId.put(st.machineId, st);
+        }
+        latestById = java.util.Collections.unmodifiableMap(byId);
+        latestAtElapsed = SystemClock.elapsedRealtime();
+
+        if (listener != null) {
+            handler.post(() -> listener.onStatusUpdate(statuses));
+        }
+    }
+
+    /** get_esp32_heartbeats vazio só é leitura completa se nenhuma máquina tem placa. */
+    private static boolean hasBoards(JSONArray machinesArray) {
+        for (int i = 0; i < machinesArray.length(); i++) {
+            JSONObject m = machinesArray.optJSONObject(i);
+            if (m != null && !m.optString("esp32_id", "").isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private MachineStatus buildStatus(JSONObject machine, JSONObject esp32Status) throws org.json.JSONException {
+        MachineStatus status = new MachineStatus();
+        status.machineId = machine.getString("id");
+        status.machineName = machine.getString("name");
+        status.machineType = machine.getString("type");
+        status.machineStatus = machine.optString("status", "available");
+        status.machineUpdatedAt = machine.optString("updated_at", null);
+        status.cycleTimeMinutes = machine.optInt("cycle_time_minutes", DEFAULT_CYCLE_MINUTES);
+        if (status.cycleTimeMinutes <= 0) {
+            status.cycleTimeMinutes = DEFAULT_CYCLE_MINUTES;
+        }
+        status.pricePerCycle = machine.optDouble("price_per_cycle", 0);
+        status.capacityKg = machine.optDouble("capacity_kg", 0);
+        status.esp32Id = machine.optString("esp32_id", "");
+        status.relayPin = resolvedRelayPin(machine.optInt("relay_pin", 0));
+
+        if (esp32Status != null) {
+            status.esp32Online = isEsp32Reachable(esp32Status);
+            Object rs = esp32Status.opt("relay_status");
+            status.relayStatus = rs instanceof JSONObject ? (JSONObject) rs : null;
+            status.relayStatusRaw = rs instanceof String ? (String) rs : null;
+        } else {
+            status.esp32Online = false;
+            status.relayStatus = null;
+            status.relayStatusRaw = null;
+        }
+
+        status.computedStatus = computeMachineStatus(status);
+        return status;
+    }
+
+    /** Status da última leitura completa, ou null se a máquina não veio nela. */
+    public MachineStatus findLatest(String machineId) {
+        if (machineId == null) {
+            return null;
+        }
+        return latestById.get(machineId);
+    }
+
+    /** Idade (ms) da última leitura completa; Long.MAX_VALUE se ainda não houve nenhuma. */
+    public long latestAgeMs() {
+        long at = latestAtElapsed;
+        return at <= 0L ? Long.MAX_VALUE : SystemClock.elapsedRealtime() - at;
+    }
+
+    /**
+     * Leitura direta de uma máquina (RPC get_public_machine_status). Bloqueante — chamar fora da
+     * main thread. Retorna null se a RPC falhar ou a máquina não existir.
+     */
+    public MachineStatus fetchSingleStatus(String machineId) {
         HttpURLConnection connection = null;
         try {
-            URL url = new URL(SUPABASE_URL + "/rest/v1/rpc/get_esp32_heartbeats");
-            connection = SupabaseConfig.openConnection(url);
+            connection = SupabaseConfig.openConnection(SUPABASE_URL + "/rest/v1/rpc/get_public_machine_status");
             connection.setRequestMethod("POST");
             SupabaseConfig.applyJsonHeaders(connection);
             connection.setDoOutput(true);
-            connection.setConnectTimeout(6000);
-            connection.setReadTimeout(6000);
+            connection.setConnectTimeout(3000);
+            connection.setReadTimeout(3000);
 
             JSONObject body = new JSONObject();
-            body.put("_laundry_id", laundryId);
-
+            body.put("_machine_id", machineId);
             OutputStream os = connection.getOutputStream();
             os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
             os.close();
 
             int code = connection.getResponseCode();
             if (code != 200) {
-                Log.w(TAG, "RPC get_esp32_heartbeats HTTP " + code);
-                return new JSONArray();
+                Log.w(TAG, "RPC get_public_machine_status HTTP " + code);
+                return null;
             }
-
             BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
             StringBuilder response = new StringBuilder();
             String line;
@@ -208,10 +285,24 @@ public class MachineStatusMonitor {
                 response.append(line);
             }
             br.close();
-            return new JSONArray(response.toString());
+            JSONArray rows = new JSONArray(response.toString());
+            if (rows.length() == 0) {
+                return null;
+            }
+            JSONObject row = rows.getJSONObject(0);
+            JSONObject esp32 = null;
+            String esp32Id = row.optString("esp32_id", "");
+            if (!esp32Id.isEmpty() && !row.isNull("last_heartbeat")) {
+                esp32 = new JSONObject();
+                esp32.put("esp32_id", esp32Id);
+                esp32.put("is_online", row.optBoolean("esp32_is_online", false));
+                esp32.put("last_heartbeat", row.optString("last_heartbeat", ""));
+                esp32.put("relay_status", row.opt("relay_status"));
+            }
+            return buildStatus(row, esp32);
         } catch (Exception e) {
-            Log.e(TAG, "fetchEsp32ViaRpc", e);
-            return new JSONArray();
+            Log.e(TAG, "fetchSingleStatus", e);
+            return null;
         } finally {
             if (connection != null) {
                 connection.disconnect();
@@ -219,38 +310,29 @@ public class MachineStatusMonitor {
         }
     }
 
-    private JSONArray fetchPublicMachines(String laundryId) {
+    private JSONArray fetchEsp32ViaRpc(String laundryId) {
         try {
-            HttpURLConnection connection = SupabaseConfig.openConnection(SUPABASE_URL + "/rest/v1/rpc/get_public_machines");
-            connection.setRequestMethod("POST");
-            SupabaseConfig.applyJsonHeaders(connection);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-
             JSONObject body = new JSONObject();
             body.put("_laundry_id", laundryId);
-            OutputStream os = connection.getOutputStream();
-            os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            os.close();
-
-            int responseCode = connection.getResponseCode();
-
-            if (responseCode == 200) {
-                BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-                br.close();
-                connection.disconnect();
-                return new JSONArray(response.toString());
+            // Dividida com o SupabaseHelper (grade, confirmação do relé); retentativa no RpcGuard.
+            String raw = SingleFlightRpc.call("get_esp32_heartbeats", body, 6000);
+            if (raw == null) {
+                Log.w(TAG, "RPC get_esp32_heartbeats sem resposta");
+                return new JSONArray();
             }
+            return new JSONArray(raw);
+        } catch (Exception e) {
+            Log.e(TAG, "fetchEsp32ViaRpc", e);
+            return new JSONArray();
+        }
+    }
 
-            connection.disconnect();
-            return null;
-
+    private JSONArray fetchPublicMachines(String laundryId) {
+        try {
+            JSONObject body = new JSONObject();
+            body.put("_laundry_id", laundryId);
+            String raw = SingleFlightRpc.call("get_public_machines", body, 5000);
+            return raw == null ? null : new JSONArray(raw);
         } catch (Exception e) {
             Log.e(TAG, "Erro ao buscar maquinas publicas", e);
             return null;
@@ -0,0 +1,110 @@
+package app.lovable.toplavanderia;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Timeouts pela rede que a maquininha tem de fato, em vez de um número fixo por chamada.
+ *
+ * Cada resposta ok alimenta, por endpoint, um tempo médio suavizado e sua variação (mesma conta
+ * do RTO do TCP: média + 4·variação) e, por host, o tempo de conexão (TCP + TLS). Com amostras
+ * suficientes o timeout sai dessa estimativa, entre {@link #FLOOR_MS} e o dobro do valor da
+ * chamada: no Wi‑Fi bom uma rede morta é percebida em ~2s; no 4G lento a leitura ganha folga em
+ * vez de estourar à toa. Timeout também ensina: a estimativa sobe até o tempo que já se esperou.
+ */
+final class NetworkQuality {
+    private static final String TAG = "NetworkQuality";
+    static final String HOST_SUPABASE = "supabase";
+    static final String HOST_CIELO = "cielo";
+
+    private static final int FLOOR_MS = 2_000;
+    /** Conexão + TLS no 4G passa de 1s com folga só quando o link já está ruim. */
+    private static final int CONNECT_FLOOR_MS = 1_500;
+    private static final int CEILING_MAX_MS = 30_000;
+    /** Antes disso a estimativa é ruído; vale o timeout da chamada. */
+    private static final int MIN_SAMPLES = 3;
+
+    private static final class Estimate {
+        long srttMs = -1L;
+        long rttVarMs;
+        int samples;
+
+        void add(long ms) {
+            if (srttMs < 0L) {
+                srttMs = ms;
+                rttVarMs = ms / 2L;
+            } else {
+                rttVarMs = (3L * rttVarMs + Math.abs(srttMs - ms)) / 4L;
+                srttMs = (7L * srttMs + ms) / 8L;
+            }
+            samples++;
+        }
+
+        long rtoMs() {
+            return srttMs + 4L * Math.max(rttVarMs, 50L);
+        }
+    }
+
+    private static final Map<String, Estimate> byKey = new HashMap<>();
+
+    private NetworkQuality() {
+    }
+
+    /** Maior timeout que {@link #readTimeoutMs} pode devolver para este valor de chamada. */
+    static int ceilingMs(int fallbackMs) {
+        return Math.max(fallbackMs, Math.min(2 * fallbackMs, CEILING_MAX_MS));
+    }
+
+    /** Timeout de leitura do endpoint; {@code fallbackMs} é o valor fixo que a chamada usava. */
+    static synchronized int readTimeoutMs(String endpoint, int fallbackMs) {
+        Estimate e = byKey.get(endpoint);
+        if (e == null || e.samples < MIN_SAMPLES) {
+            return fallbackMs;
+        }
+        return (int) Math.max(FLOOR_MS, Math.min(ceilingMs(fallbackMs), e.rtoMs()));
+    }
+
+    /** Timeout de conexão no host, nunca acima de {@code capMs}. */
+    static synchronized int connectTimeoutMs(String host, int capMs) {
+        Estimate e = byKey.get("connect:" + host);
+        if (e == null || e.samples < MIN_SAMPLES) {
+            return capMs;
+        }
+        return (int) Math.max(Math.min(CONNECT_FLOOR_MS, capMs), Math.min(capMs, e.rtoMs()));
+    }
+
+    /**
+     * Resposta completa: {@code connectMs} até o pedido sair (TCP + TLS), {@code totalMs} até o
+     * fim do corpo.
+     */
+    static synchronized void recordSuccess(String host, String endpoint, long connectMs, long totalMs) {
+        estimate("connect:" + host).add(Math.max(0L, connectMs));
+        estimate(endpoint).add(Math.max(0L, totalMs));
+    }
+
+    /**
+     * Estourou {@code usedTimeoutMs} (na conexão, se {@code connecting}): a resposta levaria no
+     * mínimo isso.
+     */
+    static synchronized void recordTimeout(String host, String endpoint, boolean connecting, int usedTimeoutMs) {
+        String key = connecting ? "connect:" + host : endpoint;
+        Estimate e = estimate(key);
+        if (e.srttMs < usedTimeoutMs) {
+            e.rttVarMs = Math.max(e.rttVarMs, (usedTimeoutMs - Math.max(e.srttMs, 0L)) / 2L);
+            e.srttMs = usedTimeoutMs;
+            e.samples = Math.max(e.samples, MIN_SAMPLES);
+            Log.d(TAG, key + ": timeout em " + usedTimeoutMs + "ms — estimativa sobe");
+        }
+    }
+
+    private static Estimate estimate(String key) {
+        Estimate e = byKey.get(key);
+        if (e == null) {
+            e = new Estimate();
+            byKey.put(key, e);
+        }
+        return e;
+    }
+}
@@ -0,0 +1,273 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import br.com.setis.interfaceautomacao.DadosAutomacao;
+import br.com.setis.interfaceautomacao.Transacao;
+import br.com.setis.interfaceautomacao.Transacoes;
+import br.com.setis.interfaceautomacao.Versoes;
+
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * InterfaceAutomacao (PayGo/PPC930) do processo: o objeto de transação é criado no
+ * {@link TopLavanderiaApplication} numa thread própria, antes do primeiro cliente.
+ * Mantém o estado de saúde para o totem exibir e refaz a inicialização sozinho depois de
+ * QuedaConexaoTerminalExcecao.
+ *
+ * A sondagem no boot é só obtemVersoes (PayGo Integrado instalado): TESTE_COMUNICACAO abre a
+ * tela do PayGo e não pode rodar sem ninguém no totem. A conexão com a PPC930 é confirmada
+ * pelas próprias transações.
+ */
+final class PayGoStack {
+    private static final String TAG = "PayGoStack";
+    private static final String PREFS = "paygo_stack";
+    private static final String KEY_LAST_PROVIDER = "last_provider";
+
+    /** Reinicialização após queda: 5s, 15s, 45s... até 5 min. */
+    private static final long REINIT_BASE_MS = 5_000L;
+    private static final long REINIT_MAX_MS = 5 * 60_000L;
+    private static final long NOT_INSTALLED_RETRY_MS = 60_000L;
+
+    enum Health {
+        IDLE, INITIALIZING, READY, NOT_INSTALLED, CONNECTION_LOST, FAILED
+    }
+
+    interface HealthListener {
+        /** Chamado na thread do PayGoStack; UI usa runOnUiThread. */
+        void onHealthChanged(Health health, String detail);
+    }
+
+    private static final Object LOCK = new Object();
+    /** Uma inicialização por vez: warm-up e primeiro pagamento compartilham a mesma. */
+    private static final Object INIT_LOCK = new Object();
+    private static final CopyOnWriteArrayList<HealthListener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile Health health = Health.IDLE;
+    private static volatile String detail = "";
+    private static volatile long healthChangedAt;
+    private static Transacao transacao;
+    private static Context appContext;
+    private static Handler handler;
+    private static int consecutiveFailures;
+    private static final Runnable REINIT = PayGoStack::initializeNow;
+
+    private PayGoStack() {
+    }
+
+    /**
+     * Boot do app: pré-inicializa só se este terminal usou PayGo da última vez (ou nunca
+     * resolveu provedor e não é Cielo Smart — lá o PayGo nem está instalado).
+     */
+    static void warmUpIfPayGo(Context context) {
+        Context app = context.getApplicationContext();
+        String last = prefs(app).getString(KEY_LAST_PROVIDER, "");
+        boolean payGo = last.isEmpty()
+            ? !PaymentProviderRegistry.isCieloSmartTerminal()
+            : PaymentProviderRegistry.PAYGO.equals(last);
+        if (!payGo) {
+            Log.d(TAG, "Pré-inicialização PayGo ignorada (provedor=" + (last.isEmpty() ? "cielo-terminal" : last) + ")");
+            return;
+        }
+        warmUpAsync(app);
+    }
+
+    /** Guarda o provedor resolvido pelo totem para o próximo boot. */
+    static void rememberProvider(Context context, String providerId) {
+        if (context == null || providerId == null) {
+            return;
+        }
+        SharedPreferences p = prefs(context.getApplicationContext());
+        if (!providerId.equals(p.getString(KEY_LAST_PROVIDER, ""))) {
+            p.edit().putString(KEY_LAST_PROVIDER, providerId).apply();
+        }
+    }
+
+    static void warmUpAsync(Context context) {
+        synchronized (LOCK) {
+            appContext = context.getApplicationContext();
+            if (transacao != null || health == Health.INITIALIZING) {
+                return;
+            }
+        }
+        handler().post(PayGoStack::initializeNow);
+    }
+
+    /**
+     * Transação pronta, inicializando agora se o warm-up ainda não rodou. Bloqueante —
+     * chamar fora da main thread. Null se o PayGo não pôde ser carregado.
+     */
+    static Transacao obtain(Context context) {
+        synchronized (LOCK) {
+            if (appContext == null) {
+                appContext = context.getApplicationContext();
+            }
+            if (transacao != null) {
+                return transacao;
+            }
+        }
+        // Sem PayGo instalado a resposta não muda a cada clique; tenta de novo só depois de um tempo.
+        if (health == Health.NOT_INSTALLED && healthAgeMs() >= 0 && healthAgeMs() < NOT_INSTALLED_RETRY_MS) {
+            return null;
+        }
+        initializeNow();
+        synchronized (LOCK) {
+            return transacao;
+        }
+    }
+
+    static Health health() {
+        return health;
+    }
+
+    static String healthDetail() {
+        return detail;
+    }
+
+    static long healthAgeMs() {
+        long at = healthChangedAt;
+        return at == 0L ? -1L : SystemClock.elapsedRealtime() - at;
+    }
+
+    static void addListener(HealthListener listener) {
+        if (listener != null) {
+            LISTENERS.addIfAbsent(listener);
+        }
+    }
+
+    static void removeListener(HealthListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /** Transação chegou à PPC930 (aprovada ou negada): conexão está ok. */
+    static void reportTerminalReachable() {
+        synchronized (LOCK) {
+            consecutiveFailures = 0;
+        }
+        if (health != Health.READY) {
+            setHealth(Health.READY, "PPC930 respondeu");
+        }
+    }
+
+    /** QuedaConexaoTerminalExcecao: descarta a instância e agenda nova inicialização. */
+    static void reportConnectionLost(String message) {
+        long delay;
+        synchronized (LOCK) {
+            transacao = null;
+            consecutiveFailures++;
+            delay = Math.min(REINIT_MAX_MS, REINIT_BASE_MS * pow3(consecutiveFailures - 1));
+        }
+        setHealth(Health.CONNECTION_LOST, message == null ? "" : message);
+        Handler h = handler();
+        h.removeCallbacks(REINIT);
+        h.postDelayed(REINIT, delay);
+        Log.w(TAG, "Queda de conexão com PPC930 — reinicializando em " + delay + "ms");
+    }
+
+    static void reportNotInstalled() {
+        synchronized (LOCK) {
+            transacao = null;
+        }
+        setHealth(Health.NOT_INSTALLED, "PayGo Integrado não instalado");
+    }
+
+    private static void initializeNow() {
+        synchronized (INIT_LOCK) {
+            initializeLocked();
+        }
+    }
+
+    private static void initializeLocked() {
+        Context app;
+        synchronized (LOCK) {
+            if (transacao != null || appContext == null) {
+                return;
+            }
+            app = appContext;
+        }
+        setHealth(Health.INITIALIZING, "");
+        long t0 = SystemClock.elapsedRealtime();
+        try {
+            DadosAutomacao dadosAutomacao = new DadosAutomacao(
+                    "Top Lavanderia",
+                    "1.0",
+                    "Lovable",
+                    false,
+                    false,
+                    false,
+                    false,
+                    false,
+                    null
+            );
+            Transacoes instance = Transacoes.obtemInstancia(dadosAutomacao, app);
+            Map<String, String> apks = probeInstalledApks(instance);
+            if (apks != null && apks.isEmpty()) {
+                reportNotInstalled();
+                return;
+            }
+            synchronized (LOCK) {
+                transacao = instance;
+            }
+            Log.d(TAG, "PayGo inicializado em " + (SystemClock.elapsedRealtime() - t0) + "ms apks=" + apks);
+            setHealth(Health.READY, apks == null ? "" : String.valueOf(apks.values()));
+        } catch (Throwable t) {
+            Log.e(TAG, "Falha ao inicializar PayGo", t);
+            synchronized (LOCK) {
+                transacao = null;
+            }
+            setHealth(Health.FAILED, t.getClass().getSimpleName());
+        }
+    }
+
+    /** Versões dos APKs PayGo instalados; null se a consulta falhar (não bloqueia a inicialização). */
+    private static Map<String, String> probeInstalledApks(Transacoes instance) {
+        try {
+            Versoes versoes = instance.obtemVersoes();
+            return versoes == null ? null : versoes.obtemVersaoApk();
+        } catch (Throwable t) {
+            Log.w(TAG, "obtemVersoes falhou", t);
+            return null;
+        }
+    }
+
+    private static void setHealth(Health next, String nextDetail) {
+        health = next;
+        detail = nextDetail == null ? "" : nextDetail;
+        healthChangedAt = SystemClock.elapsedRealtime();
+        for (HealthListener l : LISTENERS) {
+            try {
+                l.onHealthChanged(next, detail);
+            } catch (Throwable t) {
+                Log.w(TAG, "Listener de saúde falhou", t);
+            }
+        }
+    }
+
+    private static long pow3(int n) {
+        long v = 1L;
+        for (int i = 0; i < n && v < REINIT_MAX_MS; i++) {
+            v *= 3L;
+        }
+        return v;
+    }
+
+    private static Handler handler() {
+        synchronized (LOCK) {
+            if (handler == null) {
+                HandlerThread thread = new HandlerThread("paygo-stack");
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+            return handler;
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+}
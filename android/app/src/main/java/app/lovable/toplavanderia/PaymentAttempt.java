@@ -0,0 +1,92 @@
+package app.lovable.toplavanderia;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Uma tentativa de pagamento vista de fora do provedor: um {@link CompletableFuture} que
+ * completa no primeiro sucesso/erro e os tempos de cada etapa (chamada → enviado ao provedor
+ * → primeiro "processando" → resultado), iguais para Cielo e PayGo.
+ */
+final class PaymentAttempt {
+    static final class Outcome {
+        final boolean success;
+        final String authorizationCode;
+        final String transactionId;
+        final String error;
+
+        private Outcome(boolean success, String authorizationCode, String transactionId, String error) {
+            this.success = success;
+            this.authorizationCode = authorizationCode;
+            this.transactionId = transactionId;
+            this.error = error;
+        }
+
+        static Outcome success(String authorizationCode, String transactionId) {
+            return new Outcome(true, authorizationCode, transactionId, null);
+        }
+
+        static Outcome error(String error) {
+            return new Outcome(false, null, null, error);
+        }
+    }
+
+    final String providerId;
+    final String reference;
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private volatile long launchedAt;
+    private volatile long firstProcessingAt;
+    private volatile long finishedAt;
+    private final CompletableFuture<Outcome> future = new CompletableFuture<>();
+
+    PaymentAttempt(String providerId, String reference) {
+        this.providerId = providerId;
+        this.reference = reference;
+    }
+
+    CompletableFuture<Outcome> future() {
+        return future;
+    }
+
+    boolean isDone() {
+        return future.isDone();
+    }
+
+    /** processPayment do manager retornou (Cielo: deep link disparado; PayGo: thread iniciada). */
+    void markLaunched() {
+        if (launchedAt == 0L) {
+            launchedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    void markProcessing() {
+        if (firstProcessingAt == 0L) {
+            firstProcessingAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /** @return false se a tentativa já tinha resultado (callback tardio/duplicado). */
+    boolean complete(Outcome outcome) {
+        if (future.isDone()) {
+            return false;
+        }
+        finishedAt = SystemClock.elapsedRealtime();
+        return future.complete(outcome);
+    }
+
+    long totalMs() {
+        return finishedAt == 0L ? -1L : finishedAt - startedAt;
+    }
+
+    String timingSummary() {
+        return providerId + " ref=" + reference
+            + " envio=" + since(launchedAt) + "ms"
+            + " processando=" + since(firstProcessingAt) + "ms"
+            + " resultado=" + since(finishedAt) + "ms";
+    }
+
+    private long since(long at) {
+        return at == 0L ? -1L : at - startedAt;
+    }
+}
@@ -0,0 +1,62 @@
+package app.lovable.toplavanderia;
+
+import android.util.Log;
+
+/**
+ * {@link PaymentCallback} registrado no manager ativo: repassa tudo ao callback do totem e
+ * alimenta a {@link PaymentAttempt} corrente (future + tempos por etapa).
+ */
+final class PaymentAttemptTracker implements PaymentCallback {
+    private static final String TAG = "PaymentAttempt";
+
+    private final PaymentCallback delegate;
+    private volatile PaymentAttempt current;
+
+    PaymentAttemptTracker(PaymentCallback delegate) {
+        this.delegate = delegate;
+    }
+
+    /** Nova tentativa; a anterior sem resultado é encerrada como substituída. */
+    PaymentAttempt begin(String providerId, String reference) {
+        PaymentAttempt previous = current;
+        if (previous != null && !previous.isDone()) {
+            previous.complete(PaymentAttempt.Outcome.error("substituída por nova tentativa"));
+        }
+        PaymentAttempt attempt = new PaymentAttempt(providerId, reference);
+        attempt.future().whenComplete((outcome, err) ->
+            Log.i(TAG, (outcome != null && outcome.success ? "Aprovado " : "Encerrado ") + attempt.timingSummary()));
+        current = attempt;
+        return attempt;
+    }
+
+    PaymentAttempt current() {
+        return current;
+    }
+
+    @Override
+    public void onPaymentSuccess(String authorizationCode, String transactionId) {
+        PaymentAttempt attempt = current;
+        if (attempt != null) {
+            attempt.complete(PaymentAttempt.Outcome.success(authorizationCode, transactionId));
+        }
+        delegate.onPaymentSuccess(authorizationCode, transactionId);
+    }
+
+    @Override
+    public void onPaymentError(String error) {
+        PaymentAttempt attempt = current;
+        if (attempt != null) {
+            attempt.complete(PaymentAttempt.Outcome.error(error));
+        }
+        delegate.onPaymentError(error);
+    }
+
+    @Override
+    public void onPaymentProcessing(String message) {
+        PaymentAttempt attempt = current;
+        if (attempt != null) {
+            attempt.markProcessing();
+        }
+        delegate.onPaymentProcessing(message);
+    }
+}
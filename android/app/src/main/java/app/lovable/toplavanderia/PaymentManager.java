@@ -11,4 +11,8 @@ public interface PaymentManager {
     void cancelPayment();
     boolean isProcessing();
     boolean isInitialized();
+
+    /** Inicialização pesada do SDK, chamada fora da main thread antes do primeiro pagamento. */
+    default void warmUp() {
+    }
 }
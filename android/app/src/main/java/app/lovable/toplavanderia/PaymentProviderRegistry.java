@@ -0,0 +1,148 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Provedores de pagamento do totem e o que cada um sabe fazer.
+ *
+ * O TotemActivity escolhe o provedor pelo id configurado no painel (paygo_provedor) e consulta
+ * as capacidades aqui, em vez de espalhar if/else por provedor. Só entram implementações de
+ * {@link PaymentManager}; os *PinpadManager antigos não são usados pelo totem.
+ */
+final class PaymentProviderRegistry {
+    private static final String TAG = "PaymentProviders";
+
+    static final String CIELO = "cielo";
+    static final String PAYGO = "paygo";
+
+    static final int CAP_CREDIT = 1;
+    static final int CAP_DEBIT = 1 << 1;
+    static final int CAP_PIX = 1 << 2;
+    /** Estorno automático pelo próprio provedor (ex.: ESP32 não ligou após aprovar). */
+    static final int CAP_REFUND = 1 << 3;
+    /** Resultado chega fora do processo (deep link/broadcast), não na thread do pagamento. */
+    static final int CAP_ASYNC_CALLBACK = 1 << 4;
+
+    interface Factory {
+        PaymentManager create(Context context);
+    }
+
+    static final class Provider {
+        final String id;
+        final String label;
+        final int capabilities;
+        private final Factory factory;
+
+        Provider(String id, String label, int capabilities, Factory factory) {
+            this.id = id;
+            this.label = label;
+            this.capabilities = capabilities;
+            this.factory = factory;
+        }
+
+        boolean supports(int capability) {
+            return (capabilities & capability) == capability;
+        }
+
+        /** paymentType do {@link PaymentManager}: credit, debit/debito, pix. */
+        boolean supportsPaymentType(String paymentType) {
+            return supports(capabilityFor(paymentType));
+        }
+
+        PaymentManager create(Context context) {
+            return factory.create(context);
+        }
+    }
+
+    private static final Map<String, Provider> PROVIDERS = new LinkedHashMap<>();
+
+    static {
+        register(new Provider(CIELO, "Cielo LIO",
+            CAP_CREDIT | CAP_DEBIT | CAP_PIX | CAP_REFUND | CAP_ASYNC_CALLBACK,
+            CieloLioManager::new));
+        register(new Provider(PAYGO, "PayGo PPC930",
+            CAP_CREDIT | CAP_DEBIT | CAP_PIX,
+            RealPayGoManager::new));
+    }
+
+    private PaymentProviderRegistry() {
+    }
+
+    private static void register(Provider provider) {
+        PROVIDERS.put(provider.id, provider);
+    }
+
+    static Collection<Provider> all() {
+        return Collections.unmodifiableCollection(PROVIDERS.values());
+    }
+
+    /** Provedor pelo id; null se desconhecido. */
+    static Provider find(String id) {
+        if (id == null) {
+            return null;
+        }
+        return PROVIDERS.get(id.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Provedor efetivo: terminal Cielo Smart sempre usa Cielo (PayGo nem carrega);
+     * id desconhecido cai no PayGo, como antes.
+     */
+    static Provider resolve(String configuredId, boolean cieloSmartTerminal) {
+        if (cieloSmartTerminal) {
+            return PROVIDERS.get(CIELO);
+        }
+        Provider p = find(configuredId);
+        return p != null ? p : PROVIDERS.get(PAYGO);
+    }
+
+    /** Cielo Smart (DX8000/L300/L400): só Cielo LIO, sem PayGo instalado. */
+    static boolean isCieloSmartTerminal() {
+        String model = Build.MODEL == null ? "" : Build.MODEL.toUpperCase(Locale.US);
+        String manufacturer = Build.MANUFACTURER == null ? "" : Build.MANUFACTURER.toUpperCase(Locale.US);
+        return model.contains("DX8000")
+                || model.contains("L300")
+                || model.contains("L400")
+                || manufacturer.contains("CIELO");
+    }
+
+    static int capabilityFor(String paymentType) {
+        String t = paymentType == null ? "" : paymentType.trim().toLowerCase(Locale.ROOT);
+        if ("pix".equals(t)) {
+            return CAP_PIX;
+        }
+        if ("debit".equals(t) || "debito".equals(t)) {
+            return CAP_DEBIT;
+        }
+        return CAP_CREDIT;
+    }
+
+    /**
+     * Inicializa o manager fora da main thread, para o primeiro pagamento não pagar a
+     * inicialização do SDK (ex.: Transacoes.obtemInstancia do PayGo).
+     */
+    static void warmUpAsync(Provider provider, PaymentManager manager) {
+        if (provider == null || manager == null) {
+            return;
+        }
+        new Thread(() -> {
+            long t0 = SystemClock.elapsedRealtime();
+            try {
+                manager.warmUp();
+                Log.d(TAG, provider.label + " pronto em " + (SystemClock.elapsedRealtime() - t0)
+                    + "ms (inicializado=" + manager.isInitialized() + ")");
+            } catch (Throwable t) {
+                Log.w(TAG, "Falha ao pré-inicializar " + provider.label, t);
+            }
+        }, "payment-warmup-" + provider.id).start();
+    }
+}
@@ -6,14 +6,12 @@ import android.os.Handler;
 import android.os.Looper;
 
 import br.com.setis.interfaceautomacao.Cartoes;
-import br.com.setis.interfaceautomacao.DadosAutomacao;
 import br.com.setis.interfaceautomacao.EntradaTransacao;
 import br.com.setis.interfaceautomacao.Financiamentos;
 import br.com.setis.interfaceautomacao.ModalidadesPagamento;
 import br.com.setis.interfaceautomacao.Operacoes;
 import br.com.setis.interfaceautomacao.SaidaTransacao;
 import br.com.setis.interfaceautomacao.Transacao;
-import br.com.setis.interfaceautomacao.Transacoes;
 import br.com.setis.interfaceautomacao.AplicacaoNaoInstaladaExcecao;
 import br.com.setis.interfaceautomacao.QuedaConexaoTerminalExcecao;
 import br.com.setis.interfaceautomacao.Confirmacoes;
@@ -34,7 +32,6 @@ public class RealPayGoManager implements PaymentManager {
     private boolean isProcessing;
     private Transacao transacao;
     private boolean isInitialized;
-    private DadosAutomacao dadosAutomacao;
 
     /**
      * @deprecated Use {@link PaymentCallback} instead. Kept for backward compatibility.
@@ -63,39 +60,20 @@ public class RealPayGoManager implements PaymentManager {
         return isInitialized;
     }
 
+    @Override
+    public void warmUp() {
+        ensureInitialized();
+    }
+
     private synchronized void ensureInitialized() {
-        if (isInitialized || initializationFailed) {
+        if (isInitialized && transacao != null) {
             return;
         }
-        initializePayGo();
-    }
-
-    private boolean initializationFailed;
-
-    private void initializePayGo() {
-        try {
-            Log.d(TAG, "=== INITIALIZING PAYGO (InterfaceAutomacao) ===");
-
-            dadosAutomacao = new DadosAutomacao(
-                    "Top Lavanderia",
-                    "1.0",
-                    "Lovable",
-                    false,
-                    false,
-                    false,
-                    false,
-                    false,
-                    null
-            );
-
-            transacao = Transacoes.obtemInstancia(dadosAutomacao, context);
-            isInitialized = true;
+        // Instância compartilhada do processo (pré-inicializada no boot pelo PayGoStack).
+        transacao = PayGoStack.obtain(context);
+        isInitialized = transacao != null;
+        if (isInitialized) {
             Log.d(TAG, "PayGo initialized – PPC930 communication active");
-
-        } catch (Throwable t) {
-            Log.e(TAG, "Failed to initialize PayGo", t);
-            isInitialized = false;
-            initializationFailed = true;
         }
     }
 
@@ -171,16 +149,22 @@ public class RealPayGoManager implements PaymentManager {
 
             Log.d(TAG, "Executing transacao.realizaTransacao()");
             SaidaTransacao resultado = transacao.realizaTransacao(entrada);
+            PayGoStack.reportTerminalReachable();
 
             processResult(resultado);
 
         } catch (AplicacaoNaoInstaladaExcecao e) {
             Log.e(TAG, "PayGo Integrado not installed", e);
             isProcessing = false;
+            dropTransaction();
+            PayGoStack.reportNotInstalled();
             if (callback != null) callback.onPaymentError("PayGo Integrado não está instalado.");
         } catch (QuedaConexaoTerminalExcecao e) {
             Log.e(TAG, "Connection lost with PPC930", e);
             isProcessing = false;
+            // Instância fica inválida após a queda; o PayGoStack recria em segundo plano.
+            dropTransaction();
+            PayGoStack.reportConnectionLost(e.getMessage());
             if (callback != null) callback.onPaymentError("Queda de conexão com PPC930: " + e.getMessage());
         } catch (Exception e) {
             Log.e(TAG, "Unexpected payment error", e);
@@ -189,6 +173,11 @@ public class RealPayGoManager implements PaymentManager {
         }
     }
 
+    private synchronized void dropTransaction() {
+        transacao = null;
+        isInitialized = false;
+    }
+
     private void processResult(SaidaTransacao resultado) {
         try {
             int resultCode = resultado.obtemResultadoTransacao();
@@ -0,0 +1,231 @@
+package app.lovable.toplavanderia;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Política única de falha para as RPCs do Supabase (toda chamada passa por
+ * {@link SupabaseHelper#postRpc}):
+ *
+ * - Disjuntor por RPC: {@link #FAILURES_TO_OPEN} falhas de rede/5xx seguidas abrem por
+ *   {@link #OPEN_MS}; nesse intervalo a chamada volta null na hora, sem esperar timeout no 4G.
+ *   Depois deixa passar uma sonda; sucesso fecha, falha reabre.
+ * - Orçamento de retentativas (balde de fichas): cada retentativa ou requisição duplicada gasta
+ *   uma ficha e cada sucesso devolve {@link #BUDGET_PER_SUCCESS}. Com a rede caída as
+ *   retentativas acabam em vez de multiplicar a carga.
+ * - {@link #read}: leitura idempotente com backoff exponencial com jitter, prazo absoluto e, se
+ *   pedido, uma cópia da requisição quando a primeira demora mais que {@link #HEDGE_DELAY_MS}
+ *   (fica com a que responder primeiro).
+ *
+ * Escritas (commit_totem_payment, leases...) passam só pelo disjuntor: não são repetidas aqui.
+ */
+final class RpcGuard {
+    private static final String TAG = "RpcGuard";
+    /** Status de {@link SupabaseHelper#postRpc} quando o disjuntor recusou a chamada. */
+    static final int REJECTED = -2;
+
+    private static final int FAILURES_TO_OPEN = 5;
+    private static final long OPEN_MS = 15_000L;
+    private static final double BUDGET_MAX = 10.0;
+    private static final double BUDGET_PER_SUCCESS = 0.2;
+    private static final int READ_ATTEMPTS = 3;
+    private static final long BACKOFF_BASE_MS = 400L;
+    private static final long BACKOFF_CAP_MS = 4_000L;
+    /** Acima do normal de uma RPC pequena no Wi‑Fi da loja; abaixo do que o 4G leva quando engasga. */
+    static final long HEDGE_DELAY_MS = 1_200L;
+
+    private static final class Breaker {
+        int failures;
+        long openUntilElapsed;
+        boolean probing;
+    }
+
+    private static final Map<String, Breaker> breakers = new HashMap<>();
+    private static double budget = BUDGET_MAX;
+
+    private RpcGuard() {
+    }
+
+    /** Rede, timeout, 408/429 e 5xx valem nova tentativa; 4xx é resposta definitiva. */
+    static boolean isRetryable(int httpCode) {
+        return httpCode == -1 || httpCode == 408 || httpCode == 429 || httpCode >= 500;
+    }
+
+    /** False com o disjuntor aberto (ou meio-aberto com a sonda já em curso). */
+    static boolean allow(String function) {
+        synchronized (breakers) {
+            Breaker b = breakers.get(function);
+            if (b == null || b.openUntilElapsed == 0L) {
+                return true;
+            }
+            if (SystemClock.elapsedRealtime() < b.openUntilElapsed || b.probing) {
+                return false;
+            }
+            b.probing = true;
+            return true;
+        }
+    }
+
+    static void record(String function, boolean ok) {
+        if (ok) {
+            synchronized (RpcGuard.class) {
+                budget = Math.min(BUDGET_MAX, budget + BUDGET_PER_SUCCESS);
+            }
+        }
+        synchronized (breakers) {
+            Breaker b = breakers.get(function);
+            if (b == null) {
+                if (ok) {
+                    return;
+                }
+                b = new Breaker();
+                breakers.put(function, b);
+            }
+            boolean wasOpen = b.openUntilElapsed != 0L;
+            b.probing = false;
+            if (ok) {
+                b.failures = 0;
+                b.openUntilElapsed = 0L;
+                if (wasOpen) {
+                    Log.i(TAG, function + ": disjuntor fechado");
+                }
+                return;
+            }
+            b.failures++;
+            if (wasOpen || b.failures >= FAILURES_TO_OPEN) {
+                b.openUntilElapsed = SystemClock.elapsedRealtime() + OPEN_MS;
+                Log.w(TAG, function + ": disjuntor aberto por " + OPEN_MS + "ms após " + b.failures + " falha(s)");
+            }
+        }
+    }
+
+    /** Gasta uma ficha de retentativa; false = orçamento esgotado, desistir. */
+    static synchronized boolean takeRetryToken() {
+        if (budget < 1.0) {
+            return false;
+        }
+        budget -= 1.0;
+        return true;
+    }
+
+    /** Espera antes da tentativa {@code attempt + 1}: sorteio em [0, min(teto, base·2^attempt)]. */
+    static long backoffMs(int attempt) {
+        long ceiling = Math.min(BACKOFF_CAP_MS, BACKOFF_BASE_MS << Math.min(attempt, 10));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /** Pior caso de {@link #read} sem prazo, para quem espera o resultado de outra thread. */
+    static long worstCaseMs(int timeoutMs) {
+        // Conexão + leitura por tentativa, mais o backoff entre elas.
+        return READ_ATTEMPTS * 2L * NetworkQuality.ceilingMs(timeoutMs) + (READ_ATTEMPTS - 1) * BACKOFF_CAP_MS;
+    }
+
+    /**
+     * Leitura idempotente com retentativa. {@code timeoutMs} é a base do {@link NetworkQuality};
+     * {@code deadlineElapsed} (SystemClock.elapsedRealtime, 0 = sem prazo) limita o timeout de
+     * cada tentativa e o backoff. Bloqueante; null se falhar.
+     */
+    static String read(String function, JSONObject body, int timeoutMs, long deadlineElapsed, boolean hedge) {
+        for (int attempt = 0; ; attempt++) {
+            // Recalculado a cada tentativa: um timeout já ensinou o NetworkQuality a esperar mais.
+            int t = NetworkQuality.readTimeoutMs(function, timeoutMs);
+            if (deadlineElapsed > 0L) {
+                long left = deadlineElapsed - SystemClock.elapsedRealtime();
+                if (left <= 0L) {
+                    return null;
+                }
+                t = (int) Math.min(t, left);
+            }
+            int[] status = new int[] { -1 };
+            String res = hedge ? hedged(function, body, t, status) : once(function, body, t, status);
+            if (res != null) {
+                return res;
+            }
+            if (!isRetryable(status[0]) || attempt + 1 >= READ_ATTEMPTS) {
+                return null;
+            }
+            if (!takeRetryToken()) {
+                Log.w(TAG, function + ": orçamento de retentativas esgotado");
+                return null;
+            }
+            long wait = backoffMs(attempt);
+            if (deadlineElapsed > 0L && SystemClock.elapsedRealtime() + wait >= deadlineElapsed) {
+                return null;
+            }
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private static String once(String function, JSONObject body, int timeoutMs, int[] status) {
+        try {
+            return SupabaseHelper.postRpc(function, body, timeoutMs, status);
+        } catch (Exception e) {
+            Log.w(TAG, function + ": " + e.getMessage());
+            status[0] = -1;
+            return null;
+        }
+    }
+
+    /** Primeira resposta 200 entre a original e, se ela demorar, uma cópia. */
+    private static String hedged(String function, JSONObject body, int timeoutMs, int[] status) {
+        final Object lock = new Object();
+        final String[] result = new String[1];
+        final int[] lastStatus = new int[] { -1 };
+        final int[] finished = new int[1];
+        Runnable call = () -> {
+            int[] st = new int[] { -1 };
+            String r = once(function, body, timeoutMs, st);
+            synchronized (lock) {
+                if (r != null && result[0] == null) {
+                    result[0] = r;
+                }
+                if (r == null) {
+                    lastStatus[0] = st[0];
+                }
+                finished[0]++;
+                lock.notifyAll();
+            }
+        };
+        int launched = 1;
+        boolean hedgeDecided = false;
+        new Thread(call, "rpc-" + function).start();
+        long start = SystemClock.elapsedRealtime();
+        long waitUntil = start + 2L * timeoutMs;
+        synchronized (lock) {
+            try {
+                while (result[0] == null && finished[0] < launched) {
+                    long now = SystemClock.elapsedRealtime();
+                    if (now >= waitUntil) {
+                        break;
+                    }
+                    if (!hedgeDecided && now - start >= HEDGE_DELAY_MS) {
+                        hedgeDecided = true;
+                        if (timeoutMs > HEDGE_DELAY_MS && takeRetryToken()) {
+                            Log.d(TAG, function + ": sem resposta em " + HEDGE_DELAY_MS + "ms — requisição duplicada");
+                            new Thread(call, "rpc-" + function + "-hedge").start();
+                            launched = 2;
+                        }
+                        continue;
+                    }
+                    long next = hedgeDecided ? waitUntil : start + HEDGE_DELAY_MS;
+                    lock.wait(Math.max(1L, next - now));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            status[0] = result[0] != null ? 200 : lastStatus[0];
+            return result[0];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package app.lovable.toplavanderia;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leituras repetidas da mesma RPC (get_public_machines, get_esp32_heartbeats) viram uma só:
+ * quem chega com a mesma chamada já em voo espera a resposta dela em vez de abrir outra conexão,
+ * e quem chega logo depois reaproveita o resultado por {@link #SHARE_MS}. Na maquininha a grade,
+ * o monitor e a espera de confirmação do relé batiam no Supabase em paralelo pelo mesmo dado.
+ *
+ * Só para leituras sem efeito colateral. Falha não é guardada: a próxima chamada tenta de novo.
+ * Devolve o corpo cru (String imutável); cada chamador monta o próprio JSONArray.
+ */
+final class SingleFlightRpc {
+    private static final String TAG = "SingleFlightRpc";
+    /** Curto o bastante para o poll de confirmação do relé (1,5s) ainda ver leitura nova. */
+    static final long SHARE_MS = 1_000L;
+
+    private static final class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile String body;
+        volatile long finishedAtElapsed;
+    }
+
+    private static final Map<String, Flight> flights = new HashMap<>();
+
+    private SingleFlightRpc() {
+    }
+
+    /** Como {@link RpcGuard#read} (sem prazo nem cópia), mas dividida com chamadas idênticas. Bloqueante. */
+    static String call(String function, JSONObject body, int timeoutMs) {
+        String key = function + body;
+        Flight flight;
+        boolean owner = false;
+        synchronized (flights) {
+            flight = flights.get(key);
+            if (flight != null && flight.done.getCount() == 0
+                    && SystemClock.elapsedRealtime() - flight.finishedAtElapsed > SHARE_MS) {
+                flight = null;
+            }
+            if (flight == null) {
+                flight = new Flight();
+                flights.put(key, flight);
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                flight.body = RpcGuard.read(function, body, timeoutMs, 0L, false);
+                return flight.body;
+            } finally {
+                flight.finishedAtElapsed = SystemClock.elapsedRealtime();
+                flight.done.countDown();
+                if (flight.body == null) {
+                    synchronized (flights) {
+                        flights.remove(key, flight);
+                    }
+                }
+            }
+        }
+        try {
+            // Todas as tentativas do dono, com folga.
+            if (!flight.done.await(RpcGuard.worstCaseMs(timeoutMs) + 1_000L, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, function + " em voo não respondeu a tempo");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return flight.body;
+    }
+}
@@ -0,0 +1,219 @@
+package app.lovable.toplavanderia;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Etapas de inicialização com dependências explícitas: cada etapa roda assim que as suas
+ * dependências terminam, em paralelo com as independentes. Falha numa etapa é registrada e não
+ * trava as dependentes — o boot é melhor-esforço, como antes.
+ *
+ * Os tempos (início/fim desde a base do grafo) vão para o log quando todas as etapas terminam;
+ * marcos ({@link #mark}) como "primeiro quadro" entram no mesmo resumo.
+ */
+final class StartupGraph {
+    private static final String TAG = "StartupGraph";
+    private static final int WORKERS = 3;
+
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor();
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static StartupGraph process;
+
+    private static final class Step {
+        final String name;
+        final Runnable work;
+        final boolean onMain;
+        final String[] deps;
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean scheduled;
+        long startedAt = -1L;
+        long finishedAt = -1L;
+        boolean failed;
+
+        Step(String name, Runnable work, boolean onMain, String[] deps) {
+            this.name = name;
+            this.work = work;
+            this.onMain = onMain;
+            this.deps = deps;
+        }
+    }
+
+    private final String name;
+    private final long baseElapsed;
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private final Map<String, Long> marks = new LinkedHashMap<>();
+    private boolean started;
+    private boolean summaryLogged;
+
+    StartupGraph(String name, long baseElapsed) {
+        this.name = name;
+        this.baseElapsed = baseElapsed;
+    }
+
+    /** Grafo do processo (Application); base = início do processo, mede o cold boot inteiro. */
+    static synchronized StartupGraph process() {
+        if (process == null) {
+            process = new StartupGraph("processo", Process.getStartElapsedRealtime());
+        }
+        return process;
+    }
+
+    /** Etapa em thread de fundo. */
+    StartupGraph step(String stepName, Runnable work, String... deps) {
+        return add(new Step(stepName, work, false, deps));
+    }
+
+    /** Etapa na main thread (toca UI). */
+    StartupGraph mainStep(String stepName, Runnable work, String... deps) {
+        return add(new Step(stepName, work, true, deps));
+    }
+
+    synchronized void start() {
+        started = true;
+        scheduleReady();
+    }
+
+    /** Espera a etapa terminar (com ou sem falha). Etapa desconhecida conta como concluída. */
+    boolean await(String stepName, long timeoutMs) {
+        Step step;
+        synchronized (this) {
+            step = steps.get(stepName);
+        }
+        if (step == null) {
+            return true;
+        }
+        try {
+            return step.done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Marco sem trabalho associado (ex.: primeiro quadro, máquinas carregadas). Só o primeiro vale. */
+    synchronized void mark(String milestone) {
+        if (marks.containsKey(milestone)) {
+            return;
+        }
+        marks.put(milestone, SystemClock.elapsedRealtime() - baseElapsed);
+        if (summaryLogged) {
+            Log.i(TAG, name + ": " + milestone + "=" + marks.get(milestone) + "ms");
+        }
+    }
+
+    synchronized String summary() {
+        StringBuilder sb = new StringBuilder(name).append(':');
+        for (Step s : steps.values()) {
+            sb.append(' ').append(s.name).append('=');
+            if (s.startedAt < 0) {
+                sb.append("pendente");
+                continue;
+            }
+            sb.append(s.startedAt - baseElapsed).append('→');
+            sb.append(s.finishedAt < 0 ? "…" : String.valueOf(s.finishedAt - baseElapsed)).append("ms");
+            if (s.failed) {
+                sb.append("(falhou)");
+            }
+        }
+        for (Map.Entry<String, Long> m : marks.entrySet()) {
+            sb.append(' ').append(m.getKey()).append('=').append(m.getValue()).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private synchronized StartupGraph add(Step step) {
+        if (steps.containsKey(step.name)) {
+            Log.w(TAG, name + ": etapa duplicada ignorada: " + step.name);
+            return this;
+        }
+        steps.put(step.name, step);
+        if (started) {
+            scheduleReady();
+        }
+        return this;
+    }
+
+    /** Chamado com o lock. */
+    private void scheduleReady() {
+        for (Step s : steps.values()) {
+            if (!s.scheduled && depsDone(s)) {
+                s.scheduled = true;
+                Runnable run = () -> runStep(s);
+                if (s.onMain) {
+                    MAIN.post(run);
+                } else {
+                    EXECUTOR.execute(run);
+                }
+            }
+        }
+    }
+
+    private boolean depsDone(Step s) {
+        for (String dep : s.deps) {
+            Step d = steps.get(dep);
+            // Dependência ainda não registrada: espera ela aparecer.
+            if (d == null || d.finishedAt < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void runStep(Step s) {
+        synchronized (this) {
+            s.startedAt = SystemClock.elapsedRealtime();
+        }
+        boolean failed = false;
+        try {
+            s.work.run();
+        } catch (Throwable t) {
+            failed = true;
+            Log.e(TAG, name + ": etapa " + s.name + " falhou", t);
+        }
+        boolean allDone;
+        synchronized (this) {
+            s.finishedAt = SystemClock.elapsedRealtime();
+            s.failed = failed;
+            s.done.countDown();
+            scheduleReady();
+            allDone = !summaryLogged && allFinished();
+            if (allDone) {
+                summaryLogged = true;
+            }
+        }
+        if (allDone) {
+            Log.i(TAG, summary());
+        }
+    }
+
+    private boolean allFinished() {
+        for (Step s : steps.values()) {
+            if (s.finishedAt < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Poucas threads, que morrem depois do boot. */
+    private static ThreadPoolExecutor newExecutor() {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKERS, WORKERS, 10L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> new Thread(r, "startup-" + seq.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
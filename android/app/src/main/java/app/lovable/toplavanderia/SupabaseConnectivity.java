@@ -0,0 +1,223 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Estado da conexão com o Supabase sem requisição só para "testar": toda RPC de
+ * {@link SupabaseHelper#postRpc} informa o resultado e o tempo de resposta ({@link #report}),
+ * o Android avisa quando a rede padrão cai ou volta, e só com a linha calada e fora do ar é que
+ * sai uma sonda barata (HEAD /rest/v1/, sem corpo) para perceber a volta.
+ *
+ * ONLINE: última resposta ok e RTT suavizado abaixo de {@link #DEGRADED_RTT_MS}.
+ * DEGRADED: responde, mas lento ou com 5xx, ou falhou há pouco. OFFLINE: sem rede ou
+ * {@link #FAILURES_TO_OFFLINE} falhas de rede seguidas. UNKNOWN: nenhum sinal ainda — conta como
+ * utilizável se houver rede, e a primeira chamada de verdade decide.
+ */
+final class SupabaseConnectivity {
+    private static final String TAG = "SupabaseConnectivity";
+
+    enum State { UNKNOWN, ONLINE, DEGRADED, OFFLINE }
+
+    interface Listener {
+        /** Só nas mudanças de estado, na thread da conectividade; UI usa runOnUiThread. */
+        void onConnectivityChanged(State state, long rttMs);
+    }
+
+    private static final int FAILURES_TO_OFFLINE = 3;
+    /** RTT suavizado acima disso = degradado (4G fraco, Wi‑Fi da loja saturado). */
+    static final long DEGRADED_RTT_MS = 2_500L;
+    /** Sonda fora do ar: 5s, 10s, 20s... até 1 min. */
+    private static final long PROBE_MIN_MS = 5_000L;
+    private static final long PROBE_MAX_MS = 60_000L;
+    /** Tráfego real recente já diz o estado; sonda só com a linha calada. */
+    private static final long QUIET_MS = 10_000L;
+    private static final int PROBE_TIMEOUT_MS = 5_000;
+
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final Runnable PROBE = SupabaseConnectivity::probe;
+    private static volatile State state = State.UNKNOWN;
+    private static volatile boolean networkUp = true;
+    private static volatile long srttMs = -1L;
+    private static volatile long lastSignalElapsed;
+    private static Network currentNetwork;
+    private static int consecutiveFailures;
+    private static long probeDelayMs = PROBE_MIN_MS;
+    private static Handler handler;
+
+    private SupabaseConnectivity() {
+    }
+
+    /** Etapa do StartupGraph: callback de rede padrão + thread da sonda. */
+    static synchronized void start(Context context) {
+        if (handler != null) {
+            return;
+        }
+        HandlerThread thread = new HandlerThread("supabase-conn");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        ConnectivityManager cm = (ConnectivityManager) context.getApplicationContext()
+            .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        try {
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    synchronized (SupabaseConnectivity.class) {
+                        currentNetwork = network;
+                        networkUp = true;
+                        Log.i(TAG, "Rede disponível");
+                        probeDelayMs = PROBE_MIN_MS;
+                        // UNKNOWN: a primeira RPC de verdade decide, sem sonda.
+                        if (state == State.OFFLINE || state == State.DEGRADED) {
+                            scheduleProbe(0L);
+                        }
+                    }
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    synchronized (SupabaseConnectivity.class) {
+                        // Troca Wi‑Fi → 4G chega como onAvailable da nova; só a perda da atual derruba.
+                        if (currentNetwork != null && !currentNetwork.equals(network)) {
+                            return;
+                        }
+                        currentNetwork = null;
+                        networkUp = false;
+                        Log.w(TAG, "Rede perdida");
+                        transition(State.OFFLINE);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Callback de rede indisponível — só sinais das RPCs", e);
+        }
+    }
+
+    static State state() {
+        return state;
+    }
+
+    /** RTT suavizado das últimas respostas (ms); -1 sem medida ainda. */
+    static long rttMs() {
+        return srttMs;
+    }
+
+    /** Vale a pena tentar a nuvem agora (sem sair requisição para descobrir). */
+    static boolean isUsable() {
+        State s = state;
+        return s == State.ONLINE || s == State.DEGRADED || (s == State.UNKNOWN && networkUp);
+    }
+
+    static void addListener(Listener listener) {
+        if (listener != null) {
+            LISTENERS.addIfAbsent(listener);
+        }
+    }
+
+    static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Sinal passivo de uma requisição de verdade: {@code httpCode} -1 = falha de rede/timeout;
+     * qualquer HTTP prova que o servidor respondeu (5xx conta como degradado).
+     */
+    static void report(int httpCode, long rttMs) {
+        lastSignalElapsed = SystemClock.elapsedRealtime();
+        synchronized (SupabaseConnectivity.class) {
+            if (httpCode == -1) {
+                consecutiveFailures++;
+                transition(consecutiveFailures >= FAILURES_TO_OFFLINE || state == State.OFFLINE
+                    ? State.OFFLINE : State.DEGRADED);
+                return;
+            }
+            consecutiveFailures = 0;
+            long s = srttMs;
+            srttMs = s < 0L ? rttMs : (7L * s + rttMs) / 8L;
+            transition(httpCode >= 500 || srttMs > DEGRADED_RTT_MS ? State.DEGRADED : State.ONLINE);
+        }
+    }
+
+    /** Chamar com o lock da classe. */
+    private static void transition(State next) {
+        if (next == State.ONLINE) {
+            probeDelayMs = PROBE_MIN_MS;
+            if (handler != null) {
+                handler.removeCallbacks(PROBE);
+            }
+        } else if (networkUp) {
+            scheduleProbe(probeDelayMs);
+        }
+        State prev = state;
+        if (next == prev) {
+            return;
+        }
+        state = next;
+        long rtt = srttMs;
+        Log.i(TAG, "Conexão: " + prev + " → " + next + " (rtt=" + rtt + "ms)");
+        if (LISTENERS.isEmpty()) {
+            return;
+        }
+        Runnable notify = () -> {
+            for (Listener l : LISTENERS) {
+                l.onConnectivityChanged(next, rtt);
+            }
+        };
+        if (handler != null) {
+            handler.post(notify);
+        } else {
+            notify.run();
+        }
+    }
+
+    private static void scheduleProbe(long delayMs) {
+        if (handler == null) {
+            return;
+        }
+        handler.removeCallbacks(PROBE);
+        handler.postDelayed(PROBE, delayMs);
+    }
+
+    private static void probe() {
+        if (state == State.ONLINE || !networkUp) {
+            // Sem rede: espera o onAvailable.
+            return;
+        }
+        long quietFor = SystemClock.elapsedRealtime() - lastSignalElapsed;
+        if (lastSignalElapsed > 0L && quietFor < QUIET_MS) {
+            scheduleProbe(QUIET_MS - quietFor);
+            return;
+        }
+        int code = -1;
+        long started = SystemClock.elapsedRealtime();
+        HttpURLConnection conn = null;
+        try {
+            conn = SupabaseConfig.openConnection(SupabaseConfig.SUPABASE_URL + "/rest/v1/");
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(PROBE_TIMEOUT_MS);
+            conn.setReadTimeout(PROBE_TIMEOUT_MS);
+            code = conn.getResponseCode();
+        } catch (Exception e) {
+            Log.d(TAG, "Sonda sem resposta: " + e.getMessage());
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+        synchronized (SupabaseConnectivity.class) {
+            probeDelayMs = Math.min(PROBE_MAX_MS, probeDelayMs * 2);
+            report(code, SystemClock.elapsedRealtime() - started);
+        }
+    }
+}
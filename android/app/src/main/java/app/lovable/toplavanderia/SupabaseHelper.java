@@ -4,16 +4,16 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import java.io.BufferedReader;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -37,7 +37,6 @@ public class SupabaseHelper {
     private static final String PREF_LAUNDRY_LOGO = "laundry_logo";
     
     private Context context;
-    private boolean isOnline;
     private List<Machine> realMachines;
     private boolean realMachinesLoaded;
     private OnMachinesLoadedListener listener;
@@ -52,7 +51,6 @@ public class SupabaseHelper {
     
     public SupabaseHelper(Context context) {
         this.context = context;
-        this.isOnline = false;
         this.realMachines = null;
         this.realMachinesLoaded = false;
         this.listener = null;
@@ -93,6 +91,7 @@ public class SupabaseHelper {
                 this.currentLaundryCNPJ = digits;
                 this.currentLaundryId = laundry.getId();
                 this.currentLaundryName = laundry.getName();
+                this.currentLaundryLogo = laundry.getLogoUrl();
                 
                 // Salvar nas preferências
                 android.content.SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
@@ -106,6 +105,8 @@ public class SupabaseHelper {
                 // Recarregar máquinas
                 realMachinesLoaded = false;
                 realMachines = null;
+                // Logo pronto em memória/disco quando a grade for montada.
+                ImageCache.prefetch(context, laundry.getLogoUrl(), ImageCache.logoSizePx(context));
                 
                 Log.d(TAG, "✅ Lavanderia configurada com sucesso: " + laundry.getName());
                 return true;
@@ -168,13 +169,17 @@ public class SupabaseHelper {
     /** Pré-carrega configurações em background (credenciais Cielo para pagamento). */
     public void prefetchSystemSettings() {
         if (cachedSystemSettings != null || currentLaundryId == null) return;
-        new Thread(() -> {
-            try {
-                fetchSystemSettings();
-            } catch (Exception e) {
-                Log.w(TAG, "prefetchSystemSettings falhou", e);
-            }
-        }).start();
+        new Thread(this::loadSystemSettings).start();
+    }
+
+    /** Carrega configurações na thread atual (etapa do StartupGraph); não chamar na main thread. */
+    public void loadSystemSettings() {
+        if (cachedSystemSettings != null || currentLaundryId == null) return;
+        try {
+            fetchSystemSettings();
+        } catch (Exception e) {
+            Log.w(TAG, "prefetchSystemSettings falhou", e);
+        }
     }
 
     private JSONObject fetchSystemSettings() {
@@ -374,7 +379,6 @@ public class SupabaseHelper {
                     // Armazenar dados reais
                     realMachines = supabaseMachines;
                     realMachinesLoaded = true;
-                    isOnline = true;
                     
                     Log.d(TAG, "Dados reais do Supabase prontos para exibição");
                     
@@ -382,13 +386,11 @@ public class SupabaseHelper {
                     notifyMachinesLoadFinished(realMachines);
                 } else {
                     Log.d(TAG, "❌ Falha ao carregar dados do Supabase");
-                    isOnline = false;
                     notifyMachinesLoadFinished(new ArrayList<>());
                 }
 
             } catch (Exception e) {
                 Log.e(TAG, "Erro ao carregar máquinas do Supabase", e);
-                isOnline = false;
                 notifyMachinesLoadFinished(new ArrayList<>());
             }
         }).start();
@@ -430,20 +432,45 @@ public class SupabaseHelper {
         }
     }
 
+    /**
+     * Lê uma máquina + heartbeat do ESP32 dela (get_public_machine_status) e atualiza a entrada
+     * no cache sem trocar a lista. Bloqueante. Servidor sem a RPC: lista inteira, só para ler.
+     */
     public Machine refreshMachineById(String machineId) {
+        if (machineId == null || machineId.isEmpty()) {
+            return null;
+        }
         try {
+            JSONObject body = new JSONObject();
+            body.put("_machine_id", machineId);
+            String raw = RpcGuard.read("get_public_machine_status", body, 5000, 0L, true);
+            if (raw != null) {
+                JSONArray rows = new JSONArray(raw);
+                if (rows.length() == 0) {
+                    return null;
+                }
+                JSONObject row = rows.getJSONObject(0);
+                Machine fresh = parseMachine(row);
+                JSONObject esp32 = null;
+                if (!fresh.getEsp32Id().isEmpty() && !row.isNull("last_heartbeat")) {
+                    esp32 = new JSONObject();
+                    esp32.put("esp32_id", fresh.getEsp32Id());
+                    esp32.put("is_online", row.optBoolean("esp32_is_online", false));
+                    esp32.put("last_heartbeat", row.optString("last_heartbeat", ""));
+                    esp32.put("relay_status", row.opt("relay_status"));
+                }
+                fresh.setEsp32Online(isEsp32ReallyOnline(esp32));
+                mergeCachedMachine(fresh);
+                return fresh;
+            }
             List<Machine> latest = fetchMachinesFromSupabase();
             if (latest == null || latest.isEmpty()) {
                 return null;
             }
-
             loadEsp32Status(latest);
-            realMachines = latest;
-            realMachinesLoaded = true;
-            isOnline = true;
-
             for (Machine machine : latest) {
                 if (machineId.equals(machine.getId())) {
+                    mergeCachedMachine(machine);
                     return machine;
                 }
             }
@@ -452,6 +479,44 @@ public class SupabaseHelper {
         }
         return null;
     }
+
+    /** Copia os campos do servidor para a máquina já em cache (mesma instância que a grade usa). */
+    private void mergeCachedMachine(Machine fresh) {
+        List<Machine> cached = realMachines;
+        if (cached == null) {
+            return;
+        }
+        for (Machine machine : cached) {
+            if (fresh.getId().equals(machine.getId())) {
+                machine.setName(fresh.getName());
+                machine.setType(fresh.getType());
+                machine.setStatus(fresh.getStatus());
+                machine.setPrice(fresh.getPrice());
+                machine.setDuration(fresh.getDuration());
+                machine.setEsp32Id(fresh.getEsp32Id());
+                machine.setRelayPin(fresh.getRelayPin());
+                machine.setEsp32Online(fresh.isEsp32Online());
+                fresh.setLocation(machine.getLocation());
+                return;
+            }
+        }
+    }
+
+    /** Linha de get_public_machines / get_public_machine_status; esp32Online fica false. */
+    private Machine parseMachine(JSONObject machineJson) throws JSONException {
+        Machine machine = new Machine();
+        machine.setId(machineJson.getString("id"));
+        machine.setName(machineJson.getString("name"));
+        machine.setType(mapType(machineJson.getString("type")));
+        machine.setStatus(mapStatus(machineJson.getString("status")));
+        machine.setPrice(machineJson.optDouble("price_per_cycle", 15.00));
+        machine.setDuration(machineJson.optInt("cycle_time_minutes", 40));
+        machine.setLocation(machineJson.optString("location", "Conjunto A"));
+        machine.setEsp32Id(machineJson.optString("esp32_id", ""));
+        machine.setRelayPin(machineJson.optInt("relay_pin", 1));
+        machine.setEsp32Online(false);
+        return machine;
+    }
     
     /**
      * Busca lavanderia pelo CNPJ no Supabase
@@ -528,7 +593,6 @@ public class SupabaseHelper {
     
     private List<Machine> fetchMachinesFromSupabase() {
         List<Machine> machines = new ArrayList<>();
-        HttpURLConnection connection = null;
 
         try {
             if (currentLaundryId == null) {
@@ -536,68 +600,29 @@ public class SupabaseHelper {
                 return new ArrayList<>();
             }
             
-            String url = SUPABASE_URL + "/rest/v1/rpc/get_public_machines";
-            
             Log.d(TAG, "Buscando máquinas da lavanderia: " + currentLaundryId);
-            Log.d(TAG, "URL: " + url);
-            
-            connection = SupabaseConfig.openConnection(url);
-            connection.setRequestMethod("POST");
-            SupabaseConfig.applyJsonHeaders(connection);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
 
             JSONObject body = new JSONObject();
             body.put("_laundry_id", currentLaundryId);
-            OutputStream os = connection.getOutputStream();
-            os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            os.close();
-            
-            int responseCode = connection.getResponseCode();
-            if (responseCode == 200) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                reader.close();
-                
-                JSONArray machinesArray = new JSONArray(response.toString());
+            // Mesma leitura do MachineStatusMonitor: chamadas simultâneas viram uma.
+            String raw = SingleFlightRpc.call("get_public_machines", body, 10000);
+            if (raw != null) {
+                JSONArray machinesArray = new JSONArray(raw);
                 
                 for (int i = 0; i < machinesArray.length(); i++) {
-                    JSONObject machineJson = machinesArray.getJSONObject(i);
-                    Machine machine = new Machine();
-                    
-                    machine.setId(machineJson.getString("id"));
-                    machine.setName(machineJson.getString("name"));
-                    machine.setType(mapType(machineJson.getString("type")));
-                    machine.setStatus(mapStatus(machineJson.getString("status")));
-                    machine.setPrice(machineJson.optDouble("price_per_cycle", 15.00));
-                    machine.setDuration(machineJson.optInt("cycle_time_minutes", 40));
-                    machine.setLocation(machineJson.optString("location", "Conjunto A"));
-                    machine.setEsp32Id(machineJson.optString("esp32_id", ""));
-                    machine.setRelayPin(machineJson.optInt("relay_pin", 1));
-                    machine.setEsp32Online(false); // Atualizado em loadEsp32Status
-                    
-                    machines.add(machine);
+                    // esp32Online atualizado em loadEsp32Status
+                    machines.add(parseMachine(machinesArray.getJSONObject(i)));
                 }
                 
                 Log.d(TAG, "Máquinas carregadas do Supabase: " + machines.size());
             } else {
-                Log.e(TAG, "Erro ao buscar máquinas do Supabase: " + responseCode);
+                Log.e(TAG, "Erro ao buscar máquinas do Supabase");
                 machines = new ArrayList<>();
             }
             
         } catch (Exception e) {
             Log.e(TAG, "Erro na comunicação com Supabase", e);
             machines = new ArrayList<>();
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         
         return machines;
@@ -617,6 +642,7 @@ public class SupabaseHelper {
                 JSONObject esp32Json = esp32Array.getJSONObject(i);
                 String esp32Id = esp32Json.getString("esp32_id");
                 esp32StatusMap.put(esp32Id, esp32Json);
+                Esp32LanClient.learn(esp32Id, esp32Json.optString("ip_address", ""), Esp32LanClient.DEFAULT_PORT);
                 Log.d(TAG, "ESP32 " + esp32Id + " loaded");
             }
 
@@ -647,34 +673,11 @@ public class SupabaseHelper {
     }
 
     private JSONArray fetchEsp32StatusViaRpc() throws Exception {
-        URL url = new URL(SUPABASE_URL + "/rest/v1/rpc/get_esp32_heartbeats");
-        HttpURLConnection conn = SupabaseConfig.openConnection(url);
-        conn.setRequestMethod("POST");
-        SupabaseConfig.applyJsonHeaders(conn);
-        conn.setDoOutput(true);
-        conn.setConnectTimeout(10000);
-        conn.setReadTimeout(10000);
-
         JSONObject body = new JSONObject();
         body.put("_laundry_id", currentLaundryId);
-        OutputStream os = conn.getOutputStream();
-        os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
-        os.close();
-
-        int code = conn.getResponseCode();
-        if (code != 200) {
-            conn.disconnect();
-            return new JSONArray();
-        }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-        StringBuilder response = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            response.append(line);
-        }
-        reader.close();
-        conn.disconnect();
-        return new JSONArray(response.toString());
+        // Poll de confirmação do relé + grade + monitor pedem o mesmo heartbeat: uma conexão só.
+        String raw = SingleFlightRpc.call("get_esp32_heartbeats", body, 10000);
+        return raw == null ? new JSONArray() : new JSONArray(raw);
     }
     
     /**
@@ -1154,17 +1157,17 @@ public class SupabaseHelper {
             return false;
         }
         int pin = relayPin > 0 ? relayPin : DEFAULT_RELAY_LOGICAL_PIN;
-        long deadline = System.currentTimeMillis() + Math.max(timeoutMs, 5000L);
+        long deadline = SystemClock.elapsedRealtime() + Math.max(timeoutMs, 5000L);
         Log.d(TAG, "Aguardando confirmação ESP32 (esp32=" + esp32Id + ", pin=" + pin
             + ", machine=" + machineId + ", tx=" + transactionId + ", timeout=" + timeoutMs + "ms)");
-        while (System.currentTimeMillis() < deadline) {
-            if (isEsp32Confirmed(esp32Id, pin, machineId, transactionId)) {
+        while (SystemClock.elapsedRealtime() < deadline) {
+            if (isEsp32Confirmed(esp32Id, pin, machineId, transactionId, deadline)) {
                 Log.i(TAG, "ESP32 confirmado (esp32=" + esp32Id + ", pin=" + pin + ")");
                 return true;
             }
             // Ainda em processing: o ESP pode ter pulsado e só o confirm atrasou — não desistir cedo.
             if (transactionId != null && !transactionId.isEmpty()) {
-                String st = fetchTotemCommandStatus(transactionId, null);
+                String st = fetchTotemCommandStatus(transactionId, null, deadline);
                 if ("failed".equals(st)) {
                     Log.w(TAG, "Comando ESP falhou no servidor (tx=" + transactionId + ")");
                     return false;
@@ -1183,15 +1186,16 @@ public class SupabaseHelper {
             Log.i(TAG, "ESP32 confirmado após timeout (completed tardio)");
             return true;
         }
-        boolean finalCheck = isEsp32Confirmed(esp32Id, pin, machineId, transactionId);
+        boolean finalCheck = isEsp32Confirmed(esp32Id, pin, machineId, transactionId, 0L);
         Log.w(TAG, "Timeout confirmação ESP32 (esp32=" + esp32Id + ", pin=" + pin + ", ok=" + finalCheck + ")");
         return finalCheck;
     }
 
     /** Relé ON ou pending_commands completed. Não usa só status da máquina (falso positivo OCUPADA). */
-    private boolean isEsp32Confirmed(String esp32Id, int relayPin, String machineId, String transactionId) {
+    private boolean isEsp32Confirmed(String esp32Id, int relayPin, String machineId, String transactionId,
+                                     long deadlineElapsed) {
         if (transactionId != null && !transactionId.isEmpty()) {
-            String cmdStatus = fetchTotemCommandStatus(transactionId, null);
+            String cmdStatus = fetchTotemCommandStatus(transactionId, null, deadlineElapsed);
             if ("completed".equals(cmdStatus)) {
                 return true;
             }
@@ -1213,8 +1217,16 @@ public class SupabaseHelper {
      * SELECT direto em pending_commands é bloqueado para anon (RLS).
      */
     private String fetchTotemCommandStatus(String transactionId, String commandId) {
+        return fetchTotemCommandStatus(transactionId, commandId, 0L);
+    }
+
+    /**
+     * {@code deadlineElapsed} (SystemClock.elapsedRealtime, 0 = sem prazo): prazo de quem espera a
+     * confirmação — a leitura não passa dele nem com retentativa. Idempotente: vai com cópia
+     * ({@link RpcGuard#read}) para cortar a cauda de latência no 4G.
+     */
+    private String fetchTotemCommandStatus(String transactionId, String commandId, long deadlineElapsed) {
         try {
-            String url = SUPABASE_URL + "/rest/v1/rpc/get_totem_command_status";
             JSONObject body = new JSONObject();
             if (transactionId != null && !transactionId.trim().isEmpty()) {
                 body.put("_transaction_id", transactionId.trim());
@@ -1227,36 +1239,11 @@ public class SupabaseHelper {
                 body.put("_command_id", JSONObject.NULL);
             }
 
-            HttpURLConnection connection = SupabaseConfig.openConnection(url);
-            connection.setRequestMethod("POST");
-            SupabaseConfig.applyJsonHeaders(connection);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
-            OutputStream os = connection.getOutputStream();
-            os.write(body.toString().getBytes(StandardCharsets.UTF_8));
-            os.flush();
-            os.close();
-
-            int code = connection.getResponseCode();
-            InputStream stream = code >= 200 && code < 300
-                ? connection.getInputStream()
-                : connection.getErrorStream();
-            StringBuilder response = new StringBuilder();
-            if (stream != null) {
-                BufferedReader br = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-                br.close();
-            }
-            connection.disconnect();
-            if (code < 200 || code >= 300) {
-                Log.w(TAG, "get_totem_command_status HTTP " + code + ": " + response);
+            String raw = RpcGuard.read("get_totem_command_status", body, 10000, deadlineElapsed, true);
+            if (raw == null) {
                 return null;
             }
-            String raw = response.toString().trim();
+            raw = raw.trim();
             if (raw.isEmpty() || "[]".equals(raw) || "null".equals(raw)) {
                 return null;
             }
@@ -1332,6 +1319,94 @@ public class SupabaseHelper {
         }
     }
 
+    /** Resposta de commit_totem_payment: comando a acompanhar e a máquina como está no banco. */
+    public static final class PaymentCommit {
+        public final String commandId;
+        public final String esp32Id;
+        public final int relayPin;
+        public final int cycleMinutes;
+
+        PaymentCommit(String commandId, String esp32Id, int relayPin, int cycleMinutes) {
+            this.commandId = commandId;
+            this.esp32Id = esp32Id;
+            this.relayPin = relayPin;
+            this.cycleMinutes = cycleMinutes;
+        }
+    }
+
+    /**
+     * Pós-pagamento em um round-trip: grava a forma de pagamento, enfileira o ON (idempotente
+     * por TX) e marca a máquina running. A TX segue pending até o confirm do ESP32.
+     * @return null se a RPC falhou ou recusou — quem chama usa queueEsp32RelayOn.
+     */
+    public PaymentCommit commitTotemPayment(String transactionId, String paymentMethod) {
+        if (transactionId == null || transactionId.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            JSONObject body = new JSONObject();
+            body.put("_transaction_id", transactionId.trim());
+            body.put("_payment_method", paymentMethod == null || paymentMethod.isEmpty() ? "credit" : paymentMethod);
+            String raw = postRpc("commit_totem_payment", body, 10000);
+            if (raw == null) {
+                return null;
+            }
+            JSONObject res = new JSONObject(raw);
+            if (!res.optBoolean("ok", false)) {
+                Log.w(TAG, "commit_totem_payment recusado (" + transactionId + "): " + res.optString("error", "?"));
+                return null;
+            }
+            PaymentCommit commit = new PaymentCommit(
+                res.optString("command_id", ""),
+                res.optString("esp32_id", ""),
+                res.optInt("relay_pin", DEFAULT_RELAY_LOGICAL_PIN),
+                res.optInt("cycle_time_minutes", 0)
+            );
+            Log.d(TAG, "Pagamento confirmado no servidor: tx=" + transactionId + " cmd=" + commit.commandId
+                + " (" + res.optString("command_status", "?") + ")");
+            return commit;
+        } catch (Exception e) {
+            Log.e(TAG, "commitTotemPayment", e);
+            return null;
+        }
+    }
+
+    /**
+     * Desfaz o commit antes do estorno: comandos em aberto da TX viram failed e a máquina volta a
+     * available se o ESP não confirmou. @return false se a RPC não respondeu.
+     */
+    public boolean abortTotemPayment(String transactionId) {
+        if (transactionId == null || transactionId.trim().isEmpty()) {
+            return false;
+        }
+        try {
+            JSONObject body = new JSONObject();
+            body.put("_transaction_id", transactionId.trim());
+            String raw = postRpc("abort_totem_payment", body, 10000);
+            if (raw == null) {
+                return false;
+            }
+            Log.w(TAG, "Pagamento desfeito no servidor (" + transactionId + "): comandos cancelados=" + raw.trim());
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "abortTotemPayment", e);
+            return false;
+        }
+    }
+
+    /**
+     * Relé confirmado depois de {@link #commitTotemPayment}: máquina já está running e a TX é
+     * concluída pelo confirm_command. Só agenda o fim do ciclo, como onEsp32RelayConfirmed.
+     */
+    public void onCommittedRelayConfirmed(String esp32Id, int relayPin, String machineId, int durationMinutes) {
+        patchCachedMachineStatus(machineId, "OCUPADA", true);
+        if (isTimedSessionMachine(machineId)) {
+            return;
+        }
+        scheduleEsp32TurnOff(esp32Id, relayPin, machineId, durationMinutes);
+        scheduleMachineRelease(machineId, durationMinutes);
+    }
+
     private boolean isMachineRunningOnServer(String machineId) {
         if (machineId == null || machineId.isEmpty()) {
             return false;
@@ -1474,33 +1549,46 @@ public class SupabaseHelper {
                 }
             }
 
+            // Enfileira comando: timeout só cresce com rede lenta, nunca encurta.
+            int readMs = Math.max(15000, NetworkQuality.readTimeoutMs("esp32-control", 15000));
+            long started = SystemClock.elapsedRealtime();
             HttpURLConnection connection = SupabaseConfig.openConnection(url);
             connection.setRequestMethod("POST");
             SupabaseConfig.applyJsonHeaders(connection);
             connection.setDoOutput(true);
-            connection.setConnectTimeout(15000);
-            connection.setReadTimeout(15000);
+            connection.setConnectTimeout(NetworkQuality.connectTimeoutMs(NetworkQuality.HOST_SUPABASE, 15000));
+            connection.setReadTimeout(readMs);
 
             OutputStream os = connection.getOutputStream();
+            long connectedAt = SystemClock.elapsedRealtime();
             os.write(payload.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
             os.flush();
             os.close();
 
-            int responseCode = connection.getResponseCode();
-            if (responseCode != 200) {
-                Log.e(TAG, "esp32-control HTTP " + responseCode + " action=" + action);
-                connection.disconnect();
-                return false;
-            }
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            int responseCode;
             StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                response.append(line);
+            try {
+                responseCode = connection.getResponseCode();
+                if (responseCode != 200) {
+                    Log.e(TAG, "esp32-control HTTP " + responseCode + " action=" + action);
+                    connection.disconnect();
+                    return false;
+                }
+
+                BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+                String line;
+                while ((line = br.readLine()) != null) {
+                    response.append(line);
+                }
+                br.close();
+            } catch (java.net.SocketTimeoutException e) {
+                NetworkQuality.recordTimeout(NetworkQuality.HOST_SUPABASE, "esp32-control", false, readMs);
+                throw e;
+            } finally {
+                connection.disconnect();
             }
-            br.close();
-            connection.disconnect();
+            NetworkQuality.recordSuccess(NetworkQuality.HOST_SUPABASE, "esp32-control", connectedAt - started,
+                SystemClock.elapsedRealtime() - started);
 
             JSONObject result = new JSONObject(response.toString());
             boolean success = result.optBoolean("success", false);
@@ -1522,20 +1610,53 @@ public class SupabaseHelper {
         Log.d(TAG, "ESP32: " + esp32Id);
         Log.d(TAG, "Relay: " + relayPin);
         Log.d(TAG, "Máquina: " + machineId);
+        if (tryLanRelayOn(esp32Id, relayPin, machineId, transactionId, durationMinutes)) {
+            onEsp32RelayConfirmed(esp32Id, relayPin, machineId, durationMinutes);
+            return true;
+        }
         boolean queued = queueEsp32RelayOn(esp32Id, relayPin, machineId, transactionId, durationMinutes);
         if (!queued) {
             return false;
         }
-        boolean confirmed = waitForEsp32RelayOn(esp32Id, relayPin, machineId, 25_000L, transactionId);
-        if (!confirmed) {
-            confirmed = waitForEsp32RelayOn(esp32Id, relayPin, machineId, 15_000L, transactionId);
-        }
+        // Um prazo só (antes 25s + 15s): as leituras dentro da espera respeitam o mesmo limite.
+        boolean confirmed = waitForEsp32RelayOn(esp32Id, relayPin, machineId, 40_000L, transactionId);
         if (confirmed) {
             onEsp32RelayConfirmed(esp32Id, relayPin, machineId, durationMinutes);
         }
         return confirmed;
     }
     
+    /**
+     * Caminho local: liga o relé pela LAN (Esp32LanClient) e registra o comando na nuvem em
+     * segundo plano. false = usar queueEsp32RelayOn/waitForEsp32RelayOn como sempre.
+     */
+    public boolean tryLanRelayOn(String esp32Id, int relayPin, String machineId, String transactionId, int cycleTimeMinutes) {
+        int pin = relayPin > 0 ? relayPin : DEFAULT_RELAY_LOGICAL_PIN;
+        if (!Esp32LanClient.releaseRelay(esp32Id, pin, machineId, transactionId, cycleTimeMinutes)) {
+            return false;
+        }
+        new Thread(() -> recordLanRelayCommand(esp32Id, pin, machineId, transactionId, cycleTimeMinutes)).start();
+        return true;
+    }
+
+    /** Histórico/estado na nuvem do ON feito pela LAN (RPC record_lan_relay_command). */
+    private void recordLanRelayCommand(String esp32Id, int relayPin, String machineId, String transactionId, int cycleTimeMinutes) {
+        try {
+            JSONObject body = new JSONObject();
+            body.put("_esp32_id", esp32Id);
+            body.put("_relay_pin", relayPin);
+            body.put("_machine_id", machineId);
+            body.put("_transaction_id", transactionId != null
+                && transactionId.matches("(?i)[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}")
+                ? transactionId : JSONObject.NULL);
+            body.put("_cycle_time_minutes", cycleTimeMinutes);
+            String res = postRpc("record_lan_relay_command", body, 15000);
+            Log.d(TAG, "record_lan_relay_command ok=" + (res != null));
+        } catch (Exception e) {
+            Log.e(TAG, "Falha ao registrar ON via LAN na nuvem", e);
+        }
+    }
+
     /**
      * Agenda desligamento automático do relé após tempo de uso
      */
@@ -1654,57 +1775,16 @@ public class SupabaseHelper {
     
     // ===== MÉTODOS DE CONECTIVIDADE =====
     
+    /**
+     * Estado vindo de {@link SupabaseConnectivity} (resultado das próprias RPCs + callback de
+     * rede). Não bloqueia nem dispara requisição de teste.
+     */
     public boolean isOnline() {
-        // Verificar se já temos um status válido recente
-        if (isOnline) {
-            return true;
-        }
-        
-        // Para evitar NetworkOnMainThreadException, retornar false por padrão
-        // A verificação real será feita em background
-        Log.d(TAG, "=== VERIFICANDO CONECTIVIDADE (Background) ===");
-        Log.d(TAG, "URL: " + SUPABASE_URL);
-        
-        // Iniciar verificação em background
-        new Thread(() -> {
-            try {
-                String url = SUPABASE_URL + "/rest/v1/rpc/get_public_machines";
-                
-                HttpURLConnection connection = SupabaseConfig.openConnection(url);
-                connection.setRequestMethod("POST");
-                SupabaseConfig.applyJsonHeaders(connection);
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(10000); // 10 segundos
-                connection.setReadTimeout(10000); // 10 segundos
-
-                JSONObject body = new JSONObject();
-                body.put("_laundry_id", currentLaundryId == null ? JSONObject.NULL : currentLaundryId);
-                OutputStream os = connection.getOutputStream();
-                os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                os.close();
-                
-                int responseCode = connection.getResponseCode();
-                String responseMessage = connection.getResponseMessage();
-                
-                Log.d(TAG, "Response Code: " + responseCode);
-                Log.d(TAG, "Response Message: " + responseMessage);
-                
-                connection.disconnect();
-                
-                isOnline = (responseCode == 200);
-                Log.d(TAG, "Status de conectividade: " + (isOnline ? "✅ Online" : "❌ Offline"));
-                
-            } catch (Exception e) {
-                Log.e(TAG, "❌ Erro ao verificar conectividade", e);
-                isOnline = false;
-            }
-        }).start();
-        
-        return false; // Retornar false por padrão, será atualizado em background
+        return SupabaseConnectivity.isUsable();
     }
     
     public boolean isConnected() {
-        return isOnline;
+        return SupabaseConnectivity.isUsable();
     }
     
     // ===== CLASSE LAUNDRY =====
@@ -1837,34 +1917,115 @@ public class SupabaseHelper {
         public void setSortOrder(int sortOrder) { this.sortOrder = sortOrder; }
     }
 
-    public List<CoffeeProduct> fetchCoffeeProducts() {
-        List<CoffeeProduct> products = new ArrayList<>();
+    /**
+     * Lista crua de get_coffee_products (JSON array) para o CoffeeMenuCache guardar.
+     * @return null em falha de rede/HTTP — diferente de cardápio vazio ("[]").
+     */
+    String fetchCoffeeProductsJson() {
         if (!isConfigured()) {
-            return products;
+            return null;
         }
         try {
-            String url = SUPABASE_URL + "/rest/v1/rpc/get_coffee_products";
             JSONObject body = new JSONObject();
             body.put("_laundry_id", currentLaundryId);
+            return postRpc("get_coffee_products", body, 15000);
+        } catch (Exception e) {
+            Log.e(TAG, "Erro ao buscar cardápio de café", e);
+            return null;
+        }
+    }
 
-            HttpURLConnection connection = SupabaseConfig.openConnection(new URL(url));
+    /** Versão do cardápio (RPC get_coffee_menu_version); null se indisponível. */
+    String fetchCoffeeMenuVersion() {
+        if (!isConfigured()) {
+            return null;
+        }
+        try {
+            JSONObject body = new JSONObject();
+            body.put("_laundry_id", currentLaundryId);
+            String raw = postRpc("get_coffee_menu_version", body, 5000);
+            if (raw == null) {
+                return null;
+            }
+            // RPC escalar: corpo é a string JSON ("abc…").
+            String version = new JSONArray("[" + raw + "]").optString(0, null);
+            return version == null || version.isEmpty() ? null : version;
+        } catch (Exception e) {
+            Log.w(TAG, "Versão do cardápio indisponível", e);
+            return null;
+        }
+    }
+
+    static List<CoffeeProduct> parseCoffeeProducts(String raw) throws org.json.JSONException {
+        List<CoffeeProduct> products = new ArrayList<>();
+        JSONArray arr = new JSONArray(raw);
+        for (int i = 0; i < arr.length(); i++) {
+            JSONObject json = arr.getJSONObject(i);
+            CoffeeProduct p = new CoffeeProduct();
+            p.setId(json.getString("id"));
+            p.setName(json.getString("name"));
+            p.setPrice(json.optDouble("price", 0));
+            p.setPriceCents(json.optInt("price_cents", (int) Math.round(p.getPrice() * 100)));
+            p.setMachineId(json.getString("machine_id"));
+            p.setSortOrder(json.optInt("sort_order", i));
+            products.add(p);
+        }
+        return products;
+    }
+
+    /**
+     * POST numa RPC; corpo da resposta em 200, null em outro status. {@code timeoutMs} só cresce
+     * com a rede lenta medida ({@link NetworkQuality}): escrita não tem retentativa, então não
+     * encurta. Leitura que pode falhar rápido passa por {@link RpcGuard#read}.
+     */
+    static String postRpc(String function, JSONObject body, int timeoutMs) throws java.io.IOException {
+        int adaptive = NetworkQuality.readTimeoutMs(function, timeoutMs);
+        return postRpc(function, body, Math.max(timeoutMs, adaptive), null);
+    }
+
+    /**
+     * Como {@link #postRpc(String, JSONObject, int)}, com {@code timeoutMs} de leitura exato;
+     * {@code status[0]} recebe o HTTP, -1 em erro de rede ou {@link RpcGuard#REJECTED} com o
+     * disjuntor da RPC aberto (nem tenta a conexão).
+     */
+    static String postRpc(String function, JSONObject body, int timeoutMs, int[] status) throws java.io.IOException {
+        if (status != null) {
+            status[0] = -1;
+        }
+        if (!RpcGuard.allow(function)) {
+            if (status != null) {
+                status[0] = RpcGuard.REJECTED;
+            }
+            Log.w(TAG, function + ": disjuntor aberto — sem chamada");
+            return null;
+        }
+        int code = -1;
+        long started = SystemClock.elapsedRealtime();
+        long connectedAt = 0L;
+        int connectTimeoutMs = NetworkQuality.connectTimeoutMs(NetworkQuality.HOST_SUPABASE, timeoutMs);
+        HttpURLConnection connection = null;
+        try {
+            connection = SupabaseConfig.openConnection(new URL(SUPABASE_URL + "/rest/v1/rpc/" + function));
             connection.setRequestMethod("POST");
             SupabaseConfig.applyJsonHeaders(connection);
             connection.setDoOutput(true);
-            connection.setConnectTimeout(15000);
-            connection.setReadTimeout(15000);
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(timeoutMs);
 
             OutputStream os = connection.getOutputStream();
+            connectedAt = SystemClock.elapsedRealtime();
             os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
             os.flush();
             os.close();
 
-            if (connection.getResponseCode() != 200) {
-                Log.e(TAG, "get_coffee_products HTTP " + connection.getResponseCode());
-                connection.disconnect();
-                return products;
+            code = connection.getResponseCode();
+            if (status != null) {
+                status[0] = code;
+            }
+            if (code != 200) {
+                Log.e(TAG, function + " HTTP " + code);
+                return null;
             }
-
             BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
             StringBuilder response = new StringBuilder();
             String line;
@@ -1872,25 +2033,28 @@ public class SupabaseHelper {
                 response.append(line);
             }
             br.close();
-            connection.disconnect();
-
-            JSONArray arr = new JSONArray(response.toString());
-            for (int i = 0; i < arr.length(); i++) {
-                JSONObject json = arr.getJSONObject(i);
-                CoffeeProduct p = new CoffeeProduct();
-                p.setId(json.getString("id"));
-                p.setName(json.getString("name"));
-                p.setPrice(json.optDouble("price", 0));
-                p.setPriceCents(json.optInt("price_cents", (int) Math.round(p.getPrice() * 100)));
-                p.setMachineId(json.getString("machine_id"));
-                p.setSortOrder(json.optInt("sort_order", i));
-                products.add(p);
-            }
-            Log.d(TAG, "Produtos de café carregados: " + products.size());
-        } catch (Exception e) {
-            Log.e(TAG, "Erro ao buscar cardápio de café", e);
+            NetworkQuality.recordSuccess(NetworkQuality.HOST_SUPABASE, function, connectedAt - started,
+                SystemClock.elapsedRealtime() - started);
+            return response.toString();
+        } catch (java.io.IOException e) {
+            // Corpo cortado no meio também conta como falha de rede.
+            code = -1;
+            if (status != null) {
+                status[0] = -1;
+            }
+            if (e instanceof java.net.SocketTimeoutException) {
+                boolean connecting = connectedAt == 0L;
+                NetworkQuality.recordTimeout(NetworkQuality.HOST_SUPABASE, function, connecting,
+                    connecting ? connectTimeoutMs : timeoutMs);
+            }
+            throw e;
+        } finally {
+            RpcGuard.record(function, !RpcGuard.isRetryable(code));
+            SupabaseConnectivity.report(code, SystemClock.elapsedRealtime() - started);
+            if (connection != null) {
+                connection.disconnect();
+            }
         }
-        return products;
     }
 
     public String createCoffeeTransaction(String productId, String supabasePaymentMethod) {
@@ -2,12 +2,26 @@ package app.lovable.toplavanderia;
 
 import android.app.Application;
 
-/** Inicialização global — workaround SSL Cielo antes de qualquer HTTP. */
+/**
+ * Inicialização global em {@link StartupGraph}: workaround SSL Cielo antes de qualquer HTTP
+ * (SupabaseConfig.openConnection também espera por ele); warm-up do PayGo em paralelo.
+ */
 public class TopLavanderiaApplication extends Application {
+    static final String STEP_SSL = "ssl";
+
     @Override
     public void onCreate() {
         super.onCreate();
-        CieloSslWorkaround.ensureInitialized();
         CieloPaymentBroadcastReceiver.register(this);
+        StartupGraph.process()
+            .step(STEP_SSL, CieloSslWorkaround::ensureInitialized)
+            .step("fila-estornos", () -> CieloReversalQueue.start(this), STEP_SSL)
+            .step("conectividade", () -> SupabaseConnectivity.start(this))
+            .step("esp32-lan", () -> Esp32LanClient.init(this))
+            .step("esp32-descoberta", () -> Esp32LanDiscovery.start(this), "esp32-lan")
+            .step("totens-lan", () -> TotemPeerGroup.start(this))
+            // Terminais PayGo: InterfaceAutomacao pronta antes do primeiro cliente do dia.
+            .step("paygo", () -> PayGoStack.warmUpIfPayGo(this))
+            .start();
     }
 }
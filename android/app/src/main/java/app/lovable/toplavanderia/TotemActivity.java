@@ -4,12 +4,11 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.text.InputType;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -27,12 +26,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -41,8 +34,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 /**
  * ATIVIDADE PRINCIPAL DO TOTEM
@@ -69,10 +60,12 @@ public class TotemActivity extends Activity {
 
     private SupabaseHelper supabaseHelper;
     private PaymentManager activePaymentManager;
-    private RealPayGoManager payGoManager;
+    private PaymentProviderRegistry.Provider activeProviderInfo;
+    private PaymentAttemptTracker paymentTracker;
     private CieloLioManager cieloManager;
     private String activeProvider = "paygo";
     private MachineStatusMonitor statusMonitor;
+    private MachineAvailabilityOracle availabilityOracle;
     private List<SupabaseHelper.Machine> machines;
     private SupabaseHelper.Machine selectedMachine;
     /** Máquina do pagamento em curso — sobrevive ao retorno da Cielo (selectedMachine pode ser limpo cedo). */
@@ -83,10 +76,22 @@ public class TotemActivity extends Activity {
     /** credit, debit ou pix — alinhado à constraint do Supabase (transactions.payment_method). */
     private String currentOperationSupabasePaymentMethod = "credit";
     private LinearLayout rootLayout;
+    private StartupGraph startup;
+    private ImageView laundryLogoView;
     private ScrollView machinesScrollView;
 
     private TextView statusText;
     private TextView timeText;
+    /** Saúde da PPC930 no cabeçalho (só PayGo). */
+    private TextView terminalHealthText;
+    private final PayGoStack.HealthListener payGoHealthListener =
+        (health, detail) -> runOnUiThread(() -> showTerminalHealth(health));
+    /** Placa sumiu ou voltou na LAN: relê o status já, sem esperar o próximo poll. */
+    private final Esp32LanDiscovery.Listener lanPresenceListener = (esp32Id, present) -> {
+        if (statusMonitor != null) {
+            statusMonitor.requestImmediatePoll();
+        }
+    };
     private TextView titleText;
     private LinearLayout machinesContainer;
     private Button adminButton;
@@ -118,7 +123,8 @@ public class TotemActivity extends Activity {
     private enum TotemScreen { HOME, LAVAR, SECAR, MASSAGEM, CAFE }
 
     private TotemScreen currentScreen = TotemScreen.HOME;
-    private List<SupabaseHelper.CoffeeProduct> coffeeProducts = new ArrayList<>();
+    /** Cardápio pronto para desenhar (CoffeeMenuCache); null até o primeiro cache/carga. */
+    private CoffeeMenuCache.Menu coffeeMenu;
     private boolean coffeeProductsLoadAttempted = false;
     private static final long COFFEE_MENU_REFRESH_MIN_INTERVAL_MS = 15_000L;
     private final AtomicBoolean coffeeRefreshInFlight = new AtomicBoolean(false);
@@ -128,9 +134,12 @@ public class TotemActivity extends Activity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        CieloSslWorkaround.ensureInitialized();
         applyKeepScreenAwake();
-        DeviceClockGuard.checkAsync(this);
+        // Etapas de rede em paralelo com a montagem da UI; todas esperam o SSL do processo.
+        startup = new StartupGraph("totem", SystemClock.elapsedRealtime());
+        startup.step(TopLavanderiaApplication.STEP_SSL, () ->
+                StartupGraph.process().await(TopLavanderiaApplication.STEP_SSL, 10_000L))
+            .step("relogio", () -> DeviceClockGuard.check(this), TopLavanderiaApplication.STEP_SSL);
         // Imersivo só após setContentView (L400/Cielo: DecorView null em onCreate quebra getInsetsController).
         try {
             // Inicializar componentes
@@ -140,6 +149,7 @@ public class TotemActivity extends Activity {
             if (!supabaseHelper.isConfigured()) {
                 Log.d(TAG, "Totem não configurado - exibindo tela de configuração");
                 showConfigurationScreen();
+                startup.start();
                 return;
             }
             
@@ -149,6 +159,7 @@ public class TotemActivity extends Activity {
                 public void onMachinesLoaded(List<SupabaseHelper.Machine> loadedMachines) {
                     runOnUiThread(() -> {
                         Log.d(TAG, "Dados reais do Supabase recebidos, atualizando interface...");
+                        startup.mark("maquinas");
                         machines = loadedMachines;
                         if (shouldBlockTotemUiRefresh()) {
                             Log.d(TAG, "UI bloqueada durante pagamento Cielo — grade não redesenhada");
@@ -162,7 +173,9 @@ public class TotemActivity extends Activity {
             });
             
             // Pagamento: Cielo LIO não carrega PayGo no boot (evita crash na Cielo Store sem PayGo instalado).
-            supabaseHelper.prefetchSystemSettings();
+            startup.step("configuracoes", supabaseHelper::loadSystemSettings, TopLavanderiaApplication.STEP_SSL)
+                .step("logo", this::fetchLaundryLogo, TopLavanderiaApplication.STEP_SSL)
+                .start();
             initializePaymentManagers();
 
             // Unified payment callback
@@ -185,7 +198,9 @@ public class TotemActivity extends Activity {
                     }
                 }
             };
-            activePaymentManager.setCallback(paymentCallback);
+            PayGoStack.addListener(payGoHealthListener);
+            paymentTracker = new PaymentAttemptTracker(paymentCallback);
+            activePaymentManager.setCallback(paymentTracker);
             
             // Criar monitor de status em tempo real
             statusMonitor = new MachineStatusMonitor(supabaseHelper);
@@ -193,12 +208,15 @@ public class TotemActivity extends Activity {
                 // Atualizar UI com status real-time
                 runOnUiThread(() -> updateMachineStatuses(statuses));
             });
+            availabilityOracle = new MachineAvailabilityOracle(statusMonitor);
+            Esp32LanDiscovery.addListener(lanPresenceListener);
             
             // Criar interface
             createTotemInterface();
+            rootLayout.post(() -> startup.mark("primeiro-quadro"));
             ensureIdleWatchdogRunning();
             
-            // Carregar máquinas
+            // Carregar máquinas (busca em thread própria; marco "maquinas" quando chegam)
             loadMachines();
             
             // Iniciar atualização de tempo
@@ -309,6 +327,8 @@ public class TotemActivity extends Activity {
         if (statusMonitor != null) {
             statusMonitor.stopMonitoring();
         }
+        PayGoStack.removeListener(payGoHealthListener);
+        Esp32LanDiscovery.removeListener(lanPresenceListener);
         super.onDestroy();
     }
 
@@ -453,6 +473,7 @@ public class TotemActivity extends Activity {
             return;
         }
         final String pendingId = currentPendingTransactionId;
+        MachineLeases.releaseAll();
         awaitingPaymentCallback = false;
         paymentLaunchInProgress.set(false);
         currentOperationId = -1;
@@ -482,6 +503,13 @@ public class TotemActivity extends Activity {
         if (supabaseHelper == null || !supabaseHelper.isConfigured()) {
             return;
         }
+        if (coffeeMenu == null) {
+            // Desenha já com o cardápio em disco; a revalidação abaixo troca se mudou.
+            coffeeMenu = CoffeeMenuCache.cached(this, supabaseHelper.getLaundryId());
+            if (coffeeMenu != null) {
+                coffeeProductsLoadAttempted = true;
+            }
+        }
         long now = System.currentTimeMillis();
         if (!force
                 && lastCoffeeProductsRefreshAtMs > 0
@@ -492,13 +520,15 @@ public class TotemActivity extends Activity {
             return;
         }
         new Thread(() -> {
-            List<SupabaseHelper.CoffeeProduct> loaded = supabaseHelper.fetchCoffeeProducts();
+            CoffeeMenuCache.Menu loaded = CoffeeMenuCache.revalidate(this, supabaseHelper);
             runOnUiThread(() -> {
-                coffeeProducts = loaded != null ? loaded : new ArrayList<>();
+                // Mesma versão devolve o mesmo Menu: nada a redesenhar.
+                boolean changed = loaded != coffeeMenu || !coffeeProductsLoadAttempted;
+                coffeeMenu = loaded;
                 coffeeProductsLoadAttempted = true;
                 lastCoffeeProductsRefreshAtMs = System.currentTimeMillis();
                 coffeeRefreshInFlight.set(false);
-                if (!shouldBlockTotemUiRefresh()
+                if (changed && !shouldBlockTotemUiRefresh()
                         && (currentScreen == TotemScreen.HOME || currentScreen == TotemScreen.CAFE)) {
                     displayCurrentScreen();
                 }
@@ -737,7 +767,7 @@ public class TotemActivity extends Activity {
         title.setTypeface(android.graphics.Typeface.DEFAULT_BOLD);
         machinesContainer.addView(title);
 
-        if (coffeeProducts == null || coffeeProducts.isEmpty()) {
+        if (coffeeMenu == null || coffeeMenu.isEmpty()) {
             TextView empty = new TextView(this);
             if (!coffeeProductsLoadAttempted) {
                 empty.setText("⏳ Carregando cardápio…");
@@ -760,10 +790,10 @@ public class TotemActivity extends Activity {
         grid.setColumnCount(getResources().getConfiguration().screenWidthDp >= 720 ? 2 : 1);
         grid.setUseDefaultMargins(false);
 
-        DecimalFormat priceFmt = new DecimalFormat("0.00");
-        for (SupabaseHelper.CoffeeProduct product : coffeeProducts) {
+        for (int i = 0; i < coffeeMenu.products.size(); i++) {
+            SupabaseHelper.CoffeeProduct product = coffeeMenu.products.get(i);
             Button btn = new Button(this);
-            btn.setText(product.getName() + "\nR$ " + priceFmt.format(product.getPrice()));
+            btn.setText(coffeeMenu.labels.get(i));
             btn.setTextSize(15);
             btn.setTypeface(android.graphics.Typeface.DEFAULT_BOLD);
             btn.setPadding(dp(12), dp(16), dp(12), dp(16));
@@ -948,9 +978,6 @@ public class TotemActivity extends Activity {
             Log.d(TAG, "Lista de máquinas mudou — recarregando do Supabase...");
             new Thread(() -> {
                 try {
-                    List<SupabaseHelper.Machine> fresh = supabaseHelper.refreshMachineById(null) != null
-                            ? null : null;
-                    // refreshMachineById é para uma máquina — usar getAllMachines para lista completa.
                     // getAllMachines já dispara background fetch e notifica via listener.
                     supabaseHelper.getAllMachines();
                 } catch (Exception e) {
@@ -1024,6 +1051,20 @@ public class TotemActivity extends Activity {
         displayCurrentScreen();
     }
     
+    /** Carrega o logo via ImageCache (etapa "logo" do boot) e aplica no cabeçalho atual. */
+    private void fetchLaundryLogo() {
+        String logoUrl = supabaseHelper.getLaundryLogo();
+        Bitmap bitmap = ImageCache.load(this, logoUrl, ImageCache.logoSizePx(this));
+        if (bitmap == null) {
+            return;
+        }
+        runOnUiThread(() -> {
+            if (laundryLogoView != null) {
+                laundryLogoView.setImageBitmap(bitmap);
+            }
+        });
+    }
+
     private void createTotemInterface() {
         rootLayout = new LinearLayout(this);
         rootLayout.setOrientation(LinearLayout.VERTICAL);
@@ -1049,19 +1090,13 @@ public class TotemActivity extends Activity {
             logoImage.setAdjustViewBounds(true);
             logoImage.setScaleType(ImageView.ScaleType.FIT_CENTER);
             headerBar.addView(logoImage);
-            new Thread(() -> {
-                try {
-                    URL url = new URL(logoUrl);
-                    HttpURLConnection connection = SupabaseConfig.openConnection(url);
-                    connection.setDoInput(true);
-                    connection.connect();
-                    InputStream input = connection.getInputStream();
-                    Bitmap bitmap = BitmapFactory.decodeStream(input);
-                    runOnUiThread(() -> logoImage.setImageBitmap(bitmap));
-                } catch (Exception e) {
-                    Log.e(TAG, "Erro ao carregar logo", e);
-                }
-            }).start();
+            laundryLogoView = logoImage;
+            Bitmap cachedLogo = ImageCache.getCached(logoUrl, ImageCache.logoSizePx(this));
+            if (cachedLogo != null) {
+                logoImage.setImageBitmap(cachedLogo);
+            } else {
+                new Thread(this::fetchLaundryLogo).start();
+            }
         }
 
         titleText = new TextView(this);
@@ -1080,6 +1115,15 @@ public class TotemActivity extends Activity {
         );
         titleText.setLayoutParams(titleParams);
         headerBar.addView(titleText);
+        if (!"cielo".equalsIgnoreCase(activeProvider)) {
+            terminalHealthText = new TextView(this);
+            terminalHealthText.setTextSize(12);
+            terminalHealthText.setPadding(dp(8), 0, 0, 0);
+            headerBar.addView(terminalHealthText);
+            showTerminalHealth(PayGoStack.health());
+        } else {
+            terminalHealthText = null;
+        }
         rootLayout.addView(headerBar);
 
         statusText = new TextView(this);
@@ -1258,7 +1302,7 @@ public class TotemActivity extends Activity {
         layout.setGravity(android.view.Gravity.CENTER);
 
         TextView title = new TextView(this);
-        title.setText(refunded ? "Pagamento estornado" : "Liberação não confirmada");
+        title.setText(refunded ? "Estorno em andamento" : "Liberação não confirmada");
         title.setTextSize(22);
         title.setTypeface(android.graphics.Typeface.DEFAULT_BOLD);
         title.setTextColor(Color.WHITE);
@@ -1336,53 +1380,52 @@ public class TotemActivity extends Activity {
         // Libera a máquina na UI imediatamente — não deixar "em uso" sem hardware.
         clearOptimisticOccupied();
         if (machineId != null && !machineId.isEmpty()) {
-            supabaseHelper.updateMachineStatus(machineId, "LIVRE");
             supabaseHelper.patchCachedMachineStatus(machineId, "LIVRE", false);
         }
 
         // Antes de estornar: cancela ON pendente para a máquina não ligar depois do estorno.
-        if (pendingTxIdFinal != null && !pendingTxIdFinal.isEmpty()) {
-            int failed = supabaseHelper.failPendingCommandsForTransaction(pendingTxIdFinal);
-            Log.w(TAG, "Comandos ESP cancelados antes do estorno: " + failed);
+        // abort_totem_payment faz isso e libera a máquina numa chamada; sem a RPC, as duas antigas.
+        if (!supabaseHelper.abortTotemPayment(pendingTxIdFinal)) {
+            if (machineId != null && !machineId.isEmpty()) {
+                supabaseHelper.updateMachineStatus(machineId, "LIVRE");
+            }
+            if (pendingTxIdFinal != null && !pendingTxIdFinal.isEmpty()) {
+                int failed = supabaseHelper.failPendingCommandsForTransaction(pendingTxIdFinal);
+                Log.w(TAG, "Comandos ESP cancelados antes do estorno: " + failed);
+            }
         }
 
-        boolean reversed = false;
+        // Estorno vai para a fila persistente: o worker reconcilia e repete com backoff,
+        // e cancela a TX pending quando a Cielo confirmar. A UI não espera o callback.
+        boolean reversalQueued = false;
         if (canAutoRefund && cieloManager != null) {
             CieloLioManager.ApprovedPaymentSnapshot snap = refundSnapshot;
             if (snap == null) {
                 snap = cieloManager.peekApprovedPaymentSnapshot();
             }
-            // Mesmo com id sintético (broadcast-*), o manager resolve paymentId no Order Manager.
+            // Mesmo com id sintético (broadcast-*), o worker resolve paymentId no Order Manager.
             if (snap != null || cieloManager.hasApprovedPaymentSnapshot()) {
-                Log.w(TAG, "ESP32 não confirmou — iniciando estorno automático Cielo"
+                Log.w(TAG, "ESP32 não confirmou — enfileirando estorno automático Cielo"
                     + (snap != null ? (" paymentId=" + snap.paymentId) : ""));
-                // Congela a UI na tela de estorno enquanto a Cielo processa.
-                runOnUiThread(() -> showEsp32FailureScreen(
-                    "A máquina não liberou.\n\nEstornando o pagamento automaticamente…\nAguarde.",
-                    false
-                ));
-                reversed = cieloManager.requestAutomaticReversal(snap);
+                reversalQueued = cieloManager.enqueueAutomaticReversal(snap, pendingTxIdFinal);
             } else {
                 Log.e(TAG, "ESP32 não confirmou — estorno indisponível (sem paymentId/reference Cielo)");
             }
         }
 
-        if (reversed && pendingTxIdFinal != null && !pendingTxIdFinal.isEmpty()) {
-            boolean cancelled = supabaseHelper.cancelTotemTransactionById(pendingTxIdFinal);
-            Log.d(TAG, "Transação totem cancelada após estorno confirmado: " + cancelled);
-        } else if (pendingTxIdFinal != null && !pendingTxIdFinal.isEmpty()) {
-            Log.e(TAG, "Pagamento sem liberação e sem estorno confirmado; TX mantida pending: "
+        if (!reversalQueued && pendingTxIdFinal != null && !pendingTxIdFinal.isEmpty()) {
+            Log.e(TAG, "Pagamento sem liberação e sem estorno enfileirado; TX mantida pending: "
                 + pendingTxIdFinal);
         }
 
-        final boolean refunded = reversed;
-        final String userMessage = reversed
+        final boolean refunded = reversalQueued;
+        final String userMessage = reversalQueued
             ? "A máquina não foi liberada pelo equipamento.\n\n"
-                + "O pagamento foi estornado automaticamente.\n"
+                + "O estorno do pagamento foi solicitado automaticamente.\n"
                 + "Toque em Voltar para realizar um novo pagamento."
             : (canAutoRefund
                 ? "A máquina não foi liberada pelo equipamento.\n\n"
-                    + "Não foi possível confirmar o estorno automático na Cielo.\n"
+                    + "Não foi possível solicitar o estorno automático na Cielo.\n"
                     + "A máquina já está disponível. Fale com o atendimento se o valor permanecer cobrado."
                 : "A máquina não foi liberada.\n\n"
                     + "Fale com o atendimento para estorno do pagamento.\n"
@@ -1786,93 +1829,26 @@ public class TotemActivity extends Activity {
                         runOnUiThread(() -> handlePaymentError("Máquina de café indisponível no momento."));
                         return;
                     }
-                } else if (!validateMachineAvailabilityFast(machine)) {
-                    Log.w(TAG, "PAGAMENTO BLOQUEADO - Máquina não disponível");
-                    paymentLaunchInProgress.set(false);
-                    runOnUiThread(() -> {
-                        handlePaymentError("Máquina não está mais disponível. Por favor, selecione outra.");
-                        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                            createTotemInterface();
-                            loadMachines();
-                        }, 3000);
-                    });
-                    return;
-                }
-
-                currentOperationId = System.nanoTime();
-                final String cieloReference = UUID.randomUUID().toString();
-                final SupabaseHelper.CoffeeProduct coffeeProductSnapshot = selectedCoffeeProduct;
-                String pendingTxId;
-                if (coffeeProductSnapshot != null) {
-                    pendingTxId = supabaseHelper.createCoffeeTransaction(
-                        coffeeProductSnapshot.getId(),
-                        supabaseMethod
-                    );
-                } else {
-                    pendingTxId = supabaseHelper.createTransaction(
-                        machine.getId(),
-                        machine.getTypeDisplay(),
-                        machine.getPrice(),
-                        "PENDING",
-                        "TXN" + currentOperationId,
-                        supabaseMethod
-                    );
-                }
-                currentPendingTransactionId = pendingTxId;
-                if (pendingTxId == null || pendingTxId.trim().isEmpty()) {
-                    Log.e(TAG, "Pagamento bloqueado: não foi possível criar a transação pending no Supabase");
-                    paymentLaunchInProgress.set(false);
-                    currentOperationId = -1;
-                    currentPendingTransactionId = null;
-                    runOnUiThread(() -> handlePaymentError(
-                        "Não foi possível registrar o pagamento com segurança. Nenhuma cobrança foi iniciada. Tente novamente."
-                    ));
+                    launchCheckedPayment(machine, paymentTypeForManager, supabaseMethod);
                     return;
                 }
-                if ("cielo".equalsIgnoreCase(activeProvider)) {
-                    cieloManager.bindTotemCheckout(
-                        currentOperationId,
-                        machine.getId(),
-                        pendingTxId
-                    );
-                }
-
-                if ("cielo".equalsIgnoreCase(activeProvider)) {
-                    ensureCieloConfigured();
-                    String configErr = cieloManager.getConfigurationError();
-                    if (configErr != null) {
-                        Log.e(TAG, "Pagamento bloqueado — config Cielo: " + configErr);
-                        paymentLaunchInProgress.set(false);
-                        runOnUiThread(() -> handlePaymentError(configErr));
+                // Leitura recente do monitor responde aqui mesmo; senão a consulta da máquina segue em outra thread.
+                availabilityOracle.check(machine, validateMachineAvailabilityFast(machine), verdict -> {
+                    if (!verdict.available) {
+                        Log.w(TAG, "PAGAMENTO BLOQUEADO - Máquina não disponível (" + verdict.source
+                            + ", " + verdict.computedStatus + ")");
+                        rejectUnavailableMachine("Máquina não está mais disponível. Por favor, selecione outra.");
                         return;
                     }
-                }
-
-                if (activePaymentManager != null && !activePaymentManager.isInitialized()) {
-                    paymentLaunchInProgress.set(false);
-                    runOnUiThread(() -> handlePaymentError(
-                        "Pagamento não configurado. Verifique credenciais Cielo no painel admin.",
-                        currentOperationId));
-                    return;
-                }
-
-                cancelPendingSuccessScreen();
-                awaitingPaymentCallback = true;
-                paymentContextMachine = machine;
-                final String managerPaymentType = paymentTypeForManager == null || paymentTypeForManager.isEmpty()
-                    ? "credit" : paymentTypeForManager;
-                final String paymentLabel = coffeeProductSnapshot != null
-                    ? coffeeProductSnapshot.getName()
-                    : machine.getName();
-                activePaymentManager.processPayment(
-                    machine.getPrice(),
-                    managerPaymentType,
-                    "Top Lavanderia - " + paymentLabel,
-                    cieloReference
-                );
-                if (!"cielo".equalsIgnoreCase(activeProvider)) {
-                    runOnUiThread(() -> showPaymentProcessing(machine, managerPaymentType));
-                }
+                    // Poltrona aceita pagamentos seguidos (firmware soma o tempo): sem reserva.
+                    if (!"MASSAGEM".equals(machine.getType())
+                            && MachineLeases.acquire(this, machine.getId()) == MachineLeases.Result.DENIED) {
+                        Log.w(TAG, "PAGAMENTO BLOQUEADO - " + machine.getName() + " reservada por outro totem");
+                        rejectUnavailableMachine("Máquina sendo paga em outro totem. Por favor, selecione outra.");
+                        return;
+                    }
+                    launchCheckedPayment(machine, paymentTypeForManager, supabaseMethod);
+                });
             } catch (Exception e) {
                 awaitingPaymentCallback = false;
                 paymentLaunchInProgress.set(false);
@@ -1883,6 +1859,114 @@ public class TotemActivity extends Activity {
         }).start();
     }
 
+    private void rejectUnavailableMachine(String message) {
+        paymentLaunchInProgress.set(false);
+        runOnUiThread(() -> {
+            handlePaymentError(message);
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                createTotemInterface();
+                loadMachines();
+            }, 3000);
+        });
+    }
+
+    /** Segunda metade do processPayment: máquina já validada, cria a transação pending e abre o pagamento. */
+    private void launchCheckedPayment(SupabaseHelper.Machine machine, String paymentTypeForManager,
+                                      String supabaseMethod) {
+        try {
+            if (activeProviderInfo != null && !activeProviderInfo.supportsPaymentType(paymentTypeForManager)) {
+                paymentLaunchInProgress.set(false);
+                runOnUiThread(() -> handlePaymentError(
+                    formatPaymentTypeLabel(paymentTypeForManager) + " indisponível em " + activeProviderInfo.label + "."));
+                return;
+            }
+            currentOperationId = System.nanoTime();
+            final String cieloReference = UUID.randomUUID().toString();
+            final SupabaseHelper.CoffeeProduct coffeeProductSnapshot = selectedCoffeeProduct;
+            String pendingTxId;
+            if (coffeeProductSnapshot != null) {
+                pendingTxId = supabaseHelper.createCoffeeTransaction(
+                    coffeeProductSnapshot.getId(),
+                    supabaseMethod
+                );
+            } else {
+                pendingTxId = supabaseHelper.createTransaction(
+                    machine.getId(),
+                    machine.getTypeDisplay(),
+                    machine.getPrice(),
+                    "PENDING",
+                    "TXN" + currentOperationId,
+                    supabaseMethod
+                );
+            }
+            currentPendingTransactionId = pendingTxId;
+            if (pendingTxId == null || pendingTxId.trim().isEmpty()) {
+                Log.e(TAG, "Pagamento bloqueado: não foi possível criar a transação pending no Supabase");
+                paymentLaunchInProgress.set(false);
+                currentOperationId = -1;
+                currentPendingTransactionId = null;
+                runOnUiThread(() -> handlePaymentError(
+                    "Não foi possível registrar o pagamento com segurança. Nenhuma cobrança foi iniciada. Tente novamente."
+                ));
+                return;
+            }
+            if ("cielo".equalsIgnoreCase(activeProvider)) {
+                cieloManager.bindTotemCheckout(
+                    currentOperationId,
+                    machine.getId(),
+                    pendingTxId
+                );
+            } else {
+                MachineLeases.attachTransaction(machine.getId(), pendingTxId);
+            }
+
+            if ("cielo".equalsIgnoreCase(activeProvider)) {
+                ensureCieloConfigured();
+                String configErr = cieloManager.getConfigurationError();
+                if (configErr != null) {
+                    Log.e(TAG, "Pagamento bloqueado — config Cielo: " + configErr);
+                    paymentLaunchInProgress.set(false);
+                    runOnUiThread(() -> handlePaymentError(configErr));
+                    return;
+                }
+            }
+
+            if (activePaymentManager != null && !activePaymentManager.isInitialized()) {
+                paymentLaunchInProgress.set(false);
+                runOnUiThread(() -> handlePaymentError(
+                    "Pagamento não configurado. Verifique credenciais Cielo no painel admin.",
+                    currentOperationId));
+                return;
+            }
+
+            cancelPendingSuccessScreen();
+            awaitingPaymentCallback = true;
+            paymentContextMachine = machine;
+            final String managerPaymentType = paymentTypeForManager == null || paymentTypeForManager.isEmpty()
+                ? "credit" : paymentTypeForManager;
+            final String paymentLabel = coffeeProductSnapshot != null
+                ? coffeeProductSnapshot.getName()
+                : machine.getName();
+            final PaymentAttempt attempt = paymentTracker.begin(activeProvider, cieloReference);
+            activePaymentManager.processPayment(
+                machine.getPrice(),
+                managerPaymentType,
+                "Top Lavanderia - " + paymentLabel,
+                cieloReference
+            );
+            attempt.markLaunched();
+            if (!"cielo".equalsIgnoreCase(activeProvider)) {
+                runOnUiThread(() -> showPaymentProcessing(machine, managerPaymentType));
+            }
+        } catch (Exception e) {
+            awaitingPaymentCallback = false;
+            paymentLaunchInProgress.set(false);
+            Log.e(TAG, "Erro ao processar pagamento", e);
+            final long op = currentOperationId;
+            runOnUiThread(() -> handlePaymentError("Erro ao processar pagamento: " + e.getMessage(), op));
+        }
+    }
+
     /** Confia no status da grade (evita 5–10s de rede no clique do botão). */
     private boolean validateMachineAvailabilityFast(SupabaseHelper.Machine machine) {
         if (machine == null) {
@@ -1938,138 +2022,6 @@ public class TotemActivity extends Activity {
         return "credit";
     }
 
-    /**
-     * Valida se a máquina ainda está disponível em tempo real
-     * Faz consulta direta ao Supabase para garantir dados atualizados
-     */
-    private boolean validateMachineAvailability(SupabaseHelper.Machine machine) {
-        final boolean[] result = {false};
-        final Object lock = new Object();
-        
-        new Thread(() -> {
-            try {
-                String url = SupabaseConfig.SUPABASE_URL + "/rest/v1/rpc/get_public_machines";
-                
-                HttpURLConnection connection = SupabaseConfig.openConnection(url);
-                connection.setRequestMethod("POST");
-                SupabaseConfig.applyJsonHeaders(connection);
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-
-                JSONObject body = new JSONObject();
-                body.put("_laundry_id", supabaseHelper.getLaundryId());
-                OutputStream os = connection.getOutputStream();
-                os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                os.close();
-                
-                int responseCode = connection.getResponseCode();
-                
-                if (responseCode == 200) {
-                    BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        response.append(line);
-                    }
-                    br.close();
-                    
-                    JSONArray jsonArray = new JSONArray(response.toString());
-                    
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        JSONObject machineData = jsonArray.getJSONObject(i);
-                        if (!machine.getId().equals(machineData.optString("id"))) {
-                            continue;
-                        }
-                        String currentStatus = machineData.getString("status");
-                        String esp32Id = machineData.getString("esp32_id");
-                        
-                        // Verificar se ESP32 está online
-                        boolean esp32Online = checkEsp32Status(esp32Id);
-                        
-                        // Máquina disponível = status "available" + ESP32 online
-                        result[0] = "available".equals(currentStatus) && esp32Online;
-                        
-                        Log.d(TAG, "Status atual: " + currentStatus + ", ESP32 Online: " + esp32Online);
-                        break;
-                    }
-                }
-                
-                connection.disconnect();
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Erro ao validar disponibilidade", e);
-                result[0] = false;
-            }
-            
-            synchronized (lock) {
-                lock.notify();
-            }
-        }).start();
-        
-        // Aguardar resultado (máximo 5 segundos)
-        synchronized (lock) {
-            try {
-                lock.wait(5000);
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Timeout na validação", e);
-            }
-        }
-        
-        return result[0];
-    }
-    
-    /**
-     * Verifica se o ESP32 específico está online
-     */
-    private boolean checkEsp32Status(String esp32Id) {
-        try {
-            String url = SupabaseConfig.SUPABASE_URL + "/rest/v1/rpc/get_esp32_heartbeats";
-            
-            HttpURLConnection connection = SupabaseConfig.openConnection(url);
-            connection.setRequestMethod("POST");
-            SupabaseConfig.applyJsonHeaders(connection);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(3000);
-            connection.setReadTimeout(3000);
-
-            JSONObject body = new JSONObject();
-            body.put("_laundry_id", supabaseHelper.getLaundryId());
-            OutputStream os = connection.getOutputStream();
-            os.write(body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            os.close();
-            
-            int responseCode = connection.getResponseCode();
-            
-            if (responseCode == 200) {
-                BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-                br.close();
-                
-                JSONArray jsonArray = new JSONArray(response.toString());
-                
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject esp32Data = jsonArray.getJSONObject(i);
-                    if (!esp32Id.equals(esp32Data.optString("esp32_id"))) {
-                        continue;
-                    }
-                    return Esp32TotemPolicy.isEsp32Reachable(esp32Data);
-                }
-            }
-            
-            connection.disconnect();
-            return false;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Erro ao verificar ESP32", e);
-            return false;
-        }
-    }
-    
     private void showPaymentProcessing(SupabaseHelper.Machine machine) {
         showPaymentProcessing(machine, currentOperationSupabasePaymentMethod);
     }
@@ -2154,8 +2106,13 @@ public class TotemActivity extends Activity {
             machineForRefresh = findMachineById(cieloManager.getBoundMachineId());
         }
         SupabaseHelper.Machine resolvedMachine = machineForRefresh;
-        // Sempre revalida preço/tempo do servidor (também no Cielo) para não usar cache curto.
-        if (machineForRefresh != null && supabaseHelper != null) {
+        // Revalida preço/tempo do servidor para não usar cache curto. Lavadora/secadora/poltrona na
+        // Cielo dispensam: commit_totem_payment lê relé e tempo direto no banco.
+        boolean serverResolvesMachine = "cielo".equalsIgnoreCase(activeProvider)
+            && machineForRefresh != null
+            && selectedCoffeeProduct == null
+            && !"CAFE".equals(machineForRefresh.getType());
+        if (machineForRefresh != null && supabaseHelper != null && !serverResolvesMachine) {
             SupabaseHelper.Machine refreshedMachine = supabaseHelper.refreshMachineById(machineForRefresh.getId());
             if (refreshedMachine != null) {
                 resolvedMachine = refreshedMachine;
@@ -2326,7 +2283,20 @@ public class TotemActivity extends Activity {
                 Log.d(TAG, "=== CIELO: enfileirando ESP32 e liberando próximo pagamento ===");
                 Log.d(TAG, "Duração solicitada: " + durationMinutes + " min (tipo="
                     + machineSnapshot.getType() + ")");
-                boolean queued = supabaseHelper.queueEsp32RelayOn(
+                // LAN primeiro: confirmação da própria placa em ms; sem ela, fila na nuvem.
+                final boolean lanConfirmed = supabaseHelper.tryLanRelayOn(
+                    esp32Id, relayPin, machineId, esp32TxId, durationMinutes
+                );
+                // Nuvem: um commit enfileira o ON, grava o método e marca running juntos.
+                // Servidor sem a RPC (ou recusa) cai no esp32-control como antes.
+                final SupabaseHelper.PaymentCommit commit = lanConfirmed
+                    ? null
+                    : supabaseHelper.commitTotemPayment(pendingTxIdFinal, methodForComplete);
+                final String relayEsp32Id = commit != null && !commit.esp32Id.isEmpty() ? commit.esp32Id : esp32Id;
+                final int relayPinFinal = commit != null ? commit.relayPin : relayPin;
+                final int cycleMinutes = commit != null && commit.cycleMinutes > 0
+                    ? commit.cycleMinutes : durationMinutes;
+                boolean queued = lanConfirmed || commit != null || supabaseHelper.queueEsp32RelayOn(
                     esp32Id, relayPin, machineId, esp32TxId, durationMinutes
                 );
                 if (!queued) {
@@ -2357,16 +2327,18 @@ public class TotemActivity extends Activity {
                 final CieloLioManager.ApprovedPaymentSnapshot refundSnap =
                     cieloManager.peekApprovedPaymentSnapshot();
 
-                boolean relayConfirmed = supabaseHelper.waitForEsp32RelayOn(
-                    esp32Id, relayPin, machineId, ESP32_CONFIRM_TIMEOUT_MS, esp32TxId
+                boolean relayConfirmed = lanConfirmed || supabaseHelper.waitForEsp32RelayOn(
+                    relayEsp32Id, relayPinFinal, machineId, ESP32_CONFIRM_TIMEOUT_MS, esp32TxId
                 );
                 if (!relayConfirmed) {
                     Log.w(TAG, "ESP32 sem confirmação — reenfileirando ON e aguardando novamente");
-                    supabaseHelper.queueEsp32RelayOn(
-                        esp32Id, relayPin, machineId, esp32TxId, durationMinutes
-                    );
+                    if (commit == null) {
+                        supabaseHelper.queueEsp32RelayOn(
+                            esp32Id, relayPin, machineId, esp32TxId, durationMinutes
+                        );
+                    }
                     relayConfirmed = supabaseHelper.waitForEsp32RelayOn(
-                        esp32Id, relayPin, machineId, ESP32_CONFIRM_RETRY_TIMEOUT_MS, esp32TxId
+                        relayEsp32Id, relayPinFinal, machineId, ESP32_CONFIRM_RETRY_TIMEOUT_MS, esp32TxId
                     );
                 }
                 // Confirmação tardia: comando pode ter completado após o wait (Wi-Fi).
@@ -2382,6 +2354,18 @@ public class TotemActivity extends Activity {
                     return;
                 }
 
+                if (commit != null) {
+                    // running e TX concluída já vieram do commit + confirm_command no servidor.
+                    supabaseHelper.onCommittedRelayConfirmed(relayEsp32Id, relayPinFinal, machineId, cycleMinutes);
+                    if (!isMassagePayment) {
+                        runOnUiThread(() -> markMachineOptimisticallyOccupied(machineId));
+                    }
+                    cieloManager.onTotemCheckoutFinished();
+                    if (statusMonitor != null) {
+                        statusMonitor.requestImmediatePoll();
+                    }
+                    return;
+                }
                 supabaseHelper.onEsp32RelayConfirmed(esp32Id, relayPin, machineId, durationMinutes);
                 boolean usageStarted = supabaseHelper.startMachineUsage(machineId, durationMinutes);
                 Log.d(TAG, "Status OCUPADA no servidor: " + usageStarted);
@@ -2540,6 +2524,7 @@ public class TotemActivity extends Activity {
             return;
         }
         clearPostPaymentHardwarePending();
+        MachineLeases.releaseAll();
         currentOperationId = -1;
         currentPendingTransactionId = null;
         selectedMachine = null;
@@ -2557,6 +2542,7 @@ public class TotemActivity extends Activity {
 
     private void resetToNewTransaction() {
         cancelPendingSuccessScreen();
+        MachineLeases.releaseAll();
         selectedMachine = null;
         selectedCoffeeProduct = null;
         paymentContextMachine = null;
@@ -2591,6 +2577,7 @@ public class TotemActivity extends Activity {
         if ("cielo".equalsIgnoreCase(activeProvider)) {
             cieloManager.onTotemCheckoutFinished();
         }
+        MachineLeases.releaseAll();
         awaitingPaymentCallback = false;
         paymentLaunchInProgress.set(false);
         cieloLaunchUiActive = false;
@@ -2714,6 +2701,39 @@ public class TotemActivity extends Activity {
         startActivity(intent);
     }
     
+    private void showTerminalHealth(PayGoStack.Health health) {
+        if (terminalHealthText == null) {
+            return;
+        }
+        String label;
+        String color;
+        switch (health) {
+            case READY:
+                label = "● PPC930";
+                color = "#3FB950";
+                break;
+            case INITIALIZING:
+            case IDLE:
+                label = "● PPC930 iniciando";
+                color = "#D29922";
+                break;
+            case CONNECTION_LOST:
+                label = "● PPC930 reconectando";
+                color = "#D29922";
+                break;
+            case NOT_INSTALLED:
+                label = "● PayGo não instalado";
+                color = "#F85149";
+                break;
+            default:
+                label = "● PPC930 indisponível";
+                color = "#F85149";
+                break;
+        }
+        terminalHealthText.setText(label);
+        terminalHealthText.setTextColor(Color.parseColor(color));
+    }
+
     private void updateStatus(String message) {
         if (statusText != null) {
             statusText.setText("🔄 " + message);
@@ -2891,15 +2911,18 @@ public class TotemActivity extends Activity {
      * Inicializa apenas o provedor necessário. Terminais Cielo Smart não carregam PayGo no boot.
      */
     private void initializePaymentManagers() {
-        activeProvider = supabaseHelper.getPaymentProvider();
-        if (!"cielo".equalsIgnoreCase(activeProvider) && isCieloSmartTerminal()) {
+        String configured = supabaseHelper.getPaymentProvider();
+        boolean cieloTerminal = isCieloSmartTerminal();
+        activeProviderInfo = PaymentProviderRegistry.resolve(configured, cieloTerminal);
+        if (cieloTerminal && !PaymentProviderRegistry.CIELO.equalsIgnoreCase(configured)) {
             Log.d(TAG, "Terminal Cielo detectado: priorizando provedor Cielo LIO");
-            activeProvider = "cielo";
         }
+        activeProvider = activeProviderInfo.id;
+        PayGoStack.rememberProvider(this, activeProvider);
 
         cieloManager = new CieloLioManager(this);
 
-        if ("cielo".equalsIgnoreCase(activeProvider)) {
+        if (PaymentProviderRegistry.CIELO.equals(activeProvider)) {
             String cId = supabaseHelper.getCieloClientId();
             String cToken = supabaseHelper.getCieloAccessToken();
             String cMerchant = supabaseHelper.getCieloMerchantCode();
@@ -2908,22 +2931,18 @@ public class TotemActivity extends Activity {
                 cieloManager.configure(cId, cToken, cMerchant, cEnv);
             }
             activePaymentManager = cieloManager;
-            payGoManager = null;
             Log.d(TAG, "Provedor de pagamento: Cielo LIO (PayGo não carregado)");
         } else {
-            payGoManager = new RealPayGoManager(this);
-            activePaymentManager = payGoManager;
-            Log.d(TAG, "Provedor de pagamento: PayGo");
+            activePaymentManager = activeProviderInfo.create(this);
+            Log.d(TAG, "Provedor de pagamento: " + activeProviderInfo.label);
         }
+        // PayGo: Transacoes.obtemInstancia sai do clique do primeiro pagamento (normalmente já
+        // feito no boot pelo PayGoStack; aqui cobre o primeiro boot e troca de provedor).
+        PaymentProviderRegistry.warmUpAsync(activeProviderInfo, activePaymentManager);
     }
 
     private boolean isCieloSmartTerminal() {
-        String model = Build.MODEL == null ? "" : Build.MODEL.toUpperCase(Locale.US);
-        String manufacturer = Build.MANUFACTURER == null ? "" : Build.MANUFACTURER.toUpperCase(Locale.US);
-        return model.contains("DX8000")
-                || model.contains("L300")
-                || model.contains("L400")
-                || manufacturer.contains("CIELO");
+        return PaymentProviderRegistry.isCieloSmartTerminal();
     }
 
     private String getPaymentInstructionTitle() {
@@ -0,0 +1,327 @@
+package app.lovable.toplavanderia;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Totens da mesma loja dividem uma leitura de status pela LAN: só o líder consulta o Supabase
+ * (get_public_machines + get_esp32_heartbeats) e repassa as duas respostas, cruas, aos outros.
+ * Cada totem aplica a mesma regra local ({@link MachineStatusMonitor}, {@link Esp32TotemPolicy}),
+ * então todos mostram o mesmo estado e a carga na nuvem fica em um totem por loja.
+ *
+ * Eleição sem votação: cada totem anuncia um id fixo a cada {@link #HELLO_INTERVAL_MS}; o líder
+ * é o menor id vivo da mesma lavanderia. Líder calado por {@link #PEER_TIMEOUT_MS} sai da
+ * tabela e o próximo assume. Seguidor sem snapshot há {@link #SNAPSHOT_STALE_MS} volta a
+ * consultar a nuvem sozinho (líder vivo na LAN mas sem internet).
+ *
+ * Snapshot em gzip + Base64 para caber em um datagrama, assinado com HMAC do
+ * TOTEM_SETTINGS_SECRET sobre nó, lavanderia, carimbo e conteúdo. O carimbo (relógio do líder,
+ * sempre crescente) precisa estar dentro de {@link #SNAPSHOT_STALE_MS} e acima do último aceito
+ * daquele nó: datagrama repetido ou antigo é descartado. APK sem o segredo não aceita nem repassa
+ * snapshot — cada totem consulta a nuvem sozinho.
+ */
+final class TotemPeerGroup {
+    private static final String TAG = "TotemPeerGroup";
+    private static final String PREFS = "totem_peers";
+    private static final String KEY_NODE_ID = "node_id";
+    static final int PEER_PORT = 41236;
+    private static final String MAGIC = "toplav-peer";
+    private static final long HELLO_INTERVAL_MS = 2_000L;
+    private static final long PEER_TIMEOUT_MS = 6_500L;
+    /** Três polls do líder perdidos. */
+    static final long SNAPSHOT_STALE_MS = 3 * Esp32TotemPolicy.STATUS_POLL_INTERVAL_MS;
+    private static final int RECEIVE_TIMEOUT_MS = 500;
+    private static final int MAX_DATAGRAM = 16 * 1024;
+    private static final long RESTART_DELAY_MS = 5_000L;
+
+    /** Snapshot recebido de outro totem. Chamado na thread da LAN. */
+    interface SnapshotListener {
+        void onPeerSnapshot(String laundryId, JSONArray machines, JSONArray esp32);
+    }
+
+    private static final Map<String, Long> peersSeenAt = new ConcurrentHashMap<>();
+    /** Último carimbo aceito por nó (anti-replay). */
+    private static final Map<String, Long> lastStampByNode = new ConcurrentHashMap<>();
+    private static long lastSentStamp;
+    private static volatile String nodeId;
+    private static volatile String laundryId;
+    private static volatile DatagramSocket socket;
+    private static volatile SnapshotListener snapshotListener;
+    private static volatile long lastSnapshotElapsed;
+    private static volatile String lastLeader;
+    private static Thread thread;
+
+    private TotemPeerGroup() {
+    }
+
+    static synchronized void start(Context context) {
+        if (thread != null) {
+            return;
+        }
+        Context app = context.getApplicationContext();
+        nodeId(app);
+        thread = new Thread(() -> runLoop(app), "totem-peers");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Id fixo deste totem (gerado no primeiro uso); também identifica o dono de {@link MachineLeases}. */
+    static synchronized String nodeId(Context context) {
+        if (nodeId == null) {
+            SharedPreferences prefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+            String id = prefs.getString(KEY_NODE_ID, null);
+            if (id == null) {
+                id = UUID.randomUUID().toString();
+                prefs.edit().putString(KEY_NODE_ID, id).apply();
+            }
+            nodeId = id;
+        }
+        return nodeId;
+    }
+
+    /** Lavanderia deste totem; troca de loja zera a tabela de pares. */
+    static void join(String laundry) {
+        if (laundry == null || laundry.equals(laundryId)) {
+            return;
+        }
+        laundryId = laundry;
+        peersSeenAt.clear();
+        lastStampByNode.clear();
+        lastSnapshotElapsed = 0L;
+    }
+
+    static void setSnapshotListener(SnapshotListener listener) {
+        snapshotListener = listener;
+    }
+
+    /** Este totem é quem consulta a nuvem pela loja (ou está sozinho / sem LAN). */
+    static boolean isLeader() {
+        String self = nodeId;
+        if (self == null || socket == null) {
+            return true;
+        }
+        long now = SystemClock.elapsedRealtime();
+        String leader = self;
+        for (Map.Entry<String, Long> e : peersSeenAt.entrySet()) {
+            if (now - e.getValue() <= PEER_TIMEOUT_MS && e.getKey().compareTo(leader) < 0) {
+                leader = e.getKey();
+            }
+        }
+        if (!leader.equals(lastLeader)) {
+            lastLeader = leader;
+            Log.i(TAG, leader.equals(self) ? "Este totem é o líder da loja" : "Líder da loja: " + leader);
+        }
+        return leader.equals(self);
+    }
+
+    /** False só quando outro totem é o líder e o snapshot dele está em dia. */
+    static boolean shouldPollCloud() {
+        if (laundryId == null || !hasSecret() || isLeader()) {
+            return true;
+        }
+        long at = lastSnapshotElapsed;
+        return at <= 0L || SystemClock.elapsedRealtime() - at > SNAPSHOT_STALE_MS;
+    }
+
+    /** Repassa uma leitura completa da nuvem aos outros totens. Bloqueante (um datagrama). */
+    static void publish(String laundry, JSONArray machines, JSONArray esp32) {
+        DatagramSocket s = socket;
+        if (s == null || laundry == null || !laundry.equals(laundryId) || peersSeenAt.isEmpty()
+                || !hasSecret()) {
+            return;
+        }
+        try {
+            JSONObject data = new JSONObject();
+            data.put("machines", machines);
+            data.put("esp32", esp32);
+            JSONObject msg = envelope("snap");
+            msg.put("z", Base64.encodeToString(gzip(data.toString()), Base64.NO_WRAP));
+            msg.put("ts", nextStamp());
+            msg.put("sig", hmac(SupabaseConfig.TOTEM_SETTINGS_SECRET, signedPart(msg)));
+            send(s, msg);
+        } catch (Exception e) {
+            Log.w(TAG, "Falha ao repassar snapshot", e);
+        }
+    }
+
+    private static void runLoop(Context app) {
+        while (true) {
+            WifiManager.MulticastLock lock = Esp32LanDiscovery.acquireMulticastLock(app, TAG);
+            try (DatagramSocket s = new DatagramSocket(null)) {
+                s.setReuseAddress(true);
+                s.setBroadcast(true);
+                s.bind(new InetSocketAddress(PEER_PORT));
+                s.setSoTimeout(RECEIVE_TIMEOUT_MS);
+                socket = s;
+                byte[] buf = new byte[MAX_DATAGRAM];
+                long nextHello = 0L;
+                while (true) {
+                    long now = SystemClock.elapsedRealtime();
+                    if (now >= nextHello) {
+                        if (laundryId != null) {
+                            send(s, envelope("hello"));
+                        }
+                        nextHello = now + HELLO_INTERVAL_MS;
+                    }
+                    DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                    try {
+                        s.receive(packet);
+                        onPacket(packet);
+                    } catch (SocketTimeoutException ignored) {
+                        // Só o próximo hello.
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "LAN entre totens parou — reiniciando em " + RESTART_DELAY_MS + "ms", e);
+            } finally {
+                socket = null;
+                if (lock != null && lock.isHeld()) {
+                    lock.release();
+                }
+            }
+            SystemClock.sleep(RESTART_DELAY_MS);
+        }
+    }
+
+    private static void onPacket(DatagramPacket packet) {
+        JSONObject msg;
+        try {
+            msg = new JSONObject(new String(packet.getData(), packet.getOffset(), packet.getLength(),
+                StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return;
+        }
+        String from = msg.optString("node", "");
+        String laundry = laundryId;
+        if (!MAGIC.equals(msg.optString("t", "")) || from.isEmpty() || from.equals(nodeId)
+                || laundry == null || !laundry.equals(msg.optString("laundry_id", ""))) {
+            return;
+        }
+        peersSeenAt.put(from, SystemClock.elapsedRealtime());
+        if (!"snap".equals(msg.optString("kind", ""))) {
+            return;
+        }
+        if (!hasSecret()) {
+            return;
+        }
+        if (!verify(msg)) {
+            Log.w(TAG, "Snapshot de " + from + " com assinatura inválida — ignorado");
+            return;
+        }
+        long stamp = msg.optLong("ts", 0L);
+        Long last = lastStampByNode.get(from);
+        if (Math.abs(System.currentTimeMillis() - stamp) > SNAPSHOT_STALE_MS
+                || (last != null && stamp <= last)) {
+            Log.w(TAG, "Snapshot de " + from + " antigo ou repetido (ts=" + stamp + ") — ignorado");
+            return;
+        }
+        lastStampByNode.put(from, stamp);
+        try {
+            JSONObject data = new JSONObject(gunzip(Base64.decode(msg.getString("z"), Base64.NO_WRAP)));
+            lastSnapshotElapsed = SystemClock.elapsedRealtime();
+            SnapshotListener l = snapshotListener;
+            if (l != null) {
+                l.onPeerSnapshot(laundry, data.getJSONArray("machines"), data.getJSONArray("esp32"));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Snapshot de " + from + " ilegível", e);
+        }
+    }
+
+    private static JSONObject envelope(String kind) throws Exception {
+        JSONObject msg = new JSONObject();
+        msg.put("t", MAGIC);
+        msg.put("kind", kind);
+        msg.put("node", nodeId);
+        msg.put("laundry_id", laundryId);
+        return msg;
+    }
+
+    private static void send(DatagramSocket s, JSONObject msg) throws Exception {
+        byte[] bytes = msg.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_DATAGRAM) {
+            Log.w(TAG, "Mensagem de " + bytes.length + " bytes não cabe no datagrama — não enviada");
+            return;
+        }
+        s.send(new DatagramPacket(bytes, bytes.length, InetAddress.getByName("255.255.255.255"), PEER_PORT));
+    }
+
+    private static boolean hasSecret() {
+        String key = SupabaseConfig.TOTEM_SETTINGS_SECRET;
+        return key != null && !key.isEmpty();
+    }
+
+    /** Carimbo do líder: relógio de parede, sempre acima do anterior enviado. */
+    private static synchronized long nextStamp() {
+        lastSentStamp = Math.max(System.currentTimeMillis(), lastSentStamp + 1L);
+        return lastSentStamp;
+    }
+
+    private static String signedPart(JSONObject msg) throws Exception {
+        return msg.getString("node") + "|" + msg.getString("laundry_id") + "|" + msg.getLong("ts")
+            + "|" + msg.getString("z");
+    }
+
+    private static boolean verify(JSONObject msg) {
+        try {
+            byte[] expected = Base64.decode(hmac(SupabaseConfig.TOTEM_SETTINGS_SECRET, signedPart(msg)),
+                Base64.NO_WRAP);
+            byte[] got = Base64.decode(msg.optString("sig", ""), Base64.NO_WRAP);
+            return MessageDigest.isEqual(expected, got);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String hmac(String key, String data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return Base64.encodeToString(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)), Base64.NO_WRAP);
+    }
+
+    private static byte[] gzip(String text) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static String gunzip(byte[] data) throws Exception {
+        try (GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = gz.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package app.lovable.toplavanderia;
+
+/**
+ * Autômato x um contains() por dica, nas telas gravadas. Não é teste (tempo de relógio varia
+ * com a carga da máquina): rodar à mão pelo main e comparar os ns por tela.
+ */
+public final class CieloHintMatcherBenchmark {
+    private static final int WARMUP = 20_000;
+    private static final int ROUNDS = 200_000;
+
+    private CieloHintMatcherBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CieloHintMatcher.Builder table = CieloScreenClassifier.hintTable();
+        CieloHintMatcher matcher = table.build();
+        String[] screens = new String[CieloScreenFixtures.ALL.length];
+        for (int i = 0; i < screens.length; i++) {
+            screens[i] = CieloScreenFixtures.screen(CieloScreenFixtures.ALL[i]);
+        }
+
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += matcher.match(screens[i % screens.length]);
+            sink += table.matchByContains(screens[i % screens.length]);
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += matcher.match(screens[i % screens.length]);
+        }
+        long matcherNs = System.nanoTime() - t0;
+        t0 = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += table.matchByContains(screens[i % screens.length]);
+        }
+        long containsNs = System.nanoTime() - t0;
+
+        System.out.println("CieloHintMatcher: " + (matcherNs / ROUNDS) + " ns/tela; contains(): "
+            + (containsNs / ROUNDS) + " ns/tela (sink=" + sink + ")");
+    }
+}
@@ -0,0 +1,70 @@
+package app.lovable.toplavanderia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CieloHintMatcherTest {
+
+    @Test
+    public void padroesSobrepostosSaoTodosEncontrados() {
+        CieloHintMatcher m = new CieloHintMatcher.Builder()
+            .add(1, "aprovad")
+            .add(2, "aprovada 1")
+            .add(4, "provad")
+            .add(8, "nao imprimir")
+            .add(16, "imprimir")
+            .build();
+        assertEquals(1 | 2 | 4, m.match("Aprovada 1 R$ 10,00"));
+        assertEquals(8 | 16, m.match("NÃO IMPRIMIR"));
+        assertEquals(0, m.match("aprova"));
+        assertEquals(0, m.match(null));
+    }
+
+    @Test
+    public void falhaNoMeioDoPadraoRecomecaCerto() {
+        CieloHintMatcher m = new CieloHintMatcher.Builder().add(1, "aab").build();
+        assertEquals(1, m.match("aaab"));
+        assertEquals(0, m.match("aaxb"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dicaForaDeAsciiERecusada() {
+        new CieloHintMatcher.Builder().add(1, "€").build();
+    }
+
+    @Test
+    public void mesmoResultadoQueContainsNasTelasGravadas() throws Exception {
+        CieloHintMatcher.Builder table = CieloScreenClassifier.hintTable();
+        CieloHintMatcher matcher = table.build();
+        for (String fixture : CieloScreenFixtures.ALL) {
+            String text = CieloScreenFixtures.screen(fixture);
+            assertEquals(fixture, table.matchByContains(text), matcher.match(text));
+        }
+    }
+
+    @Test
+    public void mesmoResultadoQueContainsEmTextoAleatorio() throws Exception {
+        CieloHintMatcher.Builder table = CieloScreenClassifier.hintTable();
+        CieloHintMatcher matcher = table.build();
+        // Retalhos das telas reais embaralhados: cobre padrões cortados e sobrepostos.
+        StringBuilder pool = new StringBuilder();
+        for (String fixture : CieloScreenFixtures.ALL) {
+            pool.append(CieloScreenFixtures.screen(fixture)).append(' ');
+        }
+        Random random = new Random(42L);
+        for (int round = 0; round < 2_000; round++) {
+            StringBuilder text = new StringBuilder();
+            int pieces = 1 + random.nextInt(6);
+            for (int p = 0; p < pieces; p++) {
+                int start = random.nextInt(pool.length());
+                int end = Math.min(pool.length(), start + 1 + random.nextInt(24));
+                text.append(pool, start, end);
+            }
+            String s = text.toString();
+            assertEquals(s, table.matchByContains(s), matcher.match(s));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package app.lovable.toplavanderia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CieloScreenClassifierTest {
+
+    private static int mask(String fixture) throws Exception {
+        return CieloScreenClassifier.classify(CieloScreenFixtures.screen(fixture));
+    }
+
+    @Test
+    public void telaInicialNaoEPagamento() throws Exception {
+        int m = mask("boas_vindas_lio");
+        assertFalse(CieloScreenClassifier.isApprovedPaymentScreen(m));
+        assertFalse(CieloScreenClassifier.isApprovedReceipt(m));
+        assertFalse(CieloScreenClassifier.isInitialCapture(m));
+        // "Limpar dados" sozinho não é o teclado de troco.
+        assertFalse(CieloScreenClassifier.isTrocoScreen(m));
+    }
+
+    @Test
+    public void capturaInicialComAtalhosProibidos() throws Exception {
+        int m = mask("captura_inicial_credito");
+        assertTrue(CieloScreenClassifier.isInitialCapture(m));
+        assertTrue(CieloScreenClassifier.has(m, CieloScreenClassifier.FORBIDDEN_CAPTURE));
+        assertFalse(CieloScreenClassifier.isCardCaptureScreen(m));
+        assertFalse(CieloScreenClassifier.isApprovedPaymentScreen(m));
+        assertFalse(CieloScreenClassifier.isApprovedReceipt(m));
+    }
+
+    @Test
+    public void leitorDeCartao() throws Exception {
+        int m = mask("leitor_cartao");
+        assertTrue(CieloScreenClassifier.isCardCaptureScreen(m));
+        assertFalse(CieloScreenClassifier.isInitialCapture(m));
+        assertFalse(CieloScreenClassifier.isApprovedPaymentScreen(m));
+    }
+
+    @Test
+    public void processandoNuncaEAprovada() throws Exception {
+        int m = mask("processando");
+        assertTrue(CieloScreenClassifier.has(m, CieloScreenClassifier.CAPTURE_IN_PROGRESS));
+        assertFalse(CieloScreenClassifier.isApprovedPaymentScreen(m));
+        assertFalse(CieloScreenClassifier.isApprovedReceipt(m));
+    }
+
+    @Test
+    public void creditoAprovadoComImpressao() throws Exception {
+        int m = mask("aprovada_credito");
+        assertTrue(CieloScreenClassifier.isApprovedPaymentScreen(m));
+        assertTrue(CieloScreenClassifier.isApprovedReceipt(m));
+        assertTrue(CieloScreenClassifier.has(m, CieloScreenClassifier.PRINT_PROMPT));
+        assertFalse(CieloScreenClassifier.isPastInitialCardScreen(m));
+    }
+
+    @Test
+    public void pixAguardandoQr() throws Exception {
+        int m = mask("pix_qr");
+        assertTrue(CieloScreenClassifier.has(m, CieloScreenClassifier.ALTERNATE_CAPTURE));
+        assertFalse(CieloScreenClassifier.isApprovedPaymentScreen(m));
+        assertFalse(CieloScreenClassifier.isPixPrintPrompt(m));
+    }
+
+    @Test
+    public void pixAprovadoPedeImpressao() throws Exception {
+        int m = mask("pix_aprovado");
+        assertTrue(CieloScreenClassifier.isPixPrintPrompt(m));
+        assertTrue(CieloScreenClassifier.isApprovedPaymentScreen(m));
+        assertTrue(CieloScreenClassifier.isApprovedReceipt(m));
+    }
+
+    @Test
+    public void trocoNaoEAprovada() throws Exception {
+        for (String fixture : new String[] { "troco_debito", "troco_teclado" }) {
+            int m = mask(fixture);
+            assertTrue(fixture, CieloScreenClassifier.isTrocoScreen(m));
+            assertFalse(fixture, CieloScreenClassifier.isApprovedPaymentScreen(m));
+            assertFalse(fixture, CieloScreenClassifier.isPixPrintPrompt(m));
+        }
+    }
+
+    @Test
+    public void negadaNaoEAprovada() throws Exception {
+        int m = mask("negada");
+        assertFalse(CieloScreenClassifier.isApprovedPaymentScreen(m));
+        assertFalse(CieloScreenClassifier.isApprovedReceipt(m));
+        assertTrue(CieloScreenClassifier.has(m, CieloScreenClassifier.CARD_CONTEXT));
+    }
+
+    @Test
+    public void acentoEMaiusculaNaoMudamAClassificacao() throws Exception {
+        String raw = CieloScreenFixtures.screen("aprovada_credito");
+        String folded = raw.toLowerCase(java.util.Locale.ROOT)
+            .replace('ã', 'a').replace('é', 'e').replace('à', 'a');
+        assertEquals(CieloScreenClassifier.classify(raw), CieloScreenClassifier.classify(folded));
+    }
+}
@@ -0,0 +1,51 @@
+package app.lovable.toplavanderia;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Dumps de tela em src/test/resources/cielo/screens: um texto de nó por linha, "#" é
+ * comentário. Juntados com espaço, como o serviço de acessibilidade monta o texto da janela.
+ */
+final class CieloScreenFixtures {
+    static final String[] ALL = {
+        "boas_vindas_lio",
+        "captura_inicial_credito",
+        "leitor_cartao",
+        "processando",
+        "aprovada_credito",
+        "pix_qr",
+        "pix_aprovado",
+        "troco_debito",
+        "troco_teclado",
+        "negada"
+    };
+
+    private CieloScreenFixtures() {
+    }
+
+    static String screen(String name) throws IOException {
+        String path = "cielo/screens/" + name + ".txt";
+        InputStream in = CieloScreenFixtures.class.getClassLoader().getResourceAsStream(path);
+        if (in == null) {
+            throw new IOException("Fixture ausente: " + path);
+        }
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(line.trim());
+            }
+        }
+        return sb.toString();
+    }
+}
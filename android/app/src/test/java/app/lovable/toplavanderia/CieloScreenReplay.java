@@ -0,0 +1,283 @@
+package app.lovable.toplavanderia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replay de {@link CieloScreenRecording} na JVM com a lógica de decisão do serviço de
+ * acessibilidade ({@link CieloApprovalDetector}): eventos, poll periódico (primeiro na hora,
+ * como startApprovedPolling) e cache de texto por janela. Mede tempo até detectar a aprovação
+ * e falsos positivos, para ajustar APPROVED_POLL_MS / WINDOW_TEXT_MAX_AGE_MS com evidência e
+ * não na tentativa no terminal.
+ *
+ * Sessão: a gravação começa com a sessão de pagamento; o marcador
+ * {@link CieloScreenRecording#MARK_SESSION_END} desliga a detecção, como hasActiveSession no
+ * serviço. Fica de fora o que a gravação não carrega: pontos de toque (só texto, sem
+ * geometria) e o gatilho por troca de janela (MIN_MS_FOR_TRANSITION_APPROVAL), que o serviço
+ * não agenda.
+ */
+final class CieloScreenReplay {
+    /** Antecipação tolerada: o rótulo manual tem a resolução do quadro gravado. */
+    static final long EARLY_TOLERANCE_MS = 50L;
+
+    private CieloScreenReplay() {
+    }
+
+    static final class Tuning {
+        final long pollMs;
+        final long windowTextMaxAgeMs;
+        final boolean eventScoped;
+
+        Tuning(long pollMs, long windowTextMaxAgeMs, boolean eventScoped) {
+            this.pollMs = pollMs;
+            this.windowTextMaxAgeMs = windowTextMaxAgeMs;
+            this.eventScoped = eventScoped;
+        }
+
+        static Tuning current() {
+            return new Tuning(CieloApprovalDetector.APPROVED_POLL_MS,
+                CieloApprovalDetector.WINDOW_TEXT_MAX_AGE_MS, true);
+        }
+
+        @Override
+        public String toString() {
+            return "poll=" + pollMs + "ms maxAge=" + windowTextMaxAgeMs + "ms eventScoped=" + eventScoped;
+        }
+    }
+
+    static final class Result {
+        final String name;
+        final long expectApprovedAtMs;
+        /** -1 se nunca detectou. */
+        final long detectedAtMs;
+        final String detectedBy;
+        /** Varreduras completas (todas as janelas) e janelas re-lidas — proxy de CPU. */
+        final int fullScans;
+        final int windowWalks;
+
+        Result(String name, long expectApprovedAtMs, long detectedAtMs, String detectedBy,
+               int fullScans, int windowWalks) {
+            this.name = name;
+            this.expectApprovedAtMs = expectApprovedAtMs;
+            this.detectedAtMs = detectedAtMs;
+            this.detectedBy = detectedBy;
+            this.fullScans = fullScans;
+            this.windowWalks = windowWalks;
+        }
+
+        boolean detected() {
+            return detectedAtMs >= 0L;
+        }
+
+        /** Detectou sem aprovação real, ou antes de a tela aprovada aparecer. */
+        boolean falsePositive() {
+            if (!detected()) {
+                return false;
+            }
+            return expectApprovedAtMs < 0L || detectedAtMs + EARLY_TOLERANCE_MS < expectApprovedAtMs;
+        }
+
+        boolean missed() {
+            return expectApprovedAtMs >= 0L && !detected();
+        }
+
+        long timeToDetectMs() {
+            return detected() && expectApprovedAtMs >= 0L ? detectedAtMs - expectApprovedAtMs : -1L;
+        }
+    }
+
+    static final class Summary {
+        final Tuning tuning;
+        final List<Result> results;
+        final int approvals;
+        final int detectedApprovals;
+        final int falsePositives;
+        final int missed;
+        final long meanTimeToDetectMs;
+        final long p95TimeToDetectMs;
+        final long totalWindowWalks;
+
+        Summary(Tuning tuning, List<Result> results) {
+            this.tuning = tuning;
+            this.results = Collections.unmodifiableList(new ArrayList<>(results));
+            int approvals = 0;
+            int detected = 0;
+            int fp = 0;
+            int missed = 0;
+            long walks = 0L;
+            List<Long> ttd = new ArrayList<>();
+            for (Result r : results) {
+                walks += r.windowWalks;
+                if (r.falsePositive()) {
+                    fp++;
+                }
+                if (r.expectApprovedAtMs >= 0L) {
+                    approvals++;
+                    if (r.missed()) {
+                        missed++;
+                    } else if (!r.falsePositive()) {
+                        detected++;
+                        ttd.add(r.timeToDetectMs());
+                    }
+                }
+            }
+            Collections.sort(ttd);
+            long sum = 0L;
+            for (long v : ttd) {
+                sum += v;
+            }
+            this.approvals = approvals;
+            this.detectedApprovals = detected;
+            this.falsePositives = fp;
+            this.missed = missed;
+            this.meanTimeToDetectMs = ttd.isEmpty() ? -1L : sum / ttd.size();
+            this.p95TimeToDetectMs = ttd.isEmpty() ? -1L
+                : ttd.get(Math.min(ttd.size() - 1, (int) Math.ceil(ttd.size() * 0.95) - 1));
+            this.totalWindowWalks = walks;
+        }
+
+        double falsePositiveRate() {
+            return results.isEmpty() ? 0d : (double) falsePositives / results.size();
+        }
+
+        @Override
+        public String toString() {
+            return tuning + " | gravações=" + results.size() + " aprovações=" + approvals
+                + " detectadas=" + detectedApprovals + " perdidas=" + missed
+                + " falsosPositivos=" + falsePositives
+                + " ttdMédio=" + meanTimeToDetectMs + "ms ttdP95=" + p95TimeToDetectMs + "ms"
+                + " janelasLidas=" + totalWindowWalks;
+        }
+    }
+
+    static Summary replayCorpus(List<CieloScreenRecording> corpus, Tuning tuning) {
+        List<Result> results = new ArrayList<>();
+        for (CieloScreenRecording rec : corpus) {
+            results.add(replay(rec, tuning));
+        }
+        return new Summary(tuning, results);
+    }
+
+    /** Compara várias configurações de tempo no mesmo corpus. */
+    static List<Summary> sweep(List<CieloScreenRecording> corpus, List<Tuning> tunings) {
+        List<Summary> out = new ArrayList<>();
+        for (Tuning t : tunings) {
+            out.add(replayCorpus(corpus, t));
+        }
+        return out;
+    }
+
+    static Result replay(CieloScreenRecording rec, Tuning tuning) {
+        Simulation sim = new Simulation(tuning);
+        long end = rec.durationMs() + Math.max(tuning.pollMs, tuning.windowTextMaxAgeMs);
+        long nextPoll = tuning.pollMs > 0 ? 0L : Long.MAX_VALUE;
+        int i = 0;
+        List<CieloScreenRecording.Frame> frames = rec.frames;
+        while (i < frames.size() || nextPoll <= end) {
+            CieloScreenRecording.Frame frame = i < frames.size() ? frames.get(i) : null;
+            // Quadro e poll no mesmo instante: o evento chega antes (mesma ordem do Looper).
+            if (frame != null && frame.atMs <= nextPoll) {
+                i++;
+                if (isSessionEnd(frame)) {
+                    break;
+                }
+                String by = sim.onFrame(frame);
+                if (by != null) {
+                    return sim.result(rec, frame.atMs, by);
+                }
+            } else {
+                if (nextPoll > end) {
+                    break;
+                }
+                if (sim.fullScan(nextPoll)) {
+                    return sim.result(rec, nextPoll, "poll");
+                }
+                nextPoll += tuning.pollMs;
+            }
+        }
+        return sim.result(rec, -1L, "");
+    }
+
+    private static boolean isSessionEnd(CieloScreenRecording.Frame frame) {
+        return CieloScreenRecording.KIND_MARK.equals(frame.kind)
+            && CieloScreenRecording.MARK_SESSION_END.equals(frame.eventText);
+    }
+
+    /** Estado visível ao serviço: texto real das janelas x cache do serviço. */
+    private static final class Simulation {
+        private final Tuning tuning;
+        private final Map<Integer, String> screen = new HashMap<>();
+        private final Map<Integer, String> cachedText = new HashMap<>();
+        private final Map<Integer, Long> cachedAt = new HashMap<>();
+        private int activeWindowId = -1;
+        private int fullScans;
+        private int windowWalks;
+
+        Simulation(Tuning tuning) {
+            this.tuning = tuning;
+        }
+
+        /** Retorna a origem da detecção, ou null. */
+        String onFrame(CieloScreenRecording.Frame f) {
+            if (CieloScreenRecording.KIND_MARK.equals(f.kind)) {
+                return null;
+            }
+            screen.put(f.windowId, f.windowText);
+            activeWindowId = f.windowId;
+            if (CieloScreenRecording.KIND_STATE.equals(f.kind)
+                    || CieloScreenRecording.KIND_WINDOWS.equals(f.kind)) {
+                cachedText.clear();
+                cachedAt.clear();
+            } else {
+                cachedText.remove(f.windowId);
+                cachedAt.remove(f.windowId);
+            }
+            if (CieloApprovalDetector.eventShowsApproval(f.eventText)) {
+                return "event";
+            }
+            boolean scan = CieloScreenRecording.KIND_STATE.equals(f.kind)
+                || (CieloScreenRecording.KIND_CONTENT.equals(f.kind)
+                    && (!tuning.eventScoped || CieloApprovalDetector.subtreeMayShowApproval(f.subtreeText)));
+            if (scan && fullScan(f.atMs)) {
+                return "event-scan";
+            }
+            return null;
+        }
+
+        boolean fullScan(long nowMs) {
+            fullScans++;
+            StringBuilder all = new StringBuilder();
+            String active = "";
+            for (Map.Entry<Integer, String> e : screen.entrySet()) {
+                int id = e.getKey();
+                Long at = cachedAt.get(id);
+                String text;
+                if (at != null && nowMs - at <= tuning.windowTextMaxAgeMs) {
+                    text = cachedText.get(id);
+                } else {
+                    text = e.getValue();
+                    windowWalks++;
+                    cachedText.put(id, text);
+                    cachedAt.put(id, nowMs);
+                }
+                if (!text.isEmpty()) {
+                    if (all.length() > 0) {
+                        all.append(' ');
+                    }
+                    all.append(text);
+                }
+                if (id == activeWindowId) {
+                    active = text;
+                }
+            }
+            return CieloApprovalDetector.windowsShowApproval(all.toString(), active);
+        }
+
+        Result result(CieloScreenRecording rec, long detectedAtMs, String by) {
+            return new Result(rec.name, rec.expectApprovedAtMs, detectedAtMs, by, fullScans, windowWalks);
+        }
+    }
+}
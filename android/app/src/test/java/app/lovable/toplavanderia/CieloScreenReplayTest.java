@@ -0,0 +1,109 @@
+package app.lovable.toplavanderia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Corpus de gravações (src/test/resources/cielo/recordings/*.tsv, formato do
+ * {@link CieloScreenRecorder}) contra a configuração atual do serviço. Gravação nova do
+ * terminal entra na pasta e passa a valer aqui.
+ */
+public class CieloScreenReplayTest {
+    private static final String DIR = "cielo/recordings";
+
+    private static List<CieloScreenRecording> corpus() throws Exception {
+        URL url = CieloScreenReplayTest.class.getClassLoader().getResource(DIR);
+        assertNotNull("Pasta de gravações ausente: " + DIR, url);
+        File[] files = new File(url.toURI()).listFiles((dir, name) -> name.endsWith(".tsv"));
+        assertNotNull(files);
+        Arrays.sort(files);
+        List<CieloScreenRecording> out = new ArrayList<>();
+        for (File f : files) {
+            try (Reader in = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+                out.add(CieloScreenRecording.parse(in));
+            }
+        }
+        return out;
+    }
+
+    private static CieloScreenRecording recording(String name) throws Exception {
+        for (CieloScreenRecording rec : corpus()) {
+            if (rec.name.equals(name)) {
+                return rec;
+            }
+        }
+        throw new AssertionError("Gravação ausente: " + name);
+    }
+
+    @Test
+    public void configuracaoAtualSemFalsoPositivoNemPerda() throws Exception {
+        List<CieloScreenRecording> corpus = corpus();
+        CieloScreenReplay.Summary summary =
+            CieloScreenReplay.replayCorpus(corpus, CieloScreenReplay.Tuning.current());
+        for (CieloScreenReplay.Result r : summary.results) {
+            assertFalse(r.name + " falso positivo em " + r.detectedAtMs + "ms", r.falsePositive());
+            assertFalse(r.name + " aprovação perdida", r.missed());
+        }
+        int expected = 0;
+        for (CieloScreenRecording rec : corpus) {
+            if (rec.expectsApproval()) {
+                expected++;
+            }
+        }
+        assertEquals(expected, summary.detectedApprovals);
+        // Pior caso: aprovação fora dos eventos varridos, vista no poll seguinte.
+        assertTrue("p95=" + summary.p95TimeToDetectMs,
+            summary.p95TimeToDetectMs <= CieloApprovalDetector.APPROVED_POLL_MS);
+    }
+
+    @Test
+    public void aprovacaoNoEventoEDetectadaNaHora() throws Exception {
+        CieloScreenReplay.Result r =
+            CieloScreenReplay.replay(recording("credito_aprovado"), CieloScreenReplay.Tuning.current());
+        assertEquals(0L, r.timeToDetectMs());
+        assertEquals("event", r.detectedBy);
+    }
+
+    @Test
+    public void janelaNovaSoOPollVe() throws Exception {
+        CieloScreenReplay.Result r = CieloScreenReplay.replay(
+            recording("pix_aprovado_nova_janela"), CieloScreenReplay.Tuning.current());
+        assertEquals("poll", r.detectedBy);
+        assertTrue(r.timeToDetectMs() <= CieloApprovalDetector.APPROVED_POLL_MS);
+    }
+
+    @Test
+    public void fimDaSessaoDesligaADeteccao() throws Exception {
+        CieloScreenReplay.Result r = CieloScreenReplay.replay(
+            recording("aprovada_apos_fim_da_sessao"), CieloScreenReplay.Tuning.current());
+        assertFalse(r.detected());
+    }
+
+    @Test
+    public void varreduraSoPorEventoNaoPerdeAprovacao() throws Exception {
+        List<CieloScreenRecording> corpus = corpus();
+        List<CieloScreenReplay.Summary> sweep = CieloScreenReplay.sweep(corpus, Arrays.asList(
+            new CieloScreenReplay.Tuning(CieloApprovalDetector.APPROVED_POLL_MS,
+                CieloApprovalDetector.WINDOW_TEXT_MAX_AGE_MS, false),
+            CieloScreenReplay.Tuning.current()));
+        CieloScreenReplay.Summary everyEvent = sweep.get(0);
+        CieloScreenReplay.Summary scoped = sweep.get(1);
+        assertEquals(everyEvent.detectedApprovals, scoped.detectedApprovals);
+        assertEquals(0, scoped.falsePositives);
+        assertTrue(scoped.totalWindowWalks <= everyEvent.totalWindowWalks);
+    }
+}
@@ -11,6 +11,7 @@
 #include <HTTPUpdate.h>
 #include <DNSServer.h>
 #include <WebServer.h>
+#include <WiFiUdp.h>
 #include <HTTPClient.h>
 #include <ArduinoJson.h>
 #include <Preferences.h>
@@ -41,6 +42,8 @@ void enterConfigPortalSticky(const char* reason);
 void clearWiFiCredentials();
 void pollOtaUpdate();
 void reportOtaResult(const String& jobId, bool success, const String& message);
+void sendLanBeacon();
+void lanBeaconTask(void* param);
 
 // ================== IDENTIFICAÇÃO ==================
 #define LAUNDRY_ID "__LAUNDRY_ID__"
@@ -77,6 +80,13 @@ unsigned long lastOtaPoll = 0;
 const unsigned long HEARTBEAT_INTERVAL = 30000;  // 30 segundos
 const unsigned long POLL_INTERVAL = 5000;        // fila pending_commands (esp32-control)
 const unsigned long OTA_POLL_INTERVAL = 300000;   // verifica atualização OTA remota (5 min)
+/**
+ * Beacon UDP na rede local: o totem (Esp32LanDiscovery) acha a placa e detecta queda em segundos.
+ * Sai de uma task própria: o loop() trava até ~5 s por chamada HTTPS (poll, heartbeat, OTA).
+ */
+WiFiUDP beaconUdp;
+const uint16_t BEACON_PORT = 41235;
+const unsigned long BEACON_INTERVAL = 1000;
 /** Pulso no relé = 1 crédito (mesmo timing do firmware que funcionava no campo). */
 const unsigned long RELAY_PULSE_MS = 1000;
 bool relayState = false;
@@ -84,6 +94,8 @@ bool machineRunning = false;
 unsigned long machineStartTime = 0;
 /** Evita segundo pulso se o servidor reenviar o mesmo comando (confirm HTTP falhou). */
 String lastExecutedCommandId = "";
+/** Mesmo papel para POST /release-credit: o totem repete a transação se a resposta se perder. */
+String lastLanTransactionId = "";
 bool registeredWithServer = false;
 
 String getConfigApSsid() {
@@ -301,6 +313,7 @@ void setup() {
 
   buildEsp32Id();
   Serial.printf("ESP32 ID (auto MAC): %s\n", ESP32_ID);
+  xTaskCreatePinnedToCore(lanBeaconTask, "lan_beacon", 3072, NULL, 1, NULL, 0);
   Serial.println("========================================");
   
   // Configurar rotas HTTP
@@ -405,6 +418,27 @@ void loop() {
   delay(10);
 }
 
+// ================== BEACON LAN ==================
+/** Cadência fixa, independente do loop(); só com o Wi-Fi da loja conectado. */
+void lanBeaconTask(void* param) {
+  for (;;) {
+    if (WiFi.status() == WL_CONNECTED) {
+      sendLanBeacon();
+    }
+    vTaskDelay(pdMS_TO_TICKS(BEACON_INTERVAL));
+  }
+}
+
+void sendLanBeacon() {
+  char payload[128];
+  snprintf(payload, sizeof(payload),
+    "{\"t\":\"toplav\",\"esp32_id\":\"%s\",\"port\":80,\"relay_pin\":%d,\"running\":%s}",
+    ESP32_ID, RELAY_LOGICAL_PIN, machineRunning ? "true" : "false");
+  beaconUdp.beginPacket(IPAddress(255, 255, 255, 255), BEACON_PORT);
+  beaconUdp.write((const uint8_t*) payload, strlen(payload));
+  beaconUdp.endPacket();
+}
+
 // ================== CONEXÃO WIFI ==================
 void connectWiFi(bool waitForResult) {
   if (configuredSsid.length() == 0) {
@@ -547,6 +581,7 @@ void setupRoutes() {
   server.on("/status", HTTP_GET, handleStatus);
   server.on("/start", HTTP_POST, handleStart);
   server.on("/stop", HTTP_POST, handleStop);
+  server.on("/release-credit", HTTP_POST, handleReleaseCredit);
   server.onNotFound(handleNotFound);
 }
 
@@ -613,6 +648,56 @@ void handleStart() {
   sendHeartbeat();
 }
 
+/**
+ * Crédito pedido pelo totem na LAN (Esp32LanClient). Corpo: esp32_id, machine_id (UUID),
+ * relay_pin, transaction_id, cycle_time_minutes. Recusa placa/relé errados e máquina já em
+ * ciclo; a mesma transação repetida só confirma, sem novo pulso.
+ */
+void handleReleaseCredit() {
+  StaticJsonDocument<384> req;
+  if (deserializeJson(req, server.arg("plain"))) {
+    server.send(400, "application/json", "{\"success\":false,\"error\":\"json_invalido\"}");
+    return;
+  }
+  String reqId = req["esp32_id"] | "";
+  int reqPin = req["relay_pin"] | RELAY_LOGICAL_PIN;
+  String txId = req["transaction_id"] | "";
+  String machineId = req["machine_id"] | "";
+  if ((reqId.length() > 0 && reqId != ESP32_ID) || reqPin != RELAY_LOGICAL_PIN) {
+    server.send(409, "application/json", "{\"success\":false,\"error\":\"placa_ou_rele_errado\"}");
+    return;
+  }
+  StaticJsonDocument<256> res;
+  res["esp32_id"] = ESP32_ID;
+  res["machine_id"] = machineId;
+  res["relay_pin"] = RELAY_LOGICAL_PIN;
+  if (txId.length() > 0 && txId == lastLanTransactionId) {
+    Serial.println("♻️ release-credit repetido — só confirma, sem novo pulso");
+    res["success"] = true;
+    res["duplicate"] = true;
+  } else if (machineRunning) {
+    res["success"] = false;
+    res["error"] = "maquina_em_ciclo";
+    String body;
+    serializeJson(res, body);
+    server.send(409, "application/json", body);
+    return;
+  } else {
+    int newCycle = req["cycle_time_minutes"] | 0;
+    if (newCycle > 0) {
+      cycleTimeMinutes = newCycle;
+    }
+    pulseCreditRelay();
+    lastLanTransactionId = txId;
+    res["success"] = true;
+    Serial.printf("⚡ LAN: crédito (tx %s, máquina %s)\n", txId.c_str(), machineId.c_str());
+  }
+  String body;
+  serializeJson(res, body);
+  server.send(200, "application/json", body);
+  sendHeartbeat();
+}
+
 void handleStop() {
   Serial.println("⏹️ Comando STOP recebido");
   relayState = false;
@@ -0,0 +1,54 @@
+-- Consulta de disponibilidade de UMA máquina para o totem (anônimo) antes do pagamento.
+-- Antes o totem baixava get_public_machines + get_esp32_heartbeats da loja inteira só para
+-- olhar uma linha. Retorna a máquina + heartbeat do ESP32 dela numa chamada só.
+
+CREATE OR REPLACE FUNCTION public.get_public_machine_status(_machine_id uuid)
+RETURNS TABLE(
+  id uuid,
+  name text,
+  type text,
+  price_per_cycle numeric,
+  cycle_time_minutes integer,
+  status text,
+  laundry_id uuid,
+  esp32_id text,
+  relay_pin integer,
+  capacity_kg numeric,
+  updated_at timestamp with time zone,
+  esp32_is_online boolean,
+  last_heartbeat timestamp with time zone,
+  relay_status jsonb
+)
+LANGUAGE sql
+STABLE
+SECURITY DEFINER
+SET search_path = public
+AS $$
+  SELECT
+    m.id,
+    m.name,
+    m.type,
+    m.price_per_cycle,
+    m.cycle_time_minutes,
+    m.status,
+    m.laundry_id,
+    m.esp32_id,
+    m.relay_pin,
+    m.capacity_kg,
+    m.updated_at,
+    hb.is_online,
+    hb.last_heartbeat,
+    hb.relay_status
+  FROM public.machines m
+  LEFT JOIN LATERAL (
+    SELECT s.is_online, s.last_heartbeat, s.relay_status
+    FROM public.esp32_status s
+    WHERE s.esp32_id = m.esp32_id
+      AND s.laundry_id = m.laundry_id
+    ORDER BY s.last_heartbeat DESC NULLS LAST
+    LIMIT 1
+  ) hb ON true
+  WHERE m.id = _machine_id;
+$$;
+
+GRANT EXECUTE ON FUNCTION public.get_public_machine_status(uuid) TO anon, authenticated;
@@ -0,0 +1,21 @@
+-- Versão do cardápio de café para o totem revalidar o cache sem baixar a lista inteira.
+-- Muda quando um produto ativo é criado, editado (trigger de updated_at), desativado ou removido.
+
+CREATE OR REPLACE FUNCTION public.get_coffee_menu_version(_laundry_id uuid)
+RETURNS text
+LANGUAGE sql
+STABLE
+SECURITY DEFINER
+SET search_path = public
+AS $$
+  SELECT md5(COALESCE(string_agg(cp.id::text || ':' || cp.updated_at::text, ',' ORDER BY cp.id), ''))
+  FROM public.coffee_products cp
+  JOIN public.laundries l ON l.id = cp.laundry_id
+  JOIN public.machines m ON m.id = cp.machine_id
+  WHERE cp.laundry_id = _laundry_id
+    AND cp.is_active = true
+    AND l.is_active = true
+    AND m.type = 'coffee';
+$$;
+
+GRANT EXECUTE ON FUNCTION public.get_coffee_menu_version(uuid) TO anon, authenticated;
@@ -0,0 +1,66 @@
+-- Totem acionou o relé direto pela rede local (Esp32LanClient): registra o comando já
+-- concluído para o histórico e aplica os mesmos efeitos do confirm_command do esp32-monitor
+-- (máquina in_use, relay_status, TX concluída). Entra como completed: o ESP32 não o executa de novo.
+
+CREATE OR REPLACE FUNCTION public.record_lan_relay_command(
+  _esp32_id text,
+  _relay_pin integer,
+  _machine_id uuid,
+  _transaction_id uuid,
+  _cycle_time_minutes integer
+)
+RETURNS uuid
+LANGUAGE plpgsql
+SECURITY DEFINER
+SET search_path = public
+AS $$
+DECLARE
+  _id uuid;
+  _pin integer := COALESCE(_relay_pin, 1);
+BEGIN
+  IF NOT EXISTS (
+    SELECT 1 FROM public.machines m
+    WHERE m.id = _machine_id AND m.esp32_id = _esp32_id
+  ) THEN
+    RAISE EXCEPTION 'machine % não pertence ao esp32 %', _machine_id, _esp32_id;
+  END IF;
+
+  -- Mesmo efeito do trigger de ON pending: OFF antigo não pode desligar o ciclo novo.
+  PERFORM public.cancel_stale_off_commands(_esp32_id, _pin);
+
+  INSERT INTO public.pending_commands (
+    esp32_id, relay_pin, action, machine_id, transaction_id, status, executed_at, payload
+  ) VALUES (
+    _esp32_id, _pin, 'on', _machine_id, _transaction_id, 'completed', now(),
+    jsonb_build_object('via', 'lan')
+      || CASE WHEN COALESCE(_cycle_time_minutes, 0) > 0
+           THEN jsonb_build_object('cycle_time_minutes', _cycle_time_minutes)
+           ELSE '{}'::jsonb END
+  )
+  RETURNING id INTO _id;
+
+  UPDATE public.machines
+  SET status = 'in_use', updated_at = now()
+  WHERE id = _machine_id;
+
+  UPDATE public.esp32_status
+  SET
+    relay_status = COALESCE(relay_status, '{}'::jsonb) || jsonb_build_object('relay_' || _pin, 'on'),
+    updated_at = now()
+  WHERE esp32_id = _esp32_id;
+
+  PERFORM public.complete_transaction_on_esp_confirm(_transaction_id);
+
+  INSERT INTO public.audit_logs (action, table_name, record_id, new_values)
+  VALUES (
+    'ESP32_COMMAND_EXECUTED', 'pending_commands', _id,
+    jsonb_build_object('esp32_id', _esp32_id, 'relay_pin', _pin, 'action', 'on',
+                       'machine_id', _machine_id, 'via', 'lan')
+  );
+
+  RETURN _id;
+END;
+$$;
+
+GRANT EXECUTE ON FUNCTION public.record_lan_relay_command(text, integer, uuid, uuid, integer)
+TO anon, authenticated, service_role;
@@ -0,0 +1,70 @@
+-- Reserva curta de máquina durante o pagamento no totem: dois totens da mesma loja não cobram
+-- pela mesma lavadora. O totem reserva ao escolher a forma de pagamento, renova enquanto a
+-- maquininha está aberta e libera ao cancelar/concluir; reserva abandonada expira sozinha.
+-- Acesso só pelas RPCs abaixo (totem anônimo), sem policies na tabela.
+
+CREATE TABLE IF NOT EXISTS public.machine_leases (
+  machine_id UUID PRIMARY KEY REFERENCES public.machines(id) ON DELETE CASCADE,
+  holder TEXT NOT NULL,
+  transaction_id UUID,
+  acquired_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  expires_at TIMESTAMPTZ NOT NULL
+);
+
+ALTER TABLE public.machine_leases ENABLE ROW LEVEL SECURITY;
+
+-- Concede se livre, expirada ou já do mesmo totem (renovação). Retorna o dono atual.
+CREATE OR REPLACE FUNCTION public.acquire_machine_lease(
+  _machine_id uuid,
+  _holder text,
+  _ttl_seconds integer DEFAULT 90,
+  _transaction_id uuid DEFAULT NULL
+)
+RETURNS jsonb
+LANGUAGE plpgsql
+SECURITY DEFINER
+SET search_path = public
+AS $$
+DECLARE
+  _ttl integer := LEAST(GREATEST(COALESCE(_ttl_seconds, 90), 15), 300);
+  _row public.machine_leases%ROWTYPE;
+BEGIN
+  IF _holder IS NULL OR length(trim(_holder)) = 0 THEN
+    RAISE EXCEPTION 'holder obrigatório';
+  END IF;
+
+  INSERT INTO public.machine_leases AS l (machine_id, holder, transaction_id, acquired_at, expires_at)
+  VALUES (_machine_id, _holder, _transaction_id, now(), now() + make_interval(secs => _ttl))
+  ON CONFLICT (machine_id) DO UPDATE
+    SET holder = EXCLUDED.holder,
+        transaction_id = COALESCE(EXCLUDED.transaction_id,
+          CASE WHEN l.holder = EXCLUDED.holder THEN l.transaction_id END),
+        acquired_at = CASE WHEN l.holder = EXCLUDED.holder THEN l.acquired_at ELSE now() END,
+        expires_at = EXCLUDED.expires_at
+    WHERE l.holder = EXCLUDED.holder OR l.expires_at <= now()
+  RETURNING l.* INTO _row;
+
+  IF _row.machine_id IS NULL THEN
+    SELECT * INTO _row FROM public.machine_leases WHERE machine_id = _machine_id;
+    RETURN jsonb_build_object('granted', false, 'holder', _row.holder, 'expires_at', _row.expires_at);
+  END IF;
+  RETURN jsonb_build_object('granted', true, 'holder', _row.holder, 'expires_at', _row.expires_at);
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION public.release_machine_lease(_machine_id uuid, _holder text)
+RETURNS boolean
+LANGUAGE sql
+SECURITY DEFINER
+SET search_path = public
+AS $$
+  WITH d AS (
+    DELETE FROM public.machine_leases
+    WHERE machine_id = _machine_id AND holder = _holder
+    RETURNING 1
+  )
+  SELECT EXISTS (SELECT 1 FROM d);
+$$;
+
+GRANT EXECUTE ON FUNCTION public.acquire_machine_lease(uuid, text, integer, uuid) TO anon, authenticated;
+GRANT EXECUTE ON FUNCTION public.release_machine_lease(uuid, text) TO anon, authenticated;
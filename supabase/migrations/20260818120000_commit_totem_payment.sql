@@ -0,0 +1,178 @@
+-- Pós-pagamento do totem em uma chamada: grava a forma de pagamento, enfileira o ON do relé
+-- (idempotente por transação, como o esp32-control) e marca a máquina in_use, tudo na mesma
+-- transação do banco. Devolve o comando a acompanhar e os dados da máquina lidos do banco, para o
+-- totem não precisar recarregar a lista.
+--
+-- A transação continua pending até o ESP32 confirmar: confirm_command conclui via
+-- complete_transaction_on_esp_confirm. Assim o estorno (sem confirmação) acha a TX pending.
+-- abort_totem_payment desfaz em uma chamada: falha o comando em aberto e libera a máquina.
+
+CREATE OR REPLACE FUNCTION public.commit_totem_payment(
+  _transaction_id uuid,
+  _payment_method text DEFAULT NULL
+)
+RETURNS jsonb
+LANGUAGE plpgsql
+SECURITY DEFINER
+SET search_path = public
+AS $$
+DECLARE
+  _tx RECORD;
+  _m RECORD;
+  _pin integer;
+  _cycle integer;
+  _cmd uuid;
+  _cmd_status text;
+  _volumes jsonb;
+  _payload jsonb;
+BEGIN
+  SELECT t.id, t.machine_id, t.status
+  INTO _tx
+  FROM public.transactions t
+  WHERE t.id = _transaction_id
+  FOR UPDATE;
+
+  IF NOT FOUND OR _tx.machine_id IS NULL THEN
+    RETURN jsonb_build_object('ok', false, 'error', 'transaction_not_found');
+  END IF;
+  IF _tx.status NOT IN ('pending', 'completed') THEN
+    RETURN jsonb_build_object('ok', false, 'error', 'transaction_' || _tx.status);
+  END IF;
+
+  SELECT m.id, m.esp32_id, m.relay_pin, m.cycle_time_minutes, m.type, m.status, m.metadata
+  INTO _m
+  FROM public.machines m
+  WHERE m.id = _tx.machine_id
+  FOR UPDATE;
+
+  IF _m.esp32_id IS NULL OR trim(_m.esp32_id) = '' THEN
+    RETURN jsonb_build_object('ok', false, 'error', 'no_esp32');
+  END IF;
+  -- Café usa enqueue_coffee_credit_command (crédito, não ON de relé).
+  IF _m.type = 'coffee' THEN
+    RETURN jsonb_build_object('ok', false, 'error', 'coffee');
+  END IF;
+  -- CHECK machines.status: available | in_use | maintenance | offline (NÃO "running")
+  IF _m.status NOT IN ('available', 'in_use') THEN
+    RETURN jsonb_build_object('ok', false, 'error', 'machine_' || _m.status);
+  END IF;
+
+  _pin := COALESCE(NULLIF(_m.relay_pin, 0), 1);
+  _cycle := COALESCE(NULLIF(_m.cycle_time_minutes, 0), 40);
+
+  -- Retentativa do totem reaproveita o comando: nunca dois ON para a mesma TX.
+  SELECT pc.id, pc.status
+  INTO _cmd, _cmd_status
+  FROM public.pending_commands pc
+  WHERE pc.transaction_id = _transaction_id
+    AND pc.action = 'on'
+    AND pc.status IN ('pending', 'processing', 'completed')
+  ORDER BY pc.created_at DESC
+  LIMIT 1;
+
+  IF _cmd IS NULL THEN
+    PERFORM public.cancel_stale_off_commands(_m.esp32_id, _pin);
+
+    -- Mesmo payload dinâmico do esp32-control (volumes dos firmwares timed_session).
+    SELECT jsonb_object_agg(k, LEAST(GREATEST(round((_m.metadata ->> k)::numeric), 0), 30))
+    INTO _volumes
+    FROM unnest(ARRAY[
+      'volume_audio_001', 'volume_audio_002', 'volume_audio_003', 'volume_audio_004',
+      'volume_audio_005', 'volume_audio_006', 'volume_audio_007'
+    ]) AS k
+    WHERE (_m.metadata ->> k) ~ '^-?[0-9]+(\.[0-9]+)?$';
+
+    _payload := jsonb_build_object('cycle_time_minutes', _cycle, 'via', 'commit');
+    IF _volumes IS NOT NULL THEN
+      _payload := _payload || jsonb_build_object('audio_volumes', _volumes);
+    END IF;
+
+    INSERT INTO public.pending_commands (
+      esp32_id, relay_pin, action, machine_id, transaction_id, status, payload
+    ) VALUES (
+      _m.esp32_id, _pin, 'on', _m.id, _transaction_id, 'pending', _payload
+    )
+    RETURNING id INTO _cmd;
+    _cmd_status := 'pending';
+
+    INSERT INTO public.audit_logs (action, table_name, record_id, new_values)
+    VALUES (
+      'ESP32_CONTROL_QUEUED', 'pending_commands', _cmd,
+      jsonb_build_object('esp32_id', _m.esp32_id, 'relay_pin', _pin, 'action', 'on',
+        'transaction_id', _transaction_id, 'command_id', _cmd, 'via', 'commit_totem_payment')
+    );
+  END IF;
+
+  UPDATE public.transactions
+  SET
+    payment_method = COALESCE(NULLIF(_payment_method, ''), payment_method),
+    -- Status anterior só na primeira chamada: na retentativa a máquina já está in_use.
+    metadata = jsonb_build_object('machine_status_before_commit', _m.status)
+      || COALESCE(metadata, '{}'::jsonb)
+      || jsonb_build_object('payment_committed_at', now()),
+    updated_at = now()
+  WHERE id = _transaction_id
+    AND status = 'pending';
+
+  UPDATE public.machines
+  SET status = 'in_use', updated_at = now()
+  WHERE id = _m.id
+    AND status = 'available';
+
+  -- Máquina já marcada em uso: a reserva do pagamento não é mais necessária.
+  DELETE FROM public.machine_leases WHERE machine_id = _m.id;
+
+  RETURN jsonb_build_object(
+    'ok', true,
+    'command_id', _cmd,
+    'command_status', _cmd_status,
+    'esp32_id', _m.esp32_id,
+    'relay_pin', _pin,
+    'cycle_time_minutes', _cycle,
+    'machine_type', _m.type
+  );
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION public.abort_totem_payment(_transaction_id uuid)
+RETURNS integer
+LANGUAGE plpgsql
+SECURITY DEFINER
+SET search_path = public
+AS $$
+DECLARE
+  _machine_id uuid;
+  _before text;
+  _n integer;
+BEGIN
+  IF _transaction_id IS NULL THEN
+    RETURN 0;
+  END IF;
+
+  SELECT t.machine_id, t.metadata ->> 'machine_status_before_commit'
+  INTO _machine_id, _before
+  FROM public.transactions t
+  WHERE t.id = _transaction_id;
+
+  _n := public.fail_pending_commands_for_transaction(_transaction_id);
+
+  -- Só libera se o ESP não chegou a confirmar (completed = máquina ligada de verdade) e se a
+  -- máquina estava livre antes do commit (poltrona paga em sessão segue rodando).
+  IF _machine_id IS NOT NULL AND COALESCE(_before, 'available') = 'available' AND NOT EXISTS (
+    SELECT 1 FROM public.pending_commands pc
+    WHERE pc.transaction_id = _transaction_id
+      AND pc.action = 'on'
+      AND pc.status = 'completed'
+  ) THEN
+    UPDATE public.machines
+    SET status = 'available', updated_at = now()
+    WHERE id = _machine_id
+      AND status = 'in_use';
+  END IF;
+
+  RETURN _n;
+END;
+$$;
+
+GRANT EXECUTE ON FUNCTION public.commit_totem_payment(uuid, text) TO anon, authenticated, service_role;
+GRANT EXECUTE ON FUNCTION public.abort_totem_payment(uuid) TO anon, authenticated, service_role;
@@ -0,0 +1,71 @@
+-- commit_totem_payment / abort_totem_payment numa máquina livre (supabase test db).
+-- machines.status só aceita available | in_use | maintenance | offline: o commit precisa
+-- passar pelo CHECK, senão a RPC inteira volta e o totem cai sempre no caminho antigo.
+BEGIN;
+CREATE EXTENSION IF NOT EXISTS pgtap WITH SCHEMA extensions;
+SELECT plan(8);
+
+INSERT INTO public.laundries (id, name, cnpj)
+VALUES ('00000000-0000-4000-8000-000000000001', 'Teste commit', '00.000.000/0001-00');
+
+INSERT INTO public.machines (id, name, type, status, laundry_id, esp32_id, relay_pin, cycle_time_minutes)
+VALUES ('00000000-0000-4000-8000-000000000002', 'Lavadora teste', 'washing', 'available',
+        '00000000-0000-4000-8000-000000000001', 'esp32_teste_commit', 1, 40);
+
+INSERT INTO public.transactions (id, machine_id, laundry_id, status, total_amount)
+VALUES ('00000000-0000-4000-8000-000000000003', '00000000-0000-4000-8000-000000000002',
+        '00000000-0000-4000-8000-000000000001', 'pending', 15.00);
+
+SELECT is(
+  (public.commit_totem_payment('00000000-0000-4000-8000-000000000003', 'cielo') ->> 'ok')::boolean,
+  true,
+  'commit em máquina available devolve ok'
+);
+
+SELECT is(
+  (SELECT status FROM public.machines WHERE id = '00000000-0000-4000-8000-000000000002'),
+  'in_use',
+  'máquina available passa a in_use'
+);
+
+SELECT is(
+  (SELECT count(*)::int FROM public.pending_commands
+   WHERE transaction_id = '00000000-0000-4000-8000-000000000003' AND action = 'on' AND status = 'pending'),
+  1,
+  'um ON pendente enfileirado'
+);
+
+SELECT is(
+  (SELECT metadata ->> 'machine_status_before_commit' FROM public.transactions
+   WHERE id = '00000000-0000-4000-8000-000000000003'),
+  'available',
+  'status anterior gravado'
+);
+
+SELECT is(
+  (public.commit_totem_payment('00000000-0000-4000-8000-000000000003', 'cielo') ->> 'ok')::boolean,
+  true,
+  'retentativa do commit também ok'
+);
+
+SELECT is(
+  (SELECT count(*)::int FROM public.pending_commands
+   WHERE transaction_id = '00000000-0000-4000-8000-000000000003' AND action = 'on'),
+  1,
+  'retentativa não enfileira segundo ON'
+);
+
+SELECT is(
+  public.abort_totem_payment('00000000-0000-4000-8000-000000000003'),
+  1,
+  'abort falha o ON em aberto'
+);
+
+SELECT is(
+  (SELECT status FROM public.machines WHERE id = '00000000-0000-4000-8000-000000000002'),
+  'available',
+  'abort devolve a máquina a available'
+);
+
+SELECT * FROM finish();
+ROLLBACK;